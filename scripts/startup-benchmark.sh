@@ -0,0 +1,42 @@
+#!/bin/sh
+# Compares the time to first answer of the plain jar, the jar with its class-data archive and the native image, on a
+# tiny log file so that startup dominates. Build them first with `./mvnw -P cds,native -DskipTests package`, variants
+# which weren't built are skipped. Uses hyperfine if it's installed.
+#
+#     scripts/startup-benchmark.sh [runs]
+
+set -e
+cd "$(dirname "$0")/.."
+runs=${1:-20}
+args="-f test-data/default-sample.txt -d 2018-12-09"
+
+now_ms() {
+    echo $(($(date +%s%N) / 1000000))
+}
+
+for launcher in target/cookie-store target/cookie-store-cds target/cookie-store-native; do
+    if [ ! -x "$launcher" ]; then
+        echo "$launcher: not built, skipping"
+        continue
+    fi
+    if command -v hyperfine > /dev/null; then
+        hyperfine --warmup 3 --runs "$runs" --command-name "$launcher" "$launcher $args"
+        continue
+    fi
+    # One run to warm up the page cache
+    $launcher $args > /dev/null
+    total=0
+    min=
+    i=0
+    while [ $i -lt "$runs" ]; do
+        start=$(now_ms)
+        $launcher $args > /dev/null
+        elapsed=$(($(now_ms) - start))
+        total=$((total + elapsed))
+        if [ -z "$min" ] || [ $elapsed -lt "$min" ]; then
+            min=$elapsed
+        fi
+        i=$((i + 1))
+    done
+    echo "$launcher: mean $((total / runs)) ms, min $min ms over $runs runs"
+done
@@ -0,0 +1,146 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+
+/**
+ * Generates the synthetic, newest-first sorted log data used by the benchmarks. The data is fully determined by its
+ * parameters (the random generator is seeded) so that runs of different builds see exactly the same input:
+ * <ul>
+ *     <li>lines: the number of cookie lines, excluding the header</li>
+ *     <li>cardinality: the number of distinct cookies, picked uniformly at random for every line</li>
+ *     <li>day skew: how the lines are spread over the {@value #DAYS} days; 0 spreads them evenly while higher values
+ *     pile them onto the most recent days (the weight of the n-th newest day is 1/n^skew)</li>
+ * </ul>
+ * Log files are generated once per parameter combination into the system temp directory and reused afterwards, since
+ * writing the bigger ones takes much longer than benchmarking them.
+ */
+final class BenchmarkData {
+
+    static final int DAYS = 30;
+
+    static final LocalDate NEWEST_DAY = LocalDate.of(2018, 12, 31);
+
+    static final LocalDate OLDEST_DAY = NEWEST_DAY.minusDays(DAYS - 1);
+
+    private static final String NAME_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+
+    private static final int NAME_LENGTH = 16;
+
+    private final long lines;
+
+    private final int cardinality;
+
+    private final double daySkew;
+
+    BenchmarkData(long lines, int cardinality, double daySkew) {
+        this.lines = lines;
+        this.cardinality = cardinality;
+        this.daySkew = daySkew;
+    }
+
+    /**
+     * The log file (including the header) for these parameters, generating it if needed
+     */
+    Path logFile() {
+        var dir = Path.of(System.getProperty("java.io.tmpdir"), "cookie-store-bench");
+        var file = dir.resolve("cookies-%d-%d-%s.txt".formatted(lines, cardinality, daySkew));
+        if (Files.isRegularFile(file)) {
+            return file;
+        }
+        try {
+            Files.createDirectories(dir);
+            var tempFile = Files.createTempFile(dir, "cookies", ".tmp");
+            try (var out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(tempFile), StandardCharsets.UTF_8), 1 << 20)) {
+                out.write("cookie,timestamp\n");
+                forEachLine(line -> {
+                    try {
+                        out.write(line);
+                        out.write('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+            return Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * All the lines for these parameters in memory, newest first; only meant for the smaller line counts
+     */
+    List<String> lines() {
+        var result = new ArrayList<String>((int) lines);
+        forEachLine(result::add);
+        return result;
+    }
+
+    /**
+     * Visit all the lines (without the header) newest first
+     */
+    void forEachLine(Consumer<String> consumer) {
+        var random = new Random(42);
+        var names = names(random);
+        var perDay = linesPerDay();
+        var line = new StringBuilder(64);
+        for (int day = 0; day < DAYS; ++day) {
+            var date = NEWEST_DAY.minusDays(day).toString();
+            for (long i = 0; i < perDay[day]; ++i) {
+                var secondOfDay = 86_399 - (int) (i * 86_400 / perDay[day]);
+                line.setLength(0);
+                line.append(names[random.nextInt(cardinality)]).append(',').append(date).append('T');
+                appendTwoDigits(line, secondOfDay / 3600).append(':');
+                appendTwoDigits(line, secondOfDay / 60 % 60).append(':');
+                appendTwoDigits(line, secondOfDay % 60).append("+00:00");
+                consumer.accept(line.toString());
+            }
+        }
+    }
+
+    private long[] linesPerDay() {
+        var weights = new double[DAYS];
+        var total = 0.0;
+        for (int day = 0; day < DAYS; ++day) {
+            weights[day] = 1 / Math.pow(day + 1, daySkew);
+            total += weights[day];
+        }
+        var perDay = new long[DAYS];
+        var assigned = 0L;
+        for (int day = 0; day < DAYS; ++day) {
+            perDay[day] = (long) (lines * weights[day] / total);
+            assigned += perDay[day];
+        }
+        perDay[0] += lines - assigned;
+        return perDay;
+    }
+
+    private String[] names(Random random) {
+        var names = new String[cardinality];
+        var name = new char[NAME_LENGTH];
+        for (int i = 0; i < cardinality; ++i) {
+            for (int j = 0; j < NAME_LENGTH; ++j) {
+                name[j] = NAME_CHARS.charAt(random.nextInt(NAME_CHARS.length()));
+            }
+            names[i] = new String(name);
+        }
+        return names;
+    }
+
+    private static StringBuilder appendTwoDigits(StringBuilder sb, int value) {
+        return sb.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+
+}
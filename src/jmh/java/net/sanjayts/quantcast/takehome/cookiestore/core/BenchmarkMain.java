@@ -0,0 +1,28 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * The entry point of the benchmarks jar. It takes the usual JMH command line but always attaches the GC profiler, so
+ * that every benchmark reports its allocation rate (gc.alloc.rate.norm is the bytes allocated per operation) next to
+ * its throughput.
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        var commandLine = new CommandLineOptions(args);
+        if (commandLine.shouldHelp() || commandLine.shouldList() || commandLine.shouldListWithParams()
+                || commandLine.shouldListProfilers() || commandLine.shouldListResultFormats()) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        var options = new OptionsBuilder().parent(commandLine);
+        if (commandLine.getProfilers().stream().noneMatch(p -> p.getKlass().equals("gc"))) {
+            options.addProfiler(GCProfiler.class);
+        }
+        new org.openjdk.jmh.runner.Runner(options.build()).run();
+    }
+
+}
@@ -0,0 +1,79 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import net.sanjayts.quantcast.takehome.cookiestore.model.CookieInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adding single cookies to the store and querying a store loaded with a whole log file's worth of cookies.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CookieDataStoreBenchmark {
+
+    private static final int SAMPLE_SIZE = 1 << 16;
+
+    @Param({"1000", "1000000"})
+    public long lines;
+
+    @Param({"100", "100000"})
+    public int cardinality;
+
+    @Param({"0", "1.5"})
+    public double daySkew;
+
+    private CookieInfo[] cookies;
+
+    private CookieDataStore loadedStore;
+
+    private CookieDataStore store;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        var data = new BenchmarkData(lines, cardinality, daySkew);
+        cookies = new BenchmarkData(SAMPLE_SIZE, cardinality, daySkew).lines().stream()
+                .map(CookieParser::parseInfo)
+                .toArray(CookieInfo[]::new);
+        loadedStore = new CookieDataStore();
+        data.forEachLine(line -> loadedStore.addCookie(CookieParser.parseInfo(line)));
+    }
+
+    @Setup(Level.Iteration)
+    public void newStore() {
+        store = new CookieDataStore();
+    }
+
+    @Benchmark
+    public CookieDataStore addCookie() {
+        next = (next + 1) & (SAMPLE_SIZE - 1);
+        store.addCookie(cookies[next]);
+        return store;
+    }
+
+    @Benchmark
+    public Set<String> mostActiveFor() {
+        next = (next + 1) % BenchmarkData.DAYS;
+        return loadedStore.mostActiveFor(LocalDate.ofEpochDay(BenchmarkData.OLDEST_DAY.toEpochDay() + next));
+    }
+
+}
@@ -0,0 +1,108 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import net.sanjayts.quantcast.takehome.cookiestore.model.CookieInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing single lines, cycling through a sample of generated lines so that the branch predictor can't learn a single
+ * line by heart. The file size doesn't matter for a per-line operation, hence only the shape of the data is a parameter,
+ * along with the fraction of lines which are corrupted (a bad timestamp, a missing one or an extra field).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CookieParserBenchmark {
+
+    private static final int SAMPLE_SIZE = 1 << 16;
+
+    @Param({"100", "100000"})
+    public int cardinality;
+
+    @Param({"0", "1.5"})
+    public double daySkew;
+
+    @Param({"0", "0.3"})
+    public double malformed;
+
+    private String[] lines;
+
+    /** The same lines, newline separated, for the batch parser */
+    private byte[] data;
+
+    private final CookieBatch batch = new CookieBatch();
+
+    private final IngestMetrics.Tally tally = new IngestMetrics.Tally();
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        lines = new BenchmarkData(SAMPLE_SIZE, cardinality, daySkew).lines().toArray(new String[0]);
+        var random = new Random(42);
+        for (int i = 0; i < lines.length; ++i) {
+            if (random.nextDouble() < malformed) {
+                lines[i] = switch (i % 3) {
+                    case 0 -> lines[i].replace('T', ' ');
+                    case 1 -> lines[i].substring(0, lines[i].indexOf(','));
+                    default -> lines[i] + ",x";
+                };
+            }
+        }
+        data = (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public CookieInfo parseInfo() {
+        return CookieParser.parseInfo(nextLine());
+    }
+
+    /** The line at a time ingestion, which tallies the malformed lines instead of keeping them */
+    @Benchmark
+    public CookieInfo parseOrReject() {
+        return CookieParser.parseOrReject(nextLine(), tally, Quarantine.DISCARD);
+    }
+
+    /** Parses the whole sample in batches, reported per line to be comparable with {@link #parseInfo()} */
+    @Benchmark
+    @OperationsPerInvocation(SAMPLE_SIZE)
+    public int parseBatches() {
+        var rows = 0;
+        for (int from = 0; from < data.length; ) {
+            batch.reset(data);
+            from = CookieParser.parseLines(data, from, data.length, true, 0, batch);
+            rows += batch.size();
+        }
+        return rows;
+    }
+
+    @Benchmark
+    public long parseTimestamp() {
+        var line = nextLine();
+        return TimestampParser.parseEpochSecond(line, line.indexOf(',') + 1, line.length());
+    }
+
+    private String nextLine() {
+        next = (next + 1) & (SAMPLE_SIZE - 1);
+        return lines[next];
+    }
+
+}
@@ -0,0 +1,86 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading every line of a log file, with the buffered reader and with the memory mapped source.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CookieSourceBenchmark {
+
+    @Param({"1000", "1000000"})
+    public long lines;
+
+    @Param({"100", "100000"})
+    public int cardinality;
+
+    @Param({"0", "1.5"})
+    public double daySkew;
+
+    private Path logFile;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        logFile = new BenchmarkData(lines, cardinality, daySkew).logFile();
+    }
+
+    @Benchmark
+    public long readerNextLine(LineCounter counter) throws IOException {
+        var chars = 0L;
+        try (var source = new CookieSource(Files.newBufferedReader(logFile))) {
+            String line;
+            while ((line = source.nextLine()) != null) {
+                chars += line.length();
+                ++counter.lines;
+            }
+        }
+        return chars;
+    }
+
+    @Benchmark
+    public long mappedNextLine(LineCounter counter) {
+        var chars = 0L;
+        try (var source = new MappedCookieSource(logFile)) {
+            String line;
+            while ((line = source.nextLine()) != null) {
+                chars += line.length();
+                ++counter.lines;
+            }
+        }
+        return chars;
+    }
+
+    @Benchmark
+    public long mappedAdvance(LineCounter counter) {
+        var chars = 0L;
+        try (var source = new MappedCookieSource(logFile)) {
+            while (source.advance()) {
+                chars += source.line().length();
+                ++counter.lines;
+            }
+        }
+        return chars;
+    }
+
+}
@@ -0,0 +1,79 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finding the newlines and commas of a chunk of generated log lines, byte by byte versus 8 bytes at a time (SWAR)
+ * versus a SIMD register at a time (Vector API), reported in chunks per second; the chunk is about 1MB. The vector
+ * scanner is only there when built with the vector profile as well (`-P bench,vector`).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Thread)
+public class DelimiterScannerBenchmark {
+
+    @Param({"scalar", "swar", "vector"})
+    public String scanner;
+
+    private DelimiterScanner delimiterScanner;
+
+    private byte[] data;
+
+    private final int[] positions = new int[2 * CookieBatch.DEFAULT_CAPACITY + 64];
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        var lines = new BenchmarkData(1 << 15, 100_000, 0).lines().toArray(new String[0]);
+        data = (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8);
+        delimiterScanner = switch (scanner) {
+            case "scalar" -> new Scalar();
+            case "swar" -> new DelimiterScanner.Swar();
+            case "vector" -> DelimiterScanner.vector().orElseThrow(() ->
+                    new IllegalStateException("The vector scanner needs the vector build profile (-P bench,vector)"));
+            default -> throw new IllegalArgumentException("Unknown scanner " + scanner);
+        };
+    }
+
+    @Benchmark
+    public int scan() {
+        var delimiters = 0;
+        for (int from = 0; from < data.length; ) {
+            var count = delimiterScanner.scan(data, from, data.length, positions);
+            delimiters += count;
+            from = count == positions.length ? positions[count - 1] + 1 : data.length;
+        }
+        return delimiters;
+    }
+
+    /** The byte at a time baseline */
+    private static final class Scalar extends DelimiterScanner {
+
+        @Override
+        int scan(byte[] data, int from, int to, int[] positions) {
+            return scanBytes(data, from, to, positions, 0);
+        }
+
+        @Override
+        String name() {
+            return "scalar";
+        }
+    }
+
+}
@@ -0,0 +1,24 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks which process a whole file per operation count the lines they went through here, which JMH reports as a
+ * lines/s throughput next to the files/s one.
+ */
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+@State(Scope.Thread)
+public class LineCounter {
+
+    public long lines;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        lines = 0;
+    }
+
+}
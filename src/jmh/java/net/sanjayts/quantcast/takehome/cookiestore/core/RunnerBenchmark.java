@@ -0,0 +1,109 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The end-to-end flow from a log file to the most active cookies, the way Main drives it. Asking for the oldest day
+ * makes every line of the file count, while asking for the newest day with seeking shows the cost of a typical query.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RunnerBenchmark {
+
+    private static final List<String> HEADERS = List.of("cookie", "timestamp");
+
+    @Param({"1000", "1000000"})
+    public long lines;
+
+    @Param({"100", "100000"})
+    public int cardinality;
+
+    @Param({"0", "1.5"})
+    public double daySkew;
+
+    private Path logFile;
+
+    private ForkJoinPool pool;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        logFile = new BenchmarkData(lines, cardinality, daySkew).logFile();
+        pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Benchmark
+    public Set<String> readerWholeFile(LineCounter counter) throws IOException {
+        try (var source = new CookieSource(Files.newBufferedReader(logFile))) {
+            var parser = CookieParser.createFromAndValidate(source, HEADERS, BenchmarkData.OLDEST_DAY);
+            counter.lines += lines;
+            return new Runner().run(parser, new CookieDataStore(), BenchmarkData.OLDEST_DAY);
+        }
+    }
+
+    /** The raw bytes of a stream, parsed in batches like a mapped file is, as done for pipes and compressed files */
+    @Benchmark
+    public Set<String> streamWholeFile(LineCounter counter) throws IOException {
+        try (var source = new StreamCookieSource(Files.newInputStream(logFile))) {
+            var parser = CookieParser.createFromAndValidate(source, HEADERS, BenchmarkData.OLDEST_DAY);
+            counter.lines += lines;
+            return new Runner().run(parser, new CookieDataStore(), BenchmarkData.OLDEST_DAY);
+        }
+    }
+
+    @Benchmark
+    public Set<String> mappedWholeFile(LineCounter counter) {
+        try (var source = new MappedCookieSource(logFile)) {
+            var parser = CookieParser.createFromAndValidate(source, HEADERS, BenchmarkData.OLDEST_DAY);
+            counter.lines += lines;
+            return new Runner().run(parser, new CookieDataStore(), BenchmarkData.OLDEST_DAY);
+        }
+    }
+
+    @Benchmark
+    public Set<String> parallelWholeFile(LineCounter counter) {
+        try (var source = new MappedCookieSource(logFile)) {
+            CookieParser.createFromAndValidate(source, HEADERS, BenchmarkData.OLDEST_DAY);
+            counter.lines += lines;
+            return new ParallelRunner(pool, pool.getParallelism() * 4).run(source, new CookieDataStore(), BenchmarkData.OLDEST_DAY);
+        }
+    }
+
+    @Benchmark
+    public Set<String> mappedSeekNewestDay() {
+        try (var source = new MappedCookieSource(logFile)) {
+            var parser = CookieParser.createFromAndValidate(source, HEADERS, BenchmarkData.NEWEST_DAY);
+            parser.seekTo(BenchmarkData.NEWEST_DAY);
+            return new Runner().run(parser, new CookieDataStore(), BenchmarkData.NEWEST_DAY);
+        }
+    }
+
+}
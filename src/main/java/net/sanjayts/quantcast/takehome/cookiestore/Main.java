@@ -1,63 +1,491 @@
 package net.sanjayts.quantcast.takehome.cookiestore;
 
 import lombok.extern.slf4j.Slf4j;
+import net.sanjayts.quantcast.takehome.cookiestore.core.ApproximateCookieStore;
+import net.sanjayts.quantcast.takehome.cookiestore.core.CookieDaemon;
 import net.sanjayts.quantcast.takehome.cookiestore.core.CookieDataStore;
+import net.sanjayts.quantcast.takehome.cookiestore.core.CookieIndex;
 import net.sanjayts.quantcast.takehome.cookiestore.core.CookieParser;
+import net.sanjayts.quantcast.takehome.cookiestore.core.CookieSnapshot;
 import net.sanjayts.quantcast.takehome.cookiestore.core.CookieSource;
+import net.sanjayts.quantcast.takehome.cookiestore.core.CookieStore;
+import net.sanjayts.quantcast.takehome.cookiestore.core.GzipDecoder;
+import net.sanjayts.quantcast.takehome.cookiestore.core.IngestMetrics;
+import net.sanjayts.quantcast.takehome.cookiestore.core.LogFiles;
+import net.sanjayts.quantcast.takehome.cookiestore.core.LogTailer;
+import net.sanjayts.quantcast.takehome.cookiestore.core.MappedCookieSource;
+import net.sanjayts.quantcast.takehome.cookiestore.core.MultiFileRunner;
+import net.sanjayts.quantcast.takehome.cookiestore.core.ParallelRunner;
+import net.sanjayts.quantcast.takehome.cookiestore.core.PipelinedRunner;
+import net.sanjayts.quantcast.takehome.cookiestore.core.Quarantine;
 import net.sanjayts.quantcast.takehome.cookiestore.core.Runner;
+import net.sanjayts.quantcast.takehome.cookiestore.core.SpillingCookieStore;
+import net.sanjayts.quantcast.takehome.cookiestore.core.StreamCookieSource;
+import net.sanjayts.quantcast.takehome.cookiestore.exceptions.IndexException;
+import net.sanjayts.quantcast.takehome.cookiestore.model.DateRange;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
+import picocli.CommandLine.Model.CommandSpec;
 import picocli.CommandLine.Option;
+import picocli.CommandLine.Spec;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeSet;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 
 @Slf4j
 @Command(name = "cookie-store", mixinStandardHelpOptions = true, version = "1.0.0",
-					description = "Parse cookie log file and retrieve most frequent cookies for a given day")
+					description = "Parse cookie log file and retrieve most frequent cookies for the given day(s)")
 public class Main implements Callable<Integer> {
 
-	@Option(names = {"-f"}, description = "The log file path", required = true)
+	private static final List<String> HEADERS = List.of("cookie", "timestamp");
+
+	@Option(names = {"-f"}, required = true, paramLabel = "<file>", description = "The log file path. " +
+			"Can be repeated, and accepts directories (all the files in them) and globs like logs/*.gz; multiple " +
+			"files are ingested in parallel, on --threads threads or all cores by default")
+	private List<String> logFileArguments;
+
+	/** The log file, if only a single one was given */
 	private File logFile;
 
-	@Option(names = {"-d"}, description = "Date for which we want to see the most active cookie(s)", required = true)
-	private LocalDate targetDate;
+	@Spec
+	private CommandSpec spec;
+
+	@Option(names = {"-d"}, split = ",", converter = DateRangeConverter.class, paramLabel = "<date>",
+			description = "Date(s) for which we want to see the most active cookie(s). Accepts a single date, an " +
+					"inclusive range (2018-12-01..2018-12-31) or a comma separated list of either. Required unless --follow is used")
+	private List<DateRange> targetDateRanges;
+
+	@Option(names = {"--source"}, defaultValue = "AUTO",
+			description = "How the log file should be read, one of ${COMPLETION-CANDIDATES} (default: ${DEFAULT-VALUE}). " +
+					"AUTO memory maps regular files and streams the raw bytes of everything else, READER decodes the " +
+					"bytes into chars with a buffered reader. Gzip compressed log files are detected and decompressed " +
+					"while being read.")
+	private SourceType sourceType;
+
+	@Option(names = {"--no-seek"}, description = "Parse a memory mapped log file from the top instead of binary " +
+			"searching for the lines of the target date")
+	private boolean noSeek;
+
+	@Option(names = {"--threads"}, defaultValue = "1", description = "Number of threads used for parsing a memory " +
+			"mapped log file in parallel, for parsing any other log file in a pipeline next to a reader thread (and " +
+			"for decompressing it if it's BGZF compressed), or for ingesting multiple log files " +
+			"(default: ${DEFAULT-VALUE}, all cores for multiple log files)")
+	private int threads;
+
+	@Option(names = {"--index"}, description = "Answer from the on-disk index of the log file if it is up-to-date, " +
+			"otherwise parse the log file and (re)build the index for future queries")
+	private boolean useIndex;
+
+	@Option(names = {"--index-file"}, description = "Location of the index file, implies --index (default: the log " +
+			"file path with an .idx suffix)")
+	private File indexFile;
+
+	@Option(names = {"--follow"}, description = "Keep following the log file as it grows and answer queries read from " +
+			"STDIN, one per line, until STDIN is closed or 'quit' is entered")
+	private boolean follow;
+
+	@Option(names = {"--poll-interval"}, defaultValue = "1000", description = "How often (in milliseconds) a followed " +
+			"log file is checked for new lines (default: ${DEFAULT-VALUE})")
+	private long pollIntervalMillis;
+
+	@Option(names = {"--retain-days"}, defaultValue = "0", description = "Only keep the most recent N days of a followed " +
+			"log file in memory, 0 keeps everything (default: ${DEFAULT-VALUE})")
+	private int retainDays;
+
+	@Option(names = {"--max-error"}, paramLabel = "<fraction>", description = "Count approximately in bounded memory: " +
+			"no count is overestimated by more than this fraction of its day's hits, e.g. 0.001. The output then has the " +
+			"count and the possible overestimation of every cookie")
+	private Double maxError;
+
+	@Option(names = {"--memory-per-day"}, paramLabel = "<MB>", description = "Count approximately using at most about " +
+			"this many megabytes of heap per day, see --max-error")
+	private Long memoryPerDayMegabytes;
+
+	@Option(names = {"--spill-threshold"}, paramLabel = "<MB>", description = "Keep counting exactly when the counts " +
+			"outgrow the heap: spill them to temporary files whenever they take up about this many megabytes and " +
+			"merge the files when answering. With --threads or multiple log files the counts are collected in " +
+			"several partial stores which each spill at this threshold, e.g. up to 4 per thread for a memory mapped file")
+	private Long spillThresholdMegabytes;
+
+	@Option(names = {"--stats"}, description = "Print a summary of the ingestion to STDERR once done: lines and bytes " +
+			"read, malformed lines by reason, lines skipped before the cutoff date, time spent per stage and unique " +
+			"cookies per day")
+	private boolean stats;
+
+	@Option(names = {"--stats-file"}, paramLabel = "<file>", description = "Write the ingest metrics to this file " +
+			"once done, or after every poll with --follow; as JSON if the file name ends with .json and in the " +
+			"Prometheus text format otherwise")
+	private File statsFile;
+
+	@Option(names = {"--rejects"}, paramLabel = "<file>", description = "Write the malformed lines into this file, " +
+			"each prefixed by the reason it was rejected and a tab. The file is written in the background and lines " +
+			"are dropped rather than slowing down the ingestion if it can't keep up")
+	private File rejectsFile;
+
+	@Option(names = {"--write-snapshot"}, paramLabel = "<file>", description = "Write the daily cookie counts of the " +
+			"target dates into this compact snapshot file, which can be passed to -f instead of the log file(s) later " +
+			"on. If -f is given snapshots, they are merged into this one")
+	private File snapshotFile;
+
+	@Option(names = {"--spill-dir"}, description = "The directory for the temporary files of --spill-threshold " +
+			"(default: the system temp directory)")
+	private File spillDir;
 
 	public static void main(String[] args) {
-		int exitCode = new CommandLine(new Main()).execute(args);
+		int exitCode = new CommandLine(new Main()).setCaseInsensitiveEnumValuesAllowed(true).execute(args);
 		System.exit(exitCode);
 	}
 
 	@Override
 	public Integer call() {
+		if (rejectsFile == null) {
+			return answer();
+		}
+		Quarantine quarantine;
 		try {
-			log.debug("Successfully parsed the command line arguments -- file={}, target date={}", logFile.toURI(), targetDate);
-			var bufReader = readerFromLogfile();
-			var cookieSource = new CookieSource(bufReader);
-
-			// Since the timestamps in source file are sorted in desc format, the target date becomes the cutoff date.
-			// So for e.g. if the target date is 2020-01-15, then any dates less than 2020-01-15 00:00:00.000 should be
-			// skipped. This means that 2020-01-15 01:00:00 will still be considered which is what we expect.
-			var parser = CookieParser.createFromAndValidate(cookieSource, List.of("cookie", "timestamp"), targetDate);
-			var dataStore = new CookieDataStore();
-			var mostActiveCookies = new Runner().run(parser, dataStore, targetDate);
+			quarantine = Quarantine.openGlobal(rejectsFile.toPath());
+		} catch (UncheckedIOException e) {
+			log.error("{}", e.getMessage());
+			return 1;
+		}
+		try (quarantine) {
+			return answer();
+		}
+	}
 
-			// If no matching cookies found, nothing gets printed on STDOUT. Is this user-friendly enough?
-			// Maybe a not found message with a non-zero return code to ensure we stay CLI friendly? Worth a thought...
-			mostActiveCookies.forEach(log::info);
+	private int answer() {
+		List<Path> logFiles;
+		try {
+			logFiles = LogFiles.resolve(logFileArguments);
+		} catch (IllegalArgumentException e) {
+			log.error("{}", e.getMessage());
+			return 1;
+		}
+		boolean snapshotsGiven;
+		try {
+			snapshotsGiven = areSnapshots(logFiles);
+		} catch (IllegalArgumentException e) {
+			log.error("{}", e.getMessage());
+			return 1;
+		}
+		if ((snapshotsGiven || snapshotFile != null)
+				&& (follow || useIndex || indexFile != null || isApproximate() || spillThresholdMegabytes != null)) {
+			throw new CommandLine.ParameterException(spec.commandLine(), "Snapshots hold exact daily counts and " +
+					"can't be combined with --follow, --index, --max-error, --memory-per-day or --spill-threshold");
+		}
+		if (logFiles.size() == 1) {
+			logFile = logFiles.get(0).toFile();
+		} else if (follow || useIndex || indexFile != null) {
+			throw new CommandLine.ParameterException(spec.commandLine(),
+					"--follow and --index only support a single log file, got %d".formatted(logFiles.size()));
+		}
+		if (follow) {
+			return follow();
+		}
+		if (targetDateRanges == null) {
+			throw new CommandLine.ParameterException(spec.commandLine(), "Missing required option: '-d=<date>'");
+		}
+		if (maxError != null && memoryPerDayMegabytes != null) {
+			throw new CommandLine.ParameterException(spec.commandLine(),
+					"Only one of --max-error and --memory-per-day can be used");
+		}
+		if (isApproximate() && (useIndex || indexFile != null)) {
+			throw new CommandLine.ParameterException(spec.commandLine(),
+					"The index only holds exact counts and can't be used with --max-error or --memory-per-day");
+		}
+		if (spillThresholdMegabytes != null && (isApproximate() || useIndex || indexFile != null)) {
+			throw new CommandLine.ParameterException(spec.commandLine(),
+					"--spill-threshold can't be combined with --index, --max-error or --memory-per-day");
+		}
+		var targetDates = new TreeSet<LocalDate>();
+		targetDateRanges.forEach(range -> range.dates().forEach(targetDates::add));
+		log.debug("Successfully parsed the command line arguments -- files={}, target dates={}, source={}",
+				logFiles, targetDates, sourceType);
+		try {
+			if (snapshotsGiven) {
+				return answerFromSnapshots(logFiles, targetDates);
+			}
+			if (logFile == null) {
+				return answerFromLogfiles(logFiles, targetDates);
+			}
+			var indexPath = indexPath();
+			if (indexPath != null) {
+				var answered = answerFromIndex(indexPath, targetDates);
+				if (answered) {
+					return 0;
+				}
+			}
+			return answerFromLogfile(indexPath, targetDates);
+		} catch (Exception e) {
+			log.error("{}", e.getMessage());
+			return 1;
+		}
+	}
 
+	private int follow() {
+		try {
+			validateLogFile();
+		} catch (IllegalArgumentException e) {
+			log.error("{}", e.getMessage());
+			return 1;
+		}
+		var scheduler = Executors.newSingleThreadScheduledExecutor();
+		var dataStore = new CookieDataStore();
+		try (var tailer = LogTailer.follow(logFile.toPath(), dataStore, HEADERS, retainDays)) {
+			var in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+			var out = new PrintWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+			CookieDaemon.create(tailer, dataStore, scheduler, Duration.ofMillis(pollIntervalMillis),
+					statsFile == null ? null : statsFile.toPath()).serve(in, out);
+			reportStats(dataStore);
 			return 0;
 		} catch (Exception e) {
 			log.error("{}", e.getMessage());
 			return 1;
+		} finally {
+			scheduler.shutdownNow();
 		}
 	}
 
-	private BufferedReader readerFromLogfile() throws Exception {
+	private boolean answerFromIndex(Path indexPath, SortedSet<LocalDate> targetDates) {
+		var index = CookieIndex.openIfFresh(indexPath, logFile.toPath());
+		if (index.isEmpty()) {
+			return false;
+		}
+		try (var cookieIndex = index.get()) {
+			if (!cookieIndex.covers(targetDates.first())) {
+				log.debug("The index {} doesn't cover {}, falling back to the log file", indexPath, targetDates.first());
+				return false;
+			}
+			print(cookieIndex.mostActiveFor(targetDates), targetDates);
+			reportStats(null);
+			return true;
+		}
+	}
+
+	private int answerFromLogfile(Path indexPath, SortedSet<LocalDate> targetDates) throws Exception {
+		try (var cookieSource = sourceFromLogfile()) {
+			// Since the timestamps in source file are sorted in desc format, the oldest target date becomes the cutoff
+			// date. So for e.g. if the target date is 2020-01-15, then any dates less than 2020-01-15 00:00:00.000 should
+			// be skipped. This means that 2020-01-15 01:00:00 will still be considered which is what we expect.
+			var parser = CookieParser.createFromAndValidate(cookieSource, HEADERS, targetDates.first());
+			// Seeking past the newest target date would leave the index without the dates after it, hence the index is
+			// always built from the top of the file
+			if (!noSeek && indexPath == null) {
+				parser.seekTo(targetDates.first(), targetDates.last());
+			}
+			var dataStore = ingestAndPrint(targetDates, store -> run(cookieSource, parser, store, targetDates));
+			writeSnapshot(dataStore, targetDates);
+			if (indexPath != null && dataStore != null) {
+				try {
+					CookieIndex.write(indexPath, logFile.toPath(), dataStore, targetDates.first());
+				} catch (IndexException e) {
+					log.warn("{}", e.getMessage());
+				}
+			}
+			return 0;
+		}
+	}
+
+	private int answerFromLogfiles(List<Path> logFiles, SortedSet<LocalDate> targetDates) throws Exception {
+		var pool = new ForkJoinPool(threads > 1 ? threads : Runtime.getRuntime().availableProcessors());
+		try {
+			var runner = new MultiFileRunner(pool, HEADERS);
+			var dataStore = ingestAndPrint(targetDates, store -> runner.run(logFiles, store, targetDates));
+			writeSnapshot(dataStore, targetDates);
+			return 0;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Answer from the given snapshots, adding up their counts, after merging them into a new snapshot if asked to.
+	 */
+	private int answerFromSnapshots(List<Path> snapshotFiles, SortedSet<LocalDate> targetDates) {
+		var files = snapshotFiles;
+		if (snapshotFile != null) {
+			CookieSnapshot.merge(snapshotFiles, snapshotFile.toPath());
+			files = List.of(snapshotFile.toPath());
+		}
+		var snapshots = new ArrayList<CookieSnapshot>(files.size());
+		try {
+			for (var file : files) {
+				snapshots.add(CookieSnapshot.open(file));
+			}
+			print(CookieSnapshot.mostActiveFor(snapshots, targetDates), targetDates);
+			reportStats(null);
+			return 0;
+		} finally {
+			snapshots.forEach(CookieSnapshot::close);
+		}
+	}
+
+	private void writeSnapshot(CookieDataStore dataStore, SortedSet<LocalDate> targetDates) {
+		if (snapshotFile != null && dataStore != null) {
+			CookieSnapshot.write(snapshotFile.toPath(), dataStore, targetDates);
+		}
+	}
+
+	/**
+	 * Ingest the log data into the kind of store picked on the command line and print the answer.
+	 *
+	 * @return The store if it holds exact in-memory counts (which can be indexed), null otherwise
+	 */
+	private CookieDataStore ingestAndPrint(SortedSet<LocalDate> targetDates, Ingestion ingestion) throws Exception {
+		if (isApproximate()) {
+			var dataStore = approximateStore();
+			ingestion.ingest(dataStore);
+			printEstimates(dataStore, targetDates);
+			reportStats(dataStore);
+			return null;
+		}
+		if (spillThresholdMegabytes != null) {
+			var parentDir = spillDir != null ? spillDir.toPath() : Path.of(System.getProperty("java.io.tmpdir"));
+			try (var dataStore = SpillingCookieStore.create(parentDir, spillThresholdMegabytes * 1024 * 1024)) {
+				print(ingestion.ingest(dataStore), targetDates);
+				log.debug("Spilled the cookie counts {} times", dataStore.spillCount());
+				reportStats(dataStore);
+			}
+			return null;
+		}
+		var dataStore = new CookieDataStore();
+		print(ingestion.ingest(dataStore), targetDates);
+		reportStats(dataStore);
+		return dataStore;
+	}
+
+	/**
+	 * Print and/or dump the ingest metrics, if asked for. The summary goes to STDERR so that it doesn't get mixed up
+	 * with the answer.
+	 */
+	private void reportStats(CookieStore dataStore) {
+		if (!stats && statsFile == null) {
+			return;
+		}
+		var snapshot = IngestMetrics.global().snapshot(dataStore);
+		if (stats) {
+			System.err.print(snapshot.format());
+		}
+		if (statsFile != null) {
+			try {
+				snapshot.writeTo(statsFile.toPath());
+			} catch (UncheckedIOException e) {
+				log.warn("{}", e.getMessage());
+			}
+		}
+	}
+
+	private static void print(SortedMap<LocalDate, SortedSet<String>> mostActiveCookies, SortedSet<LocalDate> targetDates) {
+		// If no matching cookies found, nothing gets printed on STDOUT. Is this user-friendly enough?
+		// Maybe a not found message with a non-zero return code to ensure we stay CLI friendly? Worth a thought...
+		if (targetDates.size() == 1) {
+			mostActiveCookies.values().forEach(cookies -> cookies.forEach(log::info));
+		} else {
+			mostActiveCookies.forEach((date, cookies) -> cookies.forEach(cookie -> log.info("{},{}", date, cookie)));
+		}
+	}
+
+	private static void printEstimates(ApproximateCookieStore dataStore, SortedSet<LocalDate> targetDates) {
+		for (var date : targetDates) {
+			var prefix = targetDates.size() == 1 ? "" : date + ",";
+			dataStore.mostActiveEstimatesFor(date).forEach(estimate ->
+					log.info("{}{},{},{}", prefix, estimate.cookie(), estimate.count(), estimate.error()));
+		}
+	}
+
+	private boolean isApproximate() {
+		return maxError != null || memoryPerDayMegabytes != null;
+	}
+
+	private ApproximateCookieStore approximateStore() {
+		var dataStore = maxError != null
+				? ApproximateCookieStore.forMaxError(maxError)
+				: ApproximateCookieStore.forMemoryBudget(memoryPerDayMegabytes * 1024 * 1024);
+		log.debug("Counting approximately with {} counters per day", dataStore.capacity());
+		return dataStore;
+	}
+
+	private Path indexPath() {
+		if (indexFile != null) {
+			return indexFile.toPath();
+		}
+		return useIndex ? CookieIndex.defaultPathFor(logFile.toPath()) : null;
+	}
+
+	private SortedMap<LocalDate, SortedSet<String>> run(CookieSource cookieSource, CookieParser parser,
+														CookieStore dataStore, SortedSet<LocalDate> targetDates) {
+		if (threads > 1) {
+			if (cookieSource instanceof MappedCookieSource mapped) {
+				var pool = new ForkJoinPool(threads);
+				try {
+					return new ParallelRunner(pool, threads * 4).run(mapped, dataStore, targetDates);
+				} finally {
+					pool.shutdownNow();
+				}
+			}
+			// Anything else can't be split up, but reading, parsing and counting can still overlap
+			var runner = new PipelinedRunner(threads, Math.max(1, threads / 2));
+			return runner.run(cookieSource, dataStore, targetDates);
+		}
+		return new Runner().run(parser, dataStore, targetDates);
+	}
+
+	private CookieSource sourceFromLogfile() throws Exception {
+		validateLogFile();
+		var path = logFile.toPath();
+		var gzip = GzipDecoder.isGzip(path);
+		if (gzip && sourceType == SourceType.MMAP) {
+			throw new IllegalArgumentException("The compressed log file %s can't be memory mapped".formatted(path));
+		}
+		if (!gzip && (sourceType == SourceType.MMAP || (sourceType == SourceType.AUTO && Files.isRegularFile(path)))) {
+			return new MappedCookieSource(path);
+		}
+		// Only regular files are probed up front, anything else (e.g. a pipe) is checked for gzip on the stream itself
+		var in = GzipDecoder.openDecompressed(path, threads);
+		if (sourceType == SourceType.READER) {
+			return new CookieSource(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16));
+		}
+		return new StreamCookieSource(in);
+	}
+
+	/**
+	 * @return Whether the given files are snapshots rather than log files; they can't be a mix of both
+	 */
+	private static boolean areSnapshots(List<Path> files) {
+		var snapshots = 0;
+		for (var file : files) {
+			try {
+				snapshots += CookieSnapshot.isSnapshot(file) ? 1 : 0;
+			} catch (IOException e) {
+				throw new IllegalArgumentException("Failed to read %s -- %s".formatted(file, e.getMessage()), e);
+			}
+		}
+		if (snapshots > 0 && snapshots < files.size()) {
+			throw new IllegalArgumentException("Snapshots and log files can't be queried together, got %d snapshots among %d files"
+					.formatted(snapshots, files.size()));
+		}
+		return snapshots > 0;
+	}
+
+	private void validateLogFile() {
 		var fileURI = logFile.toURI().toString();
 		if (!logFile.exists()) {
 			throw new IllegalArgumentException("The provided log file %s doesn't exist.".formatted(fileURI));
@@ -69,7 +497,23 @@ public class Main implements Callable<Integer> {
 			throw new IllegalArgumentException(("The provided log file %s is not accessible, please check file perms " +
 					"and try again.").formatted(fileURI));
 		}
-		return Files.newBufferedReader(logFile.toPath());
 	}
 
+	/** Allows picocli to parse a date range */
+	static class DateRangeConverter implements CommandLine.ITypeConverter<DateRange> {
+		@Override
+		public DateRange convert(String value) {
+			return DateRange.parse(value);
+		}
+	}
+
+	/** Feeds the log data into a store and answers the most active cookies for the target dates */
+	@FunctionalInterface
+	private interface Ingestion {
+		SortedMap<LocalDate, SortedSet<String>> ingest(CookieStore store) throws Exception;
+	}
+
+	/** The strategies we have for reading the log file */
+	enum SourceType { AUTO, MMAP, STREAM, READER }
+
 }
@@ -0,0 +1,354 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import net.sanjayts.quantcast.takehome.cookiestore.model.CookieCount;
+import net.sanjayts.quantcast.takehome.cookiestore.model.CookieEstimate;
+import net.sanjayts.quantcast.takehome.cookiestore.model.CookieInfo;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A cookie store which keeps a fixed number of counters per day no matter how many distinct cookies the day has, so
+ * the memory stays bounded by the number of days rather than by the cardinality of the log.
+ *
+ * Every day is summarized by a Space-Saving sketch (Metwally et al., see {@link CookieCounter}) with `capacity`
+ * counters. Its counts never undercount and overcount by at most N / capacity, where N is the number of hits of that
+ * day; every cookie which was seen more than N / capacity times is guaranteed to be tracked. This means the heavy
+ * hitters, and the most active cookie in particular, are found reliably while the long tail of rare cookies is
+ * forgotten. The possible overestimation of every count is tracked too and reported via {@link CookieEstimate}.
+ *
+ * A count-min sketch was considered as well but it needs a separate structure to remember which cookies are heavy,
+ * whereas Space-Saving gives us the top cookies with their error bounds directly from the bucket list we already use
+ * for the exact counts.
+ */
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+@Slf4j
+public class ApproximateCookieStore implements CookieStore {
+
+    /**
+     * A rough estimate of the heap used per counter: the counter's own arrays and hash index, the dictionary's arena,
+     * offsets, hashes and index (for 16 character names, kept up to twice the capacity) and the buckets.
+     */
+    static final int BYTES_PER_COUNTER = 128;
+
+    private final int capacity;
+
+    private final Map<Long, Sketch> sketches = new HashMap<>();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** Hands out the order in which the locks of two stores are taken when one is merged into the other */
+    private static final AtomicLong LOCK_ORDER = new AtomicLong();
+
+    private final long lockOrder = LOCK_ORDER.incrementAndGet();
+
+    private long lastEpochDay = Long.MIN_VALUE;
+
+    private Sketch lastSketch;
+
+    /**
+     * @param capacity The number of cookies to keep track of per day
+     */
+    public static ApproximateCookieStore withCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity should be positive, got %d".formatted(capacity));
+        }
+        return new ApproximateCookieStore(capacity);
+    }
+
+    /**
+     * @param maxError The max overestimation of any count as a fraction of the number of hits of its day, e.g. 0.001
+     *                 means no count is off by more than 0.1% of the day's hits
+     */
+    public static ApproximateCookieStore forMaxError(double maxError) {
+        if (!(maxError > 0 && maxError < 1)) {
+            throw new IllegalArgumentException("The max error should be between 0 and 1, got %s".formatted(maxError));
+        }
+        return withCapacity((int) Math.min(Integer.MAX_VALUE - 8, Math.ceil(1 / maxError)));
+    }
+
+    /**
+     * @param bytesPerDay The approximate amount of heap which may be used for every day
+     */
+    public static ApproximateCookieStore forMemoryBudget(long bytesPerDay) {
+        if (bytesPerDay < BYTES_PER_COUNTER) {
+            throw new IllegalArgumentException("The memory budget should be at least %d bytes per day, got %d"
+                    .formatted(BYTES_PER_COUNTER, bytesPerDay));
+        }
+        return withCapacity((int) Math.min(Integer.MAX_VALUE - 8, bytesPerDay / BYTES_PER_COUNTER));
+    }
+
+    /** The number of cookies kept track of per day */
+    public int capacity() {
+        return capacity;
+    }
+
+    @Override
+    public void addCookie(CookieInfo info) {
+        addCookie(info.getName(), TimestampParser.epochDayOf(info.getTimestamp().toEpochSecond()));
+    }
+
+    @Override
+    public void addCookie(String name, long epochDay) {
+        lock.writeLock().lock();
+        try {
+            sketchFor(epochDay).add(name);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The cookies with the highest estimated count. Once a day has more distinct cookies than the capacity, the result
+     * can contain cookies whose true count is lower than the leader's; see {@link #mostActiveEstimatesFor(LocalDate)}
+     * for the error bounds.
+     */
+    @Override
+    public Set<String> mostActiveFor(LocalDate date) {
+        lock.readLock().lock();
+        try {
+            var sketch = sketches.get(date.toEpochDay());
+            return sketch == null ? Collections.emptySet() : sketch.counter.leaders(sketch.dictionary);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<CookieCount> topK(LocalDate date, int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("The number of cookies requested should be positive, got %d".formatted(k));
+        }
+        lock.readLock().lock();
+        try {
+            var sketch = sketches.get(date.toEpochDay());
+            return sketch == null ? Collections.emptyList() : sketch.counter.topK(k, sketch.dictionary);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The cookies with the highest estimated count, sorted by name, along with their error bounds
+     */
+    public List<CookieEstimate> mostActiveEstimatesFor(LocalDate date) {
+        lock.readLock().lock();
+        try {
+            var sketch = sketches.get(date.toEpochDay());
+            if (sketch == null) {
+                return Collections.emptyList();
+            }
+            var result = new ArrayList<CookieEstimate>();
+            new TreeSet<>(sketch.counter.leaders(sketch.dictionary)).forEach(name -> result.add(sketch.estimateOf(name)));
+            return Collections.unmodifiableList(result);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The K cookies with the highest estimated count along with their error bounds, ordered like {@link #topK}
+     */
+    public List<CookieEstimate> estimatesFor(LocalDate date, int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("The number of cookies requested should be positive, got %d".formatted(k));
+        }
+        lock.readLock().lock();
+        try {
+            var sketch = sketches.get(date.toEpochDay());
+            if (sketch == null) {
+                return Collections.emptyList();
+            }
+            var result = new ArrayList<CookieEstimate>();
+            sketch.counter.topK(k, sketch.dictionary).forEach(count -> result.add(sketch.estimateOf(count.cookie())));
+            return Collections.unmodifiableList(result);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The highest count a cookie which isn't tracked for the given date might have; 0 as long as the day has
+     * no more distinct cookies than the capacity, i.e. while its counts are exact.
+     */
+    public int maxErrorFor(LocalDate date) {
+        lock.readLock().lock();
+        try {
+            var sketch = sketches.get(date.toEpochDay());
+            return sketch == null || !sketch.counter.isFull() ? 0 : sketch.counter.minCount();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The estimated count; cookies which aren't tracked (anymore) count as 0
+     */
+    @Override
+    public int countOf(LocalDate date, String cookie) {
+        lock.readLock().lock();
+        try {
+            var sketch = sketches.get(date.toEpochDay());
+            return sketch == null ? 0 : sketch.estimateOf(cookie).count();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The number of cookies kept track of for the day, which is at most the capacity and hence falls short of the
+     * distinct cookies of a day which had more of them.
+     */
+    @Override
+    public int uniqueCookies(LocalDate date) {
+        lock.readLock().lock();
+        try {
+            var sketch = sketches.get(date.toEpochDay());
+            return sketch == null ? 0 : sketch.counter.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public SortedSet<LocalDate> dates() {
+        lock.readLock().lock();
+        try {
+            var dates = new TreeSet<LocalDate>();
+            sketches.keySet().forEach(epochDay -> dates.add(LocalDate.ofEpochDay(epochDay)));
+            return dates;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Merge the sketches of another approximate store with the same capacity. Days which only one of the stores has
+     * are copied as they are, otherwise the two sketches are combined such that the result keeps the error guarantee
+     * for the total number of hits (Agarwal et al., "Mergeable summaries").
+     */
+    @Override
+    public void merge(CookieStore otherStore) {
+        if (!(otherStore instanceof ApproximateCookieStore other) || other.capacity != capacity) {
+            throw new IllegalArgumentException("Only approximate stores with a capacity of %d can be merged, got %s"
+                    .formatted(capacity, otherStore));
+        }
+        if (other == this) {
+            // Our read lock can't be upgraded to the write lock, hence this would deadlock
+            throw new IllegalArgumentException("A store can't be merged into itself");
+        }
+        // Taken in a fixed order across all stores, so that a.merge(b) and b.merge(a) at the same time can't deadlock
+        Lock first = lockOrder < other.lockOrder ? lock.writeLock() : other.lock.readLock();
+        Lock second = lockOrder < other.lockOrder ? other.lock.readLock() : lock.writeLock();
+        first.lock();
+        second.lock();
+        try {
+            log.debug("Merging {} dates worth of sketches into the approximate cookie store", other.sketches.size());
+            other.sketches.forEach((epochDay, sketch) -> sketchFor(epochDay).merge(sketch));
+        } finally {
+            second.unlock();
+            first.unlock();
+        }
+    }
+
+    @Override
+    public ApproximateCookieStore createEmpty() {
+        return new ApproximateCookieStore(capacity);
+    }
+
+    @Override
+    public String toString() {
+        return "ApproximateCookieStore(capacity=" + capacity + ")";
+    }
+
+    private Sketch sketchFor(long epochDay) {
+        if (epochDay != lastEpochDay) {
+            lastSketch = sketches.computeIfAbsent(epochDay, d -> new Sketch());
+            lastEpochDay = epochDay;
+        }
+        return lastSketch;
+    }
+
+    /**
+     * The summary of a single day. Every day has its own dictionary, since the cookies a bounded counter forgets must
+     * be dropped from the dictionary too; it's compacted whenever it has grown to twice the capacity.
+     */
+    private final class Sketch {
+
+        private final CookieDictionary dictionary = new CookieDictionary();
+
+        private CookieCounter counter = new CookieCounter(capacity);
+
+        void add(String name) {
+            counter.add(dictionary.intern(name), 1);
+            if (dictionary.size() > 2L * capacity) {
+                compact();
+            }
+        }
+
+        CookieEstimate estimateOf(String name) {
+            var id = dictionary.idOf(name);
+            return id == CookieDictionary.NONE
+                    ? new CookieEstimate(name, 0, 0)
+                    : new CookieEstimate(name, counter.countOf(id), counter.errorOf(id));
+        }
+
+        /**
+         * A cookie missing from a full sketch might still have been seen up to its min count times, so it's counted as
+         * such (as both count and error) when combining it with the other sketch. Of the combined cookies, the ones
+         * with the highest counts are kept.
+         */
+        void merge(Sketch other) {
+            var ownMin = counter.isFull() ? counter.minCount() : 0;
+            var otherMin = other.counter.isFull() ? other.counter.minCount() : 0;
+            // {id, count, error} for every cookie of either sketch, keyed by the id in this sketch's dictionary
+            var combined = new HashMap<Integer, int[]>();
+            counter.forEach((id, count) -> combined.put(id, new int[]{id, count + otherMin, counter.errorOf(id) + otherMin}));
+            other.counter.forEach((otherId, count) -> {
+                var id = dictionary.intern(other.dictionary, otherId);
+                var otherError = other.counter.errorOf(otherId);
+                var entry = combined.get(id);
+                if (entry == null) {
+                    combined.put(id, new int[]{id, count + ownMin, otherError + ownMin});
+                } else {
+                    entry[1] += count - otherMin;
+                    entry[2] += otherError - otherMin;
+                }
+            });
+
+            var entries = new ArrayList<>(combined.values());
+            // Adding the highest counts first means every new counter simply goes to the bottom of the buckets
+            entries.sort(Comparator.comparingInt((int[] entry) -> entry[1]).reversed());
+            counter = new CookieCounter(capacity);
+            entries.stream().limit(capacity).forEach(entry -> counter.add(entry[0], entry[1], entry[2]));
+            compact();
+        }
+
+        /** Drop the names of the cookies which aren't tracked anymore */
+        private void compact() {
+            var mapping = new int[dictionary.size()];
+            Arrays.fill(mapping, CookieDictionary.NONE);
+            counter.forEach((id, count) -> mapping[id] = id);
+            dictionary.retain(mapping);
+            counter.remap(mapping);
+        }
+
+    }
+
+}
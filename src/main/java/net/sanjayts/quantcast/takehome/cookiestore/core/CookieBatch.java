@@ -0,0 +1,163 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A batch of parsed log lines, kept in primitive columns instead of a CookieInfo per line. Every row points at its
+ * cookie name within the bytes the lines were parsed from, has the epoch day of its timestamp and a bit in the
+ * validity bitmap; rows of malformed lines point at the whole line, are marked invalid and have the reason instead of
+ * the day.
+ *
+ * A batch is filled by {@link CookieParser#nextBatch(CookieBatch)} and reused for the next batch, so the rows are only
+ * valid until then. The bytes the rows point at belong to the parser, hence a batch must not be kept around either.
+ */
+public final class CookieBatch {
+
+    static final int DEFAULT_CAPACITY = 4096;
+
+    private static final MalformedReason[] REASONS = MalformedReason.values();
+
+    private final int[] nameOffsets;
+
+    private final int[] nameLengths;
+
+    private final int[] epochDays;
+
+    private final long[] validity;
+
+    /** Scratch space for the positions of the delimiters while the lines are parsed */
+    private final int[] delimiters;
+
+    /** The number of rows per malformed reason, so that they don't need to be counted row by row */
+    private final int[] malformedCounts = new int[REASONS.length];
+
+    private byte[] data;
+
+    private int size;
+
+    private boolean cutoffReached;
+
+    public CookieBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public CookieBatch(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The batch capacity should be positive, got %d".formatted(capacity));
+        }
+        nameOffsets = new int[capacity];
+        nameLengths = new int[capacity];
+        epochDays = new int[capacity];
+        validity = new long[(capacity + 63) >>> 6];
+        // Room for the comma and newline of every row, plus some slack for malformed lines with many commas
+        delimiters = new int[2 * capacity + 64];
+    }
+
+    /**
+     * @return The number of rows in the batch
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Whether the line of the given row was a well-formed cookie line
+     */
+    public boolean isValid(int row) {
+        return (validity[row >>> 6] & (1L << row)) != 0;
+    }
+
+    /**
+     * @return The day of the cookie of the given (valid) row, as days since the epoch
+     */
+    public int epochDay(int row) {
+        return epochDays[row];
+    }
+
+    /**
+     * @return Why the line of the given (invalid) row was rejected
+     */
+    public MalformedReason malformedReason(int row) {
+        return REASONS[epochDays[row]];
+    }
+
+    /**
+     * @return The cookie name of the given (valid) row, or the whole line of an invalid row. This decodes the name, so
+     * it's meant for the rows which aren't consumed as bytes.
+     */
+    public String name(int row) {
+        return new String(data, nameOffsets[row], nameLengths[row], StandardCharsets.UTF_8);
+    }
+
+    /** The bytes the rows point into */
+    byte[] data() {
+        return data;
+    }
+
+    int nameOffset(int row) {
+        return nameOffsets[row];
+    }
+
+    int nameLength(int row) {
+        return nameLengths[row];
+    }
+
+    int[] delimiters() {
+        return delimiters;
+    }
+
+    /** Whether the batch was cut short by a cookie older than the cutoff date */
+    boolean isCutoffReached() {
+        return cutoffReached;
+    }
+
+    int validCount() {
+        return size - invalidCount();
+    }
+
+    int invalidCount() {
+        var invalid = 0;
+        for (var count : malformedCounts) {
+            invalid += count;
+        }
+        return invalid;
+    }
+
+    int malformedCount(MalformedReason reason) {
+        return malformedCounts[reason.ordinal()];
+    }
+
+    boolean isFull() {
+        return size == nameOffsets.length;
+    }
+
+    void reset(byte[] data) {
+        this.data = data;
+        size = 0;
+        cutoffReached = false;
+        Arrays.fill(validity, 0);
+        Arrays.fill(malformedCounts, 0);
+    }
+
+    void addValid(int nameOffset, int nameLength, int epochDay) {
+        validity[size >>> 6] |= 1L << size;
+        add(nameOffset, nameLength, epochDay);
+    }
+
+    void addInvalid(int lineOffset, int lineLength, MalformedReason reason) {
+        ++malformedCounts[reason.ordinal()];
+        add(lineOffset, lineLength, reason.ordinal());
+    }
+
+    void cutoffReached() {
+        cutoffReached = true;
+    }
+
+    private void add(int nameOffset, int nameLength, int epochDay) {
+        nameOffsets[size] = nameOffset;
+        nameLengths[size] = nameLength;
+        epochDays[size++] = epochDay;
+    }
+
+}
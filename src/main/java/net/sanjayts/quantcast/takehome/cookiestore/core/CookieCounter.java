@@ -0,0 +1,405 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import net.sanjayts.quantcast.takehome.cookiestore.model.CookieCount;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * The hit counts of all the cookies seen on a single day. The cookies are identified by their id in the store's
+ * {@link CookieDictionary} and stored as dense "entries" (parallel arrays of id, count and links) which are looked up
+ * through an open addressing (linear probing) hash index, which means no boxed counters and no objects created per
+ * hit; the memory used is proportional to the number of unique cookies.
+ *
+ * On top of that, entries with the same count are chained together into a "bucket" and the buckets are kept in a
+ * doubly linked list ordered by count (the stream-summary structure from the Space-Saving paper). Since a hit moves an
+ * entry to the adjacent bucket, inserts stay O(1) while the most active cookies are always the ones in the top bucket
+ * and the top K cookies can be read off by walking the buckets downwards, without ever sorting or copying the day.
+ *
+ * A counter can also be bounded to a fixed number of entries, which turns it into the Space-Saving sketch itself: once
+ * full, a new cookie takes over the entry with the lowest count (the head of the bottom bucket, so still O(1)) and
+ * inherits that count as its possible overestimation ("error"). The true count of a cookie is then somewhere between
+ * its count minus its error and its count.
+ */
+final class CookieCounter {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final float LOAD_FACTOR = 0.7f;
+
+    private static final int NONE = -1;
+
+    /** The max number of entries, 0 for an exact (unbounded) counter */
+    private final int capacity;
+
+    /** The hash index, holding entry + 1 for occupied slots and 0 for empty ones */
+    private int[] index = new int[INITIAL_CAPACITY];
+
+    private int resizeThreshold = (int) (INITIAL_CAPACITY * LOAD_FACTOR);
+
+    // The entries
+    private int[] ids = new int[INITIAL_CAPACITY];
+    private int[] counts = new int[INITIAL_CAPACITY];
+    private int[] bucketOf = new int[INITIAL_CAPACITY];
+    private int[] nextInBucket = new int[INITIAL_CAPACITY];
+    private int[] prevInBucket = new int[INITIAL_CAPACITY];
+    private int[] errors;
+    private int size;
+
+    // The buckets; freed buckets are chained through `bucketLower`
+    private int[] bucketCount = new int[INITIAL_CAPACITY];
+    private int[] bucketHead = new int[INITIAL_CAPACITY];
+    private int[] bucketSize = new int[INITIAL_CAPACITY];
+    private int[] bucketHigher = new int[INITIAL_CAPACITY];
+    private int[] bucketLower = new int[INITIAL_CAPACITY];
+    private int bucketsUsed;
+    private int freeBucket = NONE;
+    private int topBucket = NONE;
+    private int bottomBucket = NONE;
+
+    /** Create an exact counter */
+    CookieCounter() {
+        this(0);
+    }
+
+    /**
+     * @param capacity The max number of cookies to keep track of; 0 keeps track of all of them exactly
+     */
+    CookieCounter(int capacity) {
+        this.capacity = capacity;
+        this.errors = capacity > 0 ? new int[INITIAL_CAPACITY] : null;
+    }
+
+    /**
+     * Add the given number of hits for a cookie.
+     *
+     * @return The new hit count of the cookie
+     */
+    int add(int id, int hits) {
+        return add(id, hits, 0);
+    }
+
+    /**
+     * Add the given number of hits for a cookie, of which up to `error` might be an overestimation. The error is only
+     * tracked by bounded counters.
+     *
+     * @return The new hit count of the cookie
+     */
+    int add(int id, int hits, int error) {
+        var entry = entryOf(id);
+        if (entry == NONE) {
+            entry = isFull() ? replaceMinEntry(id) : newEntry(id);
+            if (errors != null) {
+                errors[entry] += error;
+            }
+        }
+        var newCount = counts[entry] += hits;
+
+        // Find the bucket right below the one the entry should move to, starting from its current position
+        int below;
+        int candidate;
+        var bucket = bucketOf[entry];
+        if (bucket == NONE) {
+            below = NONE;
+            candidate = bottomBucket;
+        } else {
+            below = bucket;
+            candidate = bucketHigher[bucket];
+            unlinkEntry(entry, bucket);
+            if (bucketSize[bucket] == 0) {
+                below = bucketLower[bucket];
+                releaseBucket(bucket);
+            }
+        }
+        while (candidate != NONE && bucketCount[candidate] < newCount) {
+            below = candidate;
+            candidate = bucketHigher[candidate];
+        }
+        var target = candidate != NONE && bucketCount[candidate] == newCount
+                ? candidate
+                : newBucket(newCount, below, candidate);
+        linkEntry(entry, target);
+        return newCount;
+    }
+
+    int countOf(int id) {
+        var entry = entryOf(id);
+        return entry == NONE ? 0 : counts[entry];
+    }
+
+    /**
+     * @return How much the count of the given cookie might be overestimated; always 0 for exact counters
+     */
+    int errorOf(int id) {
+        var entry = entryOf(id);
+        return entry == NONE || errors == null ? 0 : errors[entry];
+    }
+
+    /**
+     * @return The lowest count of all the cookies, which for a full bounded counter is also the highest count any
+     * cookie which isn't tracked might have.
+     */
+    int minCount() {
+        return bottomBucket == NONE ? 0 : bucketCount[bottomBucket];
+    }
+
+    /** Whether this is a bounded counter which has started replacing cookies */
+    boolean isFull() {
+        return capacity > 0 && size == capacity;
+    }
+
+    int maxCount() {
+        return topBucket == NONE ? 0 : bucketCount[topBucket];
+    }
+
+    /**
+     * @return A copy of the set of cookies which have the max hit count
+     */
+    Set<String> leaders(CookieDictionary dictionary) {
+        var leaders = new HashSet<String>();
+        if (topBucket != NONE) {
+            for (int e = bucketHead[topBucket]; e != NONE; e = nextInBucket[e]) {
+                leaders.add(dictionary.nameOf(ids[e]));
+            }
+        }
+        return leaders;
+    }
+
+    /**
+     * The K most active cookies ordered by their count (highest first) and name. When there is a tie for the last
+     * place(s), the names which come first alphabetically win so that the result is deterministic.
+     */
+    List<CookieCount> topK(int k, CookieDictionary dictionary) {
+        Comparator<Integer> byName = dictionary::compare;
+        var result = new ArrayList<CookieCount>(Math.min(k, size));
+        for (int b = topBucket; b != NONE && result.size() < k; b = bucketLower[b]) {
+            var remaining = k - result.size();
+            var bucketIds = new ArrayList<Integer>(Math.min(remaining, bucketSize[b]));
+            if (bucketSize[b] <= remaining) {
+                for (int e = bucketHead[b]; e != NONE; e = nextInBucket[e]) {
+                    bucketIds.add(ids[e]);
+                }
+            } else {
+                // Only keep the alphabetically smallest names using a bounded max heap
+                var smallest = new PriorityQueue<Integer>(remaining + 1, byName.reversed());
+                for (int e = bucketHead[b]; e != NONE; e = nextInBucket[e]) {
+                    smallest.add(ids[e]);
+                    if (smallest.size() > remaining) {
+                        smallest.poll();
+                    }
+                }
+                bucketIds.addAll(smallest);
+            }
+            bucketIds.sort(byName);
+            var count = bucketCount[b];
+            bucketIds.forEach(id -> result.add(new CookieCount(dictionary.nameOf(id), count)));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /** The number of unique cookies */
+    int size() {
+        return size;
+    }
+
+    void forEach(EntryConsumer consumer) {
+        for (int e = 0; e < size; ++e) {
+            consumer.accept(ids[e], counts[e]);
+        }
+    }
+
+    /**
+     * Switch every cookie over to its new id after the dictionary was compacted, see
+     * {@link CookieDictionary#retain(int[])}
+     */
+    void remap(int[] mapping) {
+        for (int e = 0; e < size; ++e) {
+            ids[e] = mapping[ids[e]];
+        }
+        Arrays.fill(index, 0);
+        for (int e = 0; e < size; ++e) {
+            insertIntoIndex(e);
+        }
+    }
+
+    private int entryOf(int id) {
+        var mask = index.length - 1;
+        for (int slot = mix(id) & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+            var entry = index[slot] - 1;
+            if (ids[entry] == id) {
+                return entry;
+            }
+        }
+        return NONE;
+    }
+
+    private int newEntry(int id) {
+        if (size == ids.length) {
+            var newCapacity = capacity > 0 ? Math.min(size * 2, capacity) : size * 2;
+            ids = Arrays.copyOf(ids, newCapacity);
+            counts = Arrays.copyOf(counts, newCapacity);
+            bucketOf = Arrays.copyOf(bucketOf, newCapacity);
+            nextInBucket = Arrays.copyOf(nextInBucket, newCapacity);
+            prevInBucket = Arrays.copyOf(prevInBucket, newCapacity);
+            if (errors != null) {
+                errors = Arrays.copyOf(errors, newCapacity);
+            }
+        }
+        var entry = size++;
+        ids[entry] = id;
+        bucketOf[entry] = NONE;
+        if (size > resizeThreshold) {
+            index = new int[index.length * 2];
+            resizeThreshold = (int) (index.length * LOAD_FACTOR);
+            for (int e = 0; e < size; ++e) {
+                insertIntoIndex(e);
+            }
+        } else {
+            insertIntoIndex(entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Hand the entry with the lowest count over to a new cookie; the count is kept and becomes the error of the new
+     * cookie (Space-Saving).
+     */
+    private int replaceMinEntry(int id) {
+        var entry = bucketHead[bottomBucket];
+        removeFromIndex(entry);
+        ids[entry] = id;
+        errors[entry] = counts[entry];
+        insertIntoIndex(entry);
+        return entry;
+    }
+
+    /** Remove an entry from the linear probing index by shifting the entries after it back into the hole it leaves */
+    private void removeFromIndex(int entry) {
+        var mask = index.length - 1;
+        var hole = mix(ids[entry]) & mask;
+        while (index[hole] != entry + 1) {
+            hole = (hole + 1) & mask;
+        }
+        for (int slot = (hole + 1) & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+            var home = mix(ids[index[slot] - 1]) & mask;
+            // The entry can fill the hole unless its home slot lies cyclically after the hole
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                index[hole] = index[slot];
+                hole = slot;
+            }
+        }
+        index[hole] = 0;
+    }
+
+    private void insertIntoIndex(int entry) {
+        var mask = index.length - 1;
+        var slot = mix(ids[entry]) & mask;
+        while (index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = entry + 1;
+    }
+
+    private void linkEntry(int entry, int bucket) {
+        var head = bucketHead[bucket];
+        nextInBucket[entry] = head;
+        prevInBucket[entry] = NONE;
+        if (head != NONE) {
+            prevInBucket[head] = entry;
+        }
+        bucketHead[bucket] = entry;
+        bucketOf[entry] = bucket;
+        ++bucketSize[bucket];
+    }
+
+    private void unlinkEntry(int entry, int bucket) {
+        var next = nextInBucket[entry];
+        var prev = prevInBucket[entry];
+        if (prev == NONE) {
+            bucketHead[bucket] = next;
+        } else {
+            nextInBucket[prev] = next;
+        }
+        if (next != NONE) {
+            prevInBucket[next] = prev;
+        }
+        --bucketSize[bucket];
+    }
+
+    /** Create a new bucket and link it in between the given buckets (either of which can be NONE) */
+    private int newBucket(int count, int lower, int higher) {
+        int bucket;
+        if (freeBucket != NONE) {
+            bucket = freeBucket;
+            freeBucket = bucketLower[bucket];
+        } else {
+            if (bucketsUsed == bucketCount.length) {
+                var newCapacity = bucketsUsed * 2;
+                bucketCount = Arrays.copyOf(bucketCount, newCapacity);
+                bucketHead = Arrays.copyOf(bucketHead, newCapacity);
+                bucketSize = Arrays.copyOf(bucketSize, newCapacity);
+                bucketHigher = Arrays.copyOf(bucketHigher, newCapacity);
+                bucketLower = Arrays.copyOf(bucketLower, newCapacity);
+            }
+            bucket = bucketsUsed++;
+        }
+        bucketCount[bucket] = count;
+        bucketHead[bucket] = NONE;
+        bucketSize[bucket] = 0;
+        bucketLower[bucket] = lower;
+        bucketHigher[bucket] = higher;
+        if (lower == NONE) {
+            bottomBucket = bucket;
+        } else {
+            bucketHigher[lower] = bucket;
+        }
+        if (higher == NONE) {
+            topBucket = bucket;
+        } else {
+            bucketLower[higher] = bucket;
+        }
+        return bucket;
+    }
+
+    private void releaseBucket(int bucket) {
+        var lower = bucketLower[bucket];
+        var higher = bucketHigher[bucket];
+        if (lower == NONE) {
+            bottomBucket = higher;
+        } else {
+            bucketHigher[lower] = higher;
+        }
+        if (higher == NONE) {
+            topBucket = lower;
+        } else {
+            bucketLower[higher] = lower;
+        }
+        bucketLower[bucket] = freeBucket;
+        freeBucket = bucket;
+    }
+
+    private static int mix(int id) {
+        // Ids are dense, spread them over the whole index
+        var h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    String format(CookieDictionary dictionary) {
+        var sb = new StringBuilder("{");
+        forEach((id, count) -> sb.append(sb.length() > 1 ? ", " : "").append(dictionary.nameOf(id)).append('=').append(count));
+        return sb.append('}').toString();
+    }
+
+    /** Receives the id and count of every cookie of a counter */
+    @FunctionalInterface
+    interface EntryConsumer {
+        void accept(int id, int count);
+    }
+
+}
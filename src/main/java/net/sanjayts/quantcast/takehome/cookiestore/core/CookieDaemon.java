@@ -0,0 +1,168 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import net.sanjayts.quantcast.takehome.cookiestore.model.DateRange;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A long-running process which keeps a data store up-to-date with a growing log file (see {@link LogTailer}) and answers
+ * queries against it over a simple line protocol. Each request is a single line and each response is zero or more
+ * lines terminated by an empty line:
+ * <pre>
+ * 2018-12-09                   the most active cookies for the date, one per line
+ * 2018-12-08..2018-12-09,...   the most active cookies for multiple dates, as "date,cookie" lines
+ * top 2018-12-09 5             the 5 most active cookies for the date, as "cookie,count" lines
+ * stats                        what the tailer has seen so far
+ * metrics                      the ingest metrics (see {@link IngestMetrics}) in the Prometheus text format
+ * quit                         stop serving
+ * </pre>
+ * A request which can't be answered gets a single "ERROR message" line as its response.
+ *
+ * If a stats file is given, the ingest metrics are also written to it after every poll which picked up new lines, for
+ * scraping the daemon without talking to it.
+ */
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+@Slf4j
+public class CookieDaemon {
+
+    /** The tailer which keeps the store up-to-date with the log file */
+    private final LogTailer tailer;
+
+    /** The store fed by the tailer which the queries are answered from */
+    private final CookieDataStore store;
+
+    /** The executor on which the tailer is polled in the background */
+    private final ScheduledExecutorService scheduler;
+
+    /** The delay between the end of a poll and the start of the next one */
+    private final Duration pollInterval;
+
+    /** The metrics the tailer records into */
+    private final IngestMetrics metrics;
+
+    /** The file the metrics are dumped to after every poll, null if they shouldn't be */
+    private final Path statsFile;
+
+    /**
+     * Create a daemon which answers queries from the given store while the tailer keeps feeding it.
+     */
+    public static CookieDaemon create(LogTailer tailer, CookieDataStore store, ScheduledExecutorService scheduler,
+                                      Duration pollInterval) {
+        return create(tailer, store, scheduler, pollInterval, null);
+    }
+
+    /**
+     * Create a daemon which also keeps the given file up-to-date with the ingest metrics, as JSON if its name ends with
+     * .json and in the Prometheus text format otherwise.
+     */
+    public static CookieDaemon create(LogTailer tailer, CookieDataStore store, ScheduledExecutorService scheduler,
+                                      Duration pollInterval, Path statsFile) {
+        return new CookieDaemon(tailer, store, scheduler, pollInterval, IngestMetrics.global(), statsFile);
+    }
+
+    /**
+     * Catch up with the log file and then answer the requests read from `in` until it runs out or a quit request is
+     * received, while the log file keeps being followed in the background.
+     */
+    public void serve(BufferedReader in, PrintWriter out) throws IOException {
+        var lines = tailer.poll();
+        log.debug("Caught up with {} lines of the log file, now serving requests", lines);
+        writeStatsQuietly();
+        var polling = scheduler.scheduleWithFixedDelay(this::pollQuietly, pollInterval.toMillis(),
+                pollInterval.toMillis(), TimeUnit.MILLISECONDS);
+        try {
+            String request;
+            while ((request = in.readLine()) != null && !request.strip().equalsIgnoreCase("quit")) {
+                if (request.isBlank()) {
+                    continue;
+                }
+                answer(request.strip()).forEach(out::println);
+                out.println();
+                out.flush();
+            }
+        } finally {
+            polling.cancel(false);
+        }
+    }
+
+    List<String> answer(String request) {
+        try {
+            var parts = request.split("\\s+");
+            if (parts[0].equalsIgnoreCase("stats")) {
+                var stats = tailer.stats();
+                return List.of("lines=%d,outOfOrder=%d,dropped=%d,invalid=%d,dates=%d".formatted(stats.lines(),
+                        stats.outOfOrder(), stats.dropped(), stats.invalid(), store.dates().size()));
+            }
+            if (parts[0].equalsIgnoreCase("metrics")) {
+                return metrics.snapshot(store).toPrometheus().lines().toList();
+            }
+            if (parts[0].equalsIgnoreCase("top")) {
+                if (parts.length != 3) {
+                    return List.of("ERROR usage: top <date> <k>");
+                }
+                var response = new ArrayList<String>();
+                store.topK(LocalDate.parse(parts[1]), Integer.parseInt(parts[2]))
+                        .forEach(count -> response.add(count.cookie() + "," + count.count()));
+                return response;
+            }
+            return mostActive(request);
+        } catch (DateTimeParseException | IllegalArgumentException e) {
+            return List.of("ERROR " + e.getMessage());
+        }
+    }
+
+    private List<String> mostActive(String request) {
+        var dates = new TreeSet<LocalDate>();
+        for (var range : request.split(",")) {
+            DateRange.parse(range).dates().forEach(dates::add);
+        }
+        var response = new ArrayList<String>();
+        var mostActive = store.mostActiveFor(dates);
+        if (dates.size() == 1) {
+            mostActive.values().forEach(response::addAll);
+        } else {
+            mostActive.forEach((date, cookies) -> cookies.forEach(cookie -> response.add(date + "," + cookie)));
+        }
+        return response;
+    }
+
+    private void pollQuietly() {
+        try {
+            var lines = tailer.poll();
+            if (lines > 0) {
+                log.debug("Ingested {} new lines of the log file", lines);
+                writeStatsQuietly();
+            }
+        } catch (RuntimeException e) {
+            // Don't let a hiccup with the file cancel the polling for good
+            log.warn("{}", e.getMessage());
+        }
+    }
+
+    private void writeStatsQuietly() {
+        if (statsFile == null) {
+            return;
+        }
+        try {
+            metrics.snapshot(store).writeTo(statsFile);
+        } catch (UncheckedIOException e) {
+            log.warn("{}", e.getMessage());
+        }
+    }
+
+}
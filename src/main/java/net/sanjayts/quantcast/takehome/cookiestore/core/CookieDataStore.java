@@ -2,100 +2,271 @@ package net.sanjayts.quantcast.takehome.cookiestore.core;
 
 import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import net.sanjayts.quantcast.takehome.cookiestore.model.CookieCount;
 import net.sanjayts.quantcast.takehome.cookiestore.model.CookieInfo;
 
 import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.ObjIntConsumer;
 
 
 /**
  * The data store responsible for storing all the parsed cookie information. This class also provides us with the
  * capability of querying for the most frequent cookie for a given day and other queries which we might think of.
+ *
+ * Queries don't modify the store, so it can be loaded once and queried any number of times. The store is also safe
+ * to be used from multiple threads, although writes are serialized by a single lock.
  */
 @NoArgsConstructor
 @Slf4j
-public class CookieDataStore {
+public class CookieDataStore implements CookieStore {
 
     /*
     The choice of data structures for this particular implementation is specifically chosen for the purpose of fastest
-    retrieval for the most frequent cookie. The presence of a priority queue (or a heap) allows us to quickly pick the
-    most frequent cookie O(logN) while at the same time taking up memory linear to the total cookie count. The drawback
-    here being each insert into the heap taking up O(logN) time which becomes a total of O(NlogN) insert for the
-    entire cookie population as opposed to O(N) for a pure map based approach.
+    retrieval for the most frequent cookie while keeping the per-hit cost as low as possible. Each day gets its own
+    primitive open addressing hash table of cookie -> count (see CookieCounter) which also keeps the cookies chained
+    into buckets of equal counts ordered by count. Since a hit only ever moves a cookie to the adjacent bucket, this gives
+    us O(1) inserts without any boxing or per-hit objects, O(1) retrieval of the most frequent cookies, O(K) retrieval of
+    the top K cookies and memory linear to the number of *unique* cookies per day.
 
-    This is different from the naive hash map approach which would need to traverse all the cookies for a given date
-    which in the worst case of a single date and only-once-present cookie will degrade into a linear scan.
+    An earlier version of this store pushed a new entry into a per-day heap for every hit which made the memory grow with
+    the total number of hits, each insert O(logN) and queries destructive.
 
-    That's not to say this implementation is ideal for all use-cases (what about top K? What about cases wherein a
-    small number of unique cookies occur numerous times?). It's all about trade-offs!
-     */
+    The counters don't hold on to the cookie names either: every name is stored once for the whole store in a
+    dictionary (see CookieDictionary) and the counters only deal with its int id. A cookie seen on many days hence
+    costs a counter entry (~26 bytes) per day rather than that plus a String per day, and the names are only decoded
+    for query results.
 
-    private final Map<LocalDate, PriorityQueue<CookieEntry>> datedCookies = new HashMap<>();
+    That's not to say this implementation is ideal for all use-cases (what about days with more unique cookies than we
+    can fit in memory?). It's all about trade-offs!
+     */
 
-    private final Map<LocalDate, Map<String, Integer>> cookieNameCnt = new HashMap<>();
+    private final Map<Long, CookieCounter> datedCookies = new HashMap<>();
 
-    private final Comparator<CookieEntry> cookieComparator = Comparator.comparingInt(CookieEntry::hitCount).reversed();
+    private final CookieDictionary dictionary = new CookieDictionary();
 
-    /**
-     * Retrieves the most active cookies for a given date
-     *
-     * @param date The date for which the cookies should be returned
-     * @return The set of most active cookies; empty set if no eligible cookies exist.
+    /*
+    Since the log file is sorted, consecutive cookies almost always fall on the same day so we remember the last used
+    counter to avoid a (boxing) map lookup per cookie.
      */
+    private long lastEpochDay = Long.MIN_VALUE;
+
+    private CookieCounter lastCounter;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** Hands out the order in which the locks of two stores are taken when one is merged into the other */
+    private static final AtomicLong LOCK_ORDER = new AtomicLong();
+
+    private final long lockOrder = LOCK_ORDER.incrementAndGet();
+
+    @Override
     public Set<String> mostActiveFor(LocalDate date) {
         log.debug("Most active cookie requested for date {}", date);
-        var pq = datedCookies.get(date);
-        if (pq == null || pq.isEmpty()) {
-            return Collections.emptySet();
+        lock.readLock().lock();
+        try {
+            var counter = datedCookies.get(date.toEpochDay());
+            if (counter == null || counter.size() == 0) {
+                return Collections.emptySet();
+            }
+
+            if (log.isTraceEnabled()) {
+                log.trace("Cookie count map for date is {}", counter.format(dictionary));
+            }
+            return counter.leaders(dictionary);
+        } finally {
+            lock.readLock().unlock();
         }
+    }
 
-        if (log.isTraceEnabled()) {
-            var pqEntries = Arrays.asList(pq.toArray(CookieEntry[]::new));
-            pqEntries.sort(cookieComparator);
-            log.trace("Priority queue for date is {}", pqEntries);
-            log.trace("Cookie count map for date is {}", cookieNameCnt.get(date));
+    @Override
+    public List<CookieCount> topK(LocalDate date, int k) {
+        log.debug("Top {} cookies requested for date {}", k, date);
+        if (k <= 0) {
+            throw new IllegalArgumentException("The number of cookies requested should be positive, got %d".formatted(k));
         }
+        lock.readLock().lock();
+        try {
+            var counter = datedCookies.get(date.toEpochDay());
+            return counter == null ? Collections.emptyList() : counter.topK(k, dictionary);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
 
-        var cookies = new HashSet<String>();
-        var maxCnt = pq.peek().hitCount();
-        while (!pq.isEmpty()) {
-            var ce= pq.poll();
-            log.debug("Polled entry {} from our heap", ce);
-            if (ce.hitCount() != maxCnt) {
-                break;
-            }
-            cookies.add(ce.cookieName());
+    @Override
+    public SortedSet<LocalDate> dates() {
+        lock.readLock().lock();
+        try {
+            var dates = new TreeSet<LocalDate>();
+            datedCookies.keySet().forEach(epochDay -> dates.add(LocalDate.ofEpochDay(epochDay)));
+            return dates;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int countOf(LocalDate date, String cookie) {
+        lock.readLock().lock();
+        try {
+            var counter = datedCookies.get(date.toEpochDay());
+            var id = dictionary.idOf(cookie);
+            return counter == null || id == CookieDictionary.NONE ? 0 : counter.countOf(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int uniqueCookies(LocalDate date) {
+        lock.readLock().lock();
+        try {
+            var counter = datedCookies.get(date.toEpochDay());
+            return counter == null ? 0 : counter.size();
+        } finally {
+            lock.readLock().unlock();
         }
-        // Since this is a one-shot program, we don't maintain a list of popped entries. If this store was to be queried
-        // back to back, multiple times, we want to make sure all the stuff we pop off gets inserted back unless we want
-        // to have a query-state maintaining store.
-        return cookies;
     }
 
     /**
-     * Adds a cookie to the cookie data store.
-     *
-     * @param info The cookie info to be added.
+     * Feed the UTF-8 name and count of every cookie of the given day to the consumer, in the (unsigned) byte order of
+     * the names, which is the order a {@link CookieSnapshot} keeps them in.
      */
+    void forEachInNameOrder(LocalDate date, ObjIntConsumer<byte[]> consumer) {
+        lock.readLock().lock();
+        try {
+            var counter = datedCookies.get(date.toEpochDay());
+            if (counter == null) {
+                return;
+            }
+            var ids = new ArrayList<Integer>(counter.size());
+            counter.forEach((id, count) -> ids.add(id));
+            ids.sort(dictionary::compare);
+            for (var id : ids) {
+                consumer.accept(dictionary.bytesOf(id), counter.countOf(id));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
     public void addCookie(CookieInfo info) {
-        log.debug("Start adding {} to the cookie store", info);
-        var localDate = info.getTimestamp().toLocalDate();
-        var cookieName = info.getName();
+        addCookie(info.getName(), TimestampParser.epochDayOf(info.getTimestamp().toEpochSecond()));
+    }
 
-        if (!datedCookies.containsKey(localDate)) {
-            datedCookies.put(localDate, new PriorityQueue<>(cookieComparator));
+    @Override
+    public void addCookie(String name, long epochDay) {
+        lock.writeLock().lock();
+        try {
+            counterFor(epochDay).add(dictionary.intern(name), 1);
+        } finally {
+            lock.writeLock().unlock();
         }
-        if (!cookieNameCnt.containsKey(localDate)) {
-            cookieNameCnt.put(localDate, new HashMap<>());
+    }
+
+    @Override
+    public void addCookies(CookieBatch batch) {
+        // The names are interned straight from the parsed bytes, and the whole batch takes the lock once
+        var data = batch.data();
+        lock.writeLock().lock();
+        try {
+            for (int row = 0; row < batch.size(); ++row) {
+                if (batch.isValid(row)) {
+                    var id = dictionary.intern(data, batch.nameOffset(row), batch.nameLength(row));
+                    counterFor(batch.epochDay(row)).add(id, 1);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
         }
+    }
 
-        var newCnt = cookieNameCnt.get(localDate).compute(cookieName, (k, v) -> v == null ? 1 : v + 1);
-        var pq = datedCookies.get(localDate);
-        var ce = new CookieEntry(cookieName, newCnt);
-        pq.add(ce);
+    @Override
+    public void merge(CookieStore otherStore) {
+        if (!(otherStore instanceof CookieDataStore other)) {
+            throw new IllegalArgumentException("Only exact counts can be merged into an exact store, got " + otherStore);
+        }
+        if (other == this) {
+            // Our read lock can't be upgraded to the write lock, hence this would deadlock
+            throw new IllegalArgumentException("A store can't be merged into itself");
+        }
+        // Taken in a fixed order across all stores, so that a.merge(b) and b.merge(a) at the same time can't deadlock
+        Lock first = lockOrder < other.lockOrder ? lock.writeLock() : other.lock.readLock();
+        Lock second = lockOrder < other.lockOrder ? other.lock.readLock() : lock.writeLock();
+        first.lock();
+        second.lock();
+        try {
+            log.debug("Merging {} dates worth of cookies into the cookie store", other.datedCookies.size());
+            // The other store has its own dictionary, so its ids need to be translated to ours (once per name)
+            var ids = new int[other.dictionary.size()];
+            Arrays.fill(ids, CookieDictionary.NONE);
+            other.datedCookies.forEach((epochDay, counts) -> {
+                var counter = counterFor(epochDay);
+                counts.forEach((otherId, count) -> {
+                    if (ids[otherId] == CookieDictionary.NONE) {
+                        ids[otherId] = dictionary.intern(other.dictionary, otherId);
+                    }
+                    counter.add(ids[otherId], count);
+                });
+            });
+        } finally {
+            second.unlock();
+            first.unlock();
+        }
     }
 
-}
+    @Override
+    public CookieDataStore createEmpty() {
+        return new CookieDataStore();
+    }
+
+    /**
+     * Drop the counts of all the dates older than the given date, which keeps the memory of a long-running store bounded.
+     *
+     * @param date The oldest date which should be retained
+     * @return The number of dates which were dropped
+     */
+    public int removeBefore(LocalDate date) {
+        var oldestEpochDay = date.toEpochDay();
+        lock.writeLock().lock();
+        try {
+            var sizeBefore = datedCookies.size();
+            datedCookies.keySet().removeIf(epochDay -> epochDay < oldestEpochDay);
+            if (lastEpochDay < oldestEpochDay) {
+                lastEpochDay = Long.MIN_VALUE;
+                lastCounter = null;
+            }
+            if (datedCookies.size() < sizeBefore) {
+                compactDictionary();
+            }
+            log.debug("Removed {} dates older than {} from the cookie store", sizeBefore - datedCookies.size(), date);
+            return sizeBefore - datedCookies.size();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
 
-/** Our internal record which maintains a point-in-time hit-count information for a given cookie */
-record CookieEntry(String cookieName, int hitCount) {}
+    /** Drop the names which were only used by the removed dates, so that a long-running store doesn't keep growing */
+    private void compactDictionary() {
+        var mapping = new int[dictionary.size()];
+        Arrays.fill(mapping, CookieDictionary.NONE);
+        datedCookies.values().forEach(counter -> counter.forEach((id, count) -> mapping[id] = id));
+        dictionary.retain(mapping);
+        datedCookies.values().forEach(counter -> counter.remap(mapping));
+    }
+
+    private CookieCounter counterFor(long epochDay) {
+        if (epochDay != lastEpochDay) {
+            lastCounter = datedCookies.computeIfAbsent(epochDay, d -> new CookieCounter());
+            lastEpochDay = epochDay;
+        }
+        return lastCounter;
+    }
+
+}
@@ -0,0 +1,264 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Maps every distinct cookie name to a compact int id so that the per-day counters only ever deal with ints. The names
+ * themselves are stored once, as UTF-8, back to back in a single byte arena; an id is simply the position of its name
+ * in the arena's offset table. The dictionary takes ~30 bytes per distinct cookie overall (for 16 character names),
+ * while a cookie costs ~26 bytes per day in its {@link CookieCounter} entry (five int columns plus its hash index slot,
+ * more while the arrays have room to grow). Keeping a String per cookie per day instead would add 56 bytes per cookie
+ * per day for the String alone.
+ *
+ * Names are only decoded back to Strings when a query result is produced. Ids are handed out densely from 0 and are
+ * never reused, i.e. a dictionary only grows; see {@link #retain(int[])} for dropping names which are no longer used.
+ *
+ * This class is not thread-safe, the owning data store serializes the access to it.
+ */
+final class CookieDictionary {
+
+    static final int NONE = -1;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final float LOAD_FACTOR = 0.7f;
+
+    private byte[] arena = new byte[INITIAL_CAPACITY * 16];
+
+    private int arenaSize;
+
+    /** The name of id `i` lives in arena[offsets[i], offsets[i + 1]) */
+    private int[] offsets = new int[INITIAL_CAPACITY + 1];
+
+    /** The hash of every name, which saves hashing the arena again when the index grows */
+    private int[] hashes = new int[INITIAL_CAPACITY];
+
+    private int size;
+
+    /** The hash index, holding id + 1 for occupied slots and 0 for empty ones */
+    private int[] index = new int[INITIAL_CAPACITY];
+
+    private int resizeThreshold = (int) (INITIAL_CAPACITY * LOAD_FACTOR);
+
+    /**
+     * @return The id of the given name, adding it to the dictionary if it isn't there yet
+     */
+    int intern(String name) {
+        if (isAscii(name)) {
+            // The common case: the chars are the UTF-8 bytes, so there's no need to encode the name first
+            var hash = hashAscii(name);
+            var id = find(name, hash);
+            return id != NONE ? id : add(name, hash);
+        }
+        var bytes = name.getBytes(StandardCharsets.UTF_8);
+        return intern(bytes, 0, bytes.length);
+    }
+
+    /**
+     * @return The id of the name which has the given id in another dictionary, adding it to this one if needed
+     */
+    int intern(CookieDictionary other, int otherId) {
+        var from = other.offsets[otherId];
+        return intern(other.arena, from, other.offsets[otherId + 1] - from);
+    }
+
+    /**
+     * @return The id of the given name or {@link #NONE} if the dictionary has never seen it
+     */
+    int idOf(String name) {
+        if (isAscii(name)) {
+            return find(name, hashAscii(name));
+        }
+        var bytes = name.getBytes(StandardCharsets.UTF_8);
+        return find(bytes, 0, bytes.length, hash(bytes, 0, bytes.length));
+    }
+
+    String nameOf(int id) {
+        var from = offsets[id];
+        return new String(arena, from, offsets[id + 1] - from, StandardCharsets.UTF_8);
+    }
+
+    /** The UTF-8 bytes of the name with the given id */
+    byte[] bytesOf(int id) {
+        return Arrays.copyOfRange(arena, offsets[id], offsets[id + 1]);
+    }
+
+    /** The hash of the name with the given id, the same as {@link #hash(byte[], int, int)} over its UTF-8 bytes */
+    int hashOf(int id) {
+        return hashes[id];
+    }
+
+    /**
+     * Compare two names by their UTF-8 bytes, which is the same as comparing them code point by code point.
+     */
+    int compare(int id1, int id2) {
+        return Arrays.compareUnsigned(arena, offsets[id1], offsets[id1 + 1], arena, offsets[id2], offsets[id2 + 1]);
+    }
+
+    /** The number of distinct names */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Drop all the names which aren't in use anymore, renumbering the remaining ones.
+     *
+     * @param mapping Holds, for every id of this dictionary, a value other than {@link #NONE} if the name should be
+     *                kept. The new id of every kept name is written back into it.
+     */
+    void retain(int[] mapping) {
+        var oldArena = arena;
+        var oldOffsets = offsets;
+        var oldHashes = hashes;
+        var oldSize = size;
+        arena = new byte[Math.max(INITIAL_CAPACITY, arenaSize)];
+        arenaSize = 0;
+        offsets = new int[INITIAL_CAPACITY + 1];
+        hashes = new int[INITIAL_CAPACITY];
+        size = 0;
+        index = new int[INITIAL_CAPACITY];
+        resizeThreshold = (int) (INITIAL_CAPACITY * LOAD_FACTOR);
+        for (int id = 0; id < oldSize; ++id) {
+            if (mapping[id] != NONE) {
+                var from = oldOffsets[id];
+                mapping[id] = add(oldArena, from, oldOffsets[id + 1] - from, oldHashes[id]);
+            }
+        }
+    }
+
+    /**
+     * @return The id of the name with the given UTF-8 bytes, adding it to the dictionary if it isn't there yet
+     */
+    int intern(byte[] bytes, int from, int length) {
+        var hash = hash(bytes, from, length);
+        var id = find(bytes, from, length, hash);
+        return id != NONE ? id : add(bytes, from, length, hash);
+    }
+
+    private int find(String name, int hash) {
+        var mask = index.length - 1;
+        for (int slot = mix(hash) & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+            var id = index[slot] - 1;
+            if (hashes[id] == hash && asciiEquals(id, name)) {
+                return id;
+            }
+        }
+        return NONE;
+    }
+
+    private int find(byte[] bytes, int from, int length, int hash) {
+        var mask = index.length - 1;
+        for (int slot = mix(hash) & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+            var id = index[slot] - 1;
+            if (hashes[id] == hash
+                    && Arrays.equals(arena, offsets[id], offsets[id + 1], bytes, from, from + length)) {
+                return id;
+            }
+        }
+        return NONE;
+    }
+
+    private int add(String asciiName, int hash) {
+        var length = asciiName.length();
+        ensureArenaCapacity(length);
+        for (int i = 0; i < length; ++i) {
+            arena[arenaSize + i] = (byte) asciiName.charAt(i);
+        }
+        return addLast(length, hash);
+    }
+
+    private int add(byte[] bytes, int from, int length, int hash) {
+        ensureArenaCapacity(length);
+        System.arraycopy(bytes, from, arena, arenaSize, length);
+        return addLast(length, hash);
+    }
+
+    /** Register the name which was just copied to the end of the arena */
+    private int addLast(int length, int hash) {
+        if (size == hashes.length) {
+            hashes = Arrays.copyOf(hashes, size * 2);
+            offsets = Arrays.copyOf(offsets, size * 2 + 1);
+        }
+        var id = size++;
+        offsets[id] = arenaSize;
+        arenaSize += length;
+        offsets[id + 1] = arenaSize;
+        hashes[id] = hash;
+        if (size > resizeThreshold) {
+            index = new int[index.length * 2];
+            resizeThreshold = (int) (index.length * LOAD_FACTOR);
+            for (int i = 0; i < size; ++i) {
+                insertIntoIndex(i);
+            }
+        } else {
+            insertIntoIndex(id);
+        }
+        return id;
+    }
+
+    private void ensureArenaCapacity(int length) {
+        var required = (long) arenaSize + length;
+        if (required > arena.length) {
+            if (required > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("Too many distinct cookie names to fit into the dictionary");
+            }
+            arena = Arrays.copyOf(arena, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(required, arena.length * 2L)));
+        }
+    }
+
+    private void insertIntoIndex(int id) {
+        var mask = index.length - 1;
+        var slot = mix(hashes[id]) & mask;
+        while (index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = id + 1;
+    }
+
+    private boolean asciiEquals(int id, String name) {
+        var from = offsets[id];
+        if (offsets[id + 1] - from != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); ++i) {
+            if (arena[from + i] != (byte) name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAscii(String name) {
+        for (int i = 0; i < name.length(); ++i) {
+            if (name.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Must give the same result as {@link #hash(byte[], int, int)} over the UTF-8 bytes of the (ASCII) name */
+    private static int hashAscii(String name) {
+        var hash = 0;
+        for (int i = 0; i < name.length(); ++i) {
+            hash = 31 * hash + name.charAt(i);
+        }
+        return hash;
+    }
+
+    static int hash(byte[] bytes, int from, int length) {
+        var hash = 0;
+        for (int i = from; i < from + length; ++i) {
+            hash = 31 * hash + (bytes[i] & 0xFF);
+        }
+        return hash;
+    }
+
+    private static int mix(int hash) {
+        // Spread the high bits since the mask only looks at the low ones
+        var h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+}
@@ -0,0 +1,329 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import lombok.extern.slf4j.Slf4j;
+import net.sanjayts.quantcast.takehome.cookiestore.exceptions.IndexException;
+import net.sanjayts.quantcast.takehome.cookiestore.model.CookieCount;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * A persistent, read-only index of the per-day cookie counts of a log file which lives next to the log file. Once
+ * written, repeat queries against the same log file can be answered straight from the index without parsing the log
+ * file at all.
+ *
+ * The index is keyed by the size, modification time and a content hash of the log file, which allows us to detect a
+ * stale index and rebuild it. Given that hashing a multi GB log file would cost as much as parsing it, the hash only
+ * covers the first and last {@value #HASH_SAMPLE_SIZE} bytes of the file. An index only knows about the dates it was
+ * built for: everything on or after the cutoff date the log file was parsed with (see {@link #covers(LocalDate)}).
+ *
+ * The layout of the file (all numbers big endian) is:
+ * <pre>
+ * header:    magic, version, source size, source mtime, source hash, covered-from epoch day, day count, dir offset
+ * tables:    per day, the (count int, name length u16, UTF-8 name) entries sorted by count desc and name asc
+ * directory: per day, (epoch day, table offset, table length, entry count, max count)
+ * </pre>
+ * Since the tables are sorted by count, answering the most active cookies for a day only reads the directory and the
+ * first few entries of that day's table, i.e. a handful of pages irrespective of the size of the log file.
+ */
+@Slf4j
+public class CookieIndex implements Closeable {
+
+    static final int HASH_SAMPLE_SIZE = 64 * 1024;
+
+    private static final int MAGIC = 0x434B4958; // "CKIX"
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 8 + 4 + 8;
+
+    private static final int DIRECTORY_OFFSET_POSITION = HEADER_SIZE - 8;
+
+    private static final int DIRECTORY_ENTRY_SIZE = 8 + 8 + 8 + 4 + 4;
+
+    private final FileChannel channel;
+
+    private final long coveredFromEpochDay;
+
+    private final Map<Long, DayTable> directory;
+
+    private CookieIndex(FileChannel channel, long coveredFromEpochDay, Map<Long, DayTable> directory) {
+        this.channel = channel;
+        this.coveredFromEpochDay = coveredFromEpochDay;
+        this.directory = directory;
+    }
+
+    /**
+     * The default location of the index for a given log file i.e. right next to it
+     */
+    public static Path defaultPathFor(Path logFile) {
+        return logFile.resolveSibling(logFile.getFileName() + ".idx");
+    }
+
+    /**
+     * Whether the given file is an index as opposed to a log file. Only regular files are looked at, so that checking a
+     * pipe doesn't eat into its data.
+     */
+    public static boolean isIndex(Path path) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            return false;
+        }
+        try (var in = new DataInputStream(Files.newInputStream(path))) {
+            return in.readInt() == MAGIC;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Open the index for the given log file if it exists and is still up-to-date with respect to the log file.
+     *
+     * @return The index or an empty optional if the index is missing, stale or unreadable
+     */
+    public static Optional<CookieIndex> openIfFresh(Path indexFile, Path logFile) {
+        if (!Files.isRegularFile(indexFile)) {
+            log.debug("No index found at {}", indexFile);
+            return Optional.empty();
+        }
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(indexFile, StandardOpenOption.READ);
+            var header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                log.debug("Index {} has an unknown format, ignoring it", indexFile);
+                channel.close();
+                return Optional.empty();
+            }
+            var fingerprint = new Fingerprint(header.getLong(), header.getLong(), header.getLong());
+            if (!fingerprint.equals(Fingerprint.of(logFile))) {
+                log.debug("Index {} is stale, expected {} but the log file is {}", indexFile, fingerprint, Fingerprint.of(logFile));
+                channel.close();
+                return Optional.empty();
+            }
+            var coveredFrom = header.getLong();
+            var dayCount = header.getInt();
+            var directoryOffset = header.getLong();
+            var dirBuffer = channel.map(FileChannel.MapMode.READ_ONLY, directoryOffset, (long) dayCount * DIRECTORY_ENTRY_SIZE);
+            var directory = new HashMap<Long, DayTable>();
+            for (int i = 0; i < dayCount; ++i) {
+                directory.put(dirBuffer.getLong(),
+                        new DayTable(dirBuffer.getLong(), dirBuffer.getLong(), dirBuffer.getInt(), dirBuffer.getInt()));
+            }
+            return Optional.of(new CookieIndex(channel, coveredFrom, directory));
+        } catch (IOException | RuntimeException e) {
+            log.debug("Failed to read the index {}, ignoring it -- {}", indexFile, e.getMessage());
+            closeQuietly(channel);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Write the contents of the given store as the index for the given log file, replacing any existing index.
+     *
+     * @param coveredFrom The cutoff date which was used when parsing the log file; the store is expected to hold the
+     *                    complete counts of every date on or after it.
+     */
+    public static void write(Path indexFile, Path logFile, CookieDataStore store, LocalDate coveredFrom) {
+        var dates = new ArrayList<>(store.dates().tailSet(coveredFrom));
+        Path tempFile = null;
+        try {
+            var indexDir = indexFile.toAbsolutePath().getParent();
+            if (indexDir == null) {
+                throw new IOException("Cannot determine the directory of the index");
+            }
+            tempFile = Files.createTempFile(indexDir, String.valueOf(indexFile.getFileName()), ".tmp");
+            long directoryOffset;
+            try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                var fingerprint = Fingerprint.of(logFile);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(fingerprint.size());
+                out.writeLong(fingerprint.modifiedMillis());
+                out.writeLong(fingerprint.hash());
+                out.writeLong(coveredFrom.toEpochDay());
+                out.writeInt(dates.size());
+                out.writeLong(0); // The directory offset, filled in once we know it
+
+                // DataOutputStream only counts the bytes written as an int, hence we track the position ourselves
+                long position = HEADER_SIZE;
+                var tables = new ArrayList<DayTable>();
+                for (var date : dates) {
+                    var offset = position;
+                    var counts = store.topK(date, Integer.MAX_VALUE);
+                    for (var count : counts) {
+                        var name = count.cookie().getBytes(StandardCharsets.UTF_8);
+                        if (name.length > 0xFFFF) {
+                            throw new IOException("Cookie name is too long to be indexed: " + count.cookie());
+                        }
+                        out.writeInt(count.count());
+                        out.writeShort(name.length);
+                        out.write(name);
+                        position += 4 + 2 + name.length;
+                    }
+                    tables.add(new DayTable(offset, position - offset, counts.size(), counts.isEmpty() ? 0 : counts.get(0).count()));
+                }
+
+                directoryOffset = position;
+                for (int i = 0; i < dates.size(); ++i) {
+                    var table = tables.get(i);
+                    out.writeLong(dates.get(i).toEpochDay());
+                    out.writeLong(table.offset());
+                    out.writeLong(table.length());
+                    out.writeInt(table.entryCount());
+                    out.writeInt(table.maxCount());
+                }
+            }
+            try (var channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.allocate(Long.BYTES).putLong(0, directoryOffset), DIRECTORY_OFFSET_POSITION);
+            }
+            Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.debug("Wrote the index {} for {} dates", indexFile, dates.size());
+        } catch (IOException e) {
+            deleteQuietly(tempFile);
+            String msg = String.format("Unexpected error encountered when writing the index %s -- %s", indexFile, e.getMessage());
+            throw new IndexException(msg, e);
+        }
+    }
+
+    /**
+     * Whether this index holds the complete counts for the given date
+     */
+    public boolean covers(LocalDate date) {
+        return date.toEpochDay() >= coveredFromEpochDay;
+    }
+
+    /**
+     * Retrieves the most active cookies for a given date
+     *
+     * @return The set of most active cookies; empty set if no eligible cookies exist.
+     */
+    public Set<String> mostActiveFor(LocalDate date) {
+        var cookies = new HashSet<String>();
+        var table = directory.get(date.toEpochDay());
+        if (table != null) {
+            readEntries(table, Integer.MAX_VALUE, table.maxCount(), count -> cookies.add(count.cookie()));
+        }
+        return cookies;
+    }
+
+    /**
+     * Retrieves the most active cookies for each of the given dates, see {@link CookieStore#mostActiveFor(Collection)}
+     */
+    public SortedMap<LocalDate, SortedSet<String>> mostActiveFor(Collection<LocalDate> dates) {
+        var result = new TreeMap<LocalDate, SortedSet<String>>();
+        dates.forEach(date -> result.put(date, new TreeSet<>(mostActiveFor(date))));
+        return result;
+    }
+
+    /**
+     * Retrieves the K most active cookies for a given date, see {@link CookieStore#topK(LocalDate, int)}
+     */
+    public List<CookieCount> topK(LocalDate date, int k) {
+        var cookies = new ArrayList<CookieCount>();
+        var table = directory.get(date.toEpochDay());
+        if (table != null) {
+            readEntries(table, k, 0, cookies::add);
+        }
+        return cookies;
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            String msg = String.format("Unexpected error encountered when closing the index -- %s", e.getMessage());
+            throw new IndexException(msg, e);
+        }
+    }
+
+    /** Read at most `limit` entries off the top of a day table, stopping at the first one with a count below `minCount` */
+    private void readEntries(DayTable table, int limit, int minCount, Consumer<CookieCount> consumer) {
+        try {
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, table.offset(), table.length());
+            for (int i = 0; i < Math.min(limit, table.entryCount()); ++i) {
+                var count = buffer.getInt();
+                if (count < minCount) {
+                    break;
+                }
+                var name = new byte[buffer.getShort() & 0xFFFF];
+                buffer.get(name);
+                consumer.accept(new CookieCount(new String(name, StandardCharsets.UTF_8), count));
+            }
+        } catch (IOException e) {
+            String msg = String.format("Unexpected error encountered when reading the index -- %s", e.getMessage());
+            throw new IndexException(msg, e);
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            log.debug("Failed to close the index -- {}", e.getMessage());
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            if (file != null) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            log.debug("Failed to delete the temporary index file {} -- {}", file, e.getMessage());
+        }
+    }
+
+    /** The location of a single day's table in the index file */
+    private record DayTable(long offset, long length, int entryCount, int maxCount) {}
+
+    /** What identifies a particular version of a log file */
+    record Fingerprint(long size, long modifiedMillis, long hash) {
+
+        static Fingerprint of(Path logFile) {
+            try (var channel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+                var size = channel.size();
+                var crc = new CRC32C();
+                var buffer = ByteBuffer.allocate((int) Math.min(size, HASH_SAMPLE_SIZE));
+                channel.read(buffer, 0);
+                crc.update(buffer.flip());
+                buffer.clear();
+                channel.read(buffer, Math.max(0, size - HASH_SAMPLE_SIZE));
+                crc.update(buffer.flip());
+                return new Fingerprint(size, Files.getLastModifiedTime(logFile).toMillis(), crc.getValue());
+            } catch (IOException e) {
+                String msg = String.format("Unexpected error encountered when fingerprinting %s -- %s", logFile, e.getMessage());
+                throw new IndexException(msg, e);
+            }
+        }
+    }
+
+}
@@ -1,18 +1,21 @@
 package net.sanjayts.quantcast.takehome.cookiestore.core;
 
 import lombok.AccessLevel;
-import lombok.AllArgsConstructor;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import net.sanjayts.quantcast.takehome.cookiestore.exceptions.ParserException;
+import net.sanjayts.quantcast.takehome.cookiestore.exceptions.SourceException;
 import net.sanjayts.quantcast.takehome.cookiestore.model.CookieInfo;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
 import java.util.List;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 
 
@@ -21,14 +24,38 @@ import java.util.stream.Stream;
  * class deals with validating the source headers and skipping entries/lines which are malformed.
  */
 @Slf4j
-@AllArgsConstructor(access = AccessLevel.PRIVATE)
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
 public class CookieParser {
 
+    private static final int BATCH_BUFFER_SIZE = 256 * 1024;
+
+    static final int MAX_LINE_LENGTH = MappedCookieSource.DEFAULT_WINDOW_SIZE;
+
+    private static final DelimiterScanner SCANNER = DelimiterScanner.best();
+
+    /** What {@link #parseOrReject} returns for every malformed line */
+    private static final CookieInfo MALFORMED = CookieInfo.createInvalid("");
+
     private final CookieSource source;
 
     private final List<String> headers;
 
-    private LocalDate cutoffDate;
+    private final LocalDate cutoffDate;
+
+    private boolean cutoffReached;
+
+    /** The bytes read ahead for the batches, of which [bufferStart, bufferEnd) haven't been parsed yet */
+    private byte[] buffer;
+
+    private int bufferStart;
+
+    private int bufferEnd;
+
+    private boolean sourceDrained;
+
+    private IngestMetrics metrics = IngestMetrics.global();
+
+    private Quarantine quarantine = Quarantine.global();
 
     /**
      * Given a cookie source, the file headers and cutoff date, create a new parser. The headers will be used to validate
@@ -40,6 +67,41 @@ public class CookieParser {
         return parser;
     }
 
+    /**
+     * Create a parser for a source which is positioned somewhere in the middle of the data i.e. there are no headers to
+     * be read and validated. This is used when a single file gets split into multiple regions which are parsed
+     * independently.
+     */
+    static CookieParser createForRegion(CookieSource source, LocalDate cutoffDate) {
+        return new CookieParser(source, List.of(), cutoffDate);
+    }
+
+    /**
+     * Whether the cookie stream has stopped because it encountered a cookie older than the cutoff date (as opposed to
+     * simply running out of data).
+     */
+    public boolean isCutoffReached() {
+        return cutoffReached;
+    }
+
+    /**
+     * Record what this parser does into the given metrics instead of the {@link IngestMetrics#global()} ones.
+     */
+    void recordTo(IngestMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    IngestMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Send the malformed lines to the given quarantine instead of the {@link Quarantine#global()} one.
+     */
+    void quarantineTo(Quarantine quarantine) {
+        this.quarantine = quarantine;
+    }
+
     private void validateHeaders() {
         var line = source.nextLine();
         if (line == null) {
@@ -59,59 +121,355 @@ public class CookieParser {
      * terminating condition for the stream is when the underlying source runs out of data to hand over.
      */
     public Stream<CookieInfo> cookieInfoStream() {
+        // Reading, parsing and counting take turns line by line, so they're all timed as parsing, and the lines are
+        // tallied locally until the stream ends
+        var tally = new IngestMetrics.Tally();
+        var start = System.nanoTime();
         var filterPred = getFilterPred();
-        var twPred = getTakeWhilePred();
-        return Stream.generate(() -> parseInfo(source.nextLine())).filter(filterPred).takeWhile(twPred);
+        var twPred = getTakeWhilePred(tally, start);
+        var lines = lineSupplier();
+        return Stream.generate(() -> parseInfo(lines.get(), tally, quarantine)).filter(filterPred).takeWhile(twPred);
         // The terminating condition of our stream -- when we encounter a `null`,
         // we know we have hit EOF and should now terminate the stream. We also terminate when the parsed date is
         // <= the target date.
     }
 
-    private Predicate<CookieInfo> getTakeWhilePred() {
+    /**
+     * Whether the source can be parsed in batches using {@link #nextBatch(CookieBatch)}, which needs the raw bytes of a
+     * {@link CookieSource#isByteSource()}; reader based sources can only be streamed using {@link #cookieInfoStream()}.
+     */
+    public boolean isBatchCapable() {
+        return source.isByteSource();
+    }
+
+    /**
+     * Parse the next lines of the source into the given (reused) batch. This is the batch counterpart of
+     * {@link #cookieInfoStream()} which doesn't create any objects per line: the source bytes are copied into a buffer
+     * in bulk and the lines are parsed into the primitive columns of the batch, malformed ones included (but marked
+     * invalid). Parsing stops at the first cookie older than the cutoff date, which ends the batch early.
+     *
+     * @return true if the batch holds rows, false once the source has run out of data or the cutoff date was reached
+     * @throws IllegalStateException If the parser isn't {@link #isBatchCapable()}
+     */
+    public boolean nextBatch(CookieBatch batch) {
+        if (!source.isByteSource()) {
+            throw new IllegalStateException("Only a source of raw bytes can be parsed in batches");
+        }
+        if (buffer == null) {
+            buffer = new byte[BATCH_BUFFER_SIZE];
+        }
+        var cutoffEpochDay = cutoffDate.toEpochDay();
+        while (!cutoffReached) {
+            batch.reset(buffer);
+            var start = System.nanoTime();
+            var from = bufferStart;
+            bufferStart = parseLines(buffer, bufferStart, bufferEnd, sourceDrained, cutoffEpochDay, batch);
+            cutoffReached = batch.isCutoffReached();
+            if (batch.size() > 0 || cutoffReached) {
+                record(batch, bufferStart - from, System.nanoTime() - start);
+            }
+            if (batch.size() > 0) {
+                return true;
+            }
+            if (sourceDrained) {
+                return false;
+            }
+            // Only refill once the previous batch is done with, since it points into the buffer
+            start = System.nanoTime();
+            fill();
+            metrics.timed(IngestMetrics.Stage.READ, System.nanoTime() - start);
+        }
+        log.debug("Early exit from our batch parsing since we have gone below the cutoff date {}", cutoffDate);
+        return false;
+    }
+
+    /**
+     * Narrow down the data to be parsed to only the lines for the given target date. Given that the source is sorted, this
+     * is done by binary searching for the first and last lines of the target date as opposed to reading everything
+     * which is newer than it. This is only possible for a seekable (memory mapped) source and must be called before
+     * streaming the cookie information.
+     *
+     * @return true if the source was narrowed down, false if the source doesn't support seeking
+     */
+    public boolean seekTo(LocalDate targetDate) {
+        return seekTo(targetDate, targetDate);
+    }
+
+    /**
+     * Narrow down the data to be parsed to only the lines between the given dates (both inclusive).
+     *
+     * @see #seekTo(LocalDate)
+     */
+    public boolean seekTo(LocalDate oldestDate, LocalDate newestDate) {
+        if (!(source instanceof MappedCookieSource mapped)) {
+            return false;
+        }
+        var dataStart = mapped.nextLineOffset();
+        try (var seeker = new SortedLogSeeker(mapped.path())) {
+            var start = seeker.firstLineOnOrBefore(dataStart, newestDate.toEpochDay());
+            var end = seeker.firstLineBefore(start, oldestDate.toEpochDay());
+            log.debug("Seeked to the lines for [{}, {}] which lie in the region [{}, {})", oldestDate, newestDate, start, end);
+            mapped.seek(start, end);
+        }
+        return true;
+    }
+
+    private void record(CookieBatch batch, long bytes, long nanos) {
+        record(batch, bytes, metrics, quarantine);
+        metrics.timed(IngestMetrics.Stage.PARSE, nanos);
+    }
+
+    /**
+     * Count the lines of a batch just parsed from the given number of bytes (see {@link #parseLines}) into the metrics,
+     * and hand its malformed lines over to the quarantine.
+     */
+    static void record(CookieBatch batch, long bytes, IngestMetrics metrics, Quarantine quarantine) {
+        var skipped = batch.isCutoffReached() ? 1 : 0;
+        metrics.read(batch.size() + skipped, bytes);
+        metrics.parsed(batch.validCount());
+        metrics.skipped(skipped);
+        if (batch.invalidCount() > 0) {
+            for (var reason : MalformedReason.values()) {
+                metrics.malformed(reason, batch.malformedCount(reason));
+            }
+            if (quarantine.isEnabled()) {
+                for (int row = 0; row < batch.size(); ++row) {
+                    if (!batch.isValid(row)) {
+                        quarantine.reject(batch.malformedReason(row), batch.name(row));
+                    }
+                }
+            }
+        }
+    }
+
+    private void fill() {
+        var remaining = bufferEnd - bufferStart;
+        if (remaining == buffer.length) {
+            // The buffer holds a single incomplete line, make room for the rest of it
+            if (buffer.length >= MAX_LINE_LENGTH) {
+                throw new SourceException("Found a line longer than %d bytes".formatted(MAX_LINE_LENGTH), null);
+            }
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        } else {
+            System.arraycopy(buffer, bufferStart, buffer, 0, remaining);
+        }
+        bufferStart = 0;
+        bufferEnd = remaining;
+        var n = source.read(buffer, bufferEnd, buffer.length - bufferEnd);
+        if (n < 0) {
+            sourceDrained = true;
+        } else {
+            bufferEnd += n;
+        }
+    }
+
+    private Supplier<CharSequence> lineSupplier() {
+        // A mapped source can be parsed in-place without creating a String for each line
+        if (source instanceof MappedCookieSource mapped) {
+            return () -> mapped.advance() ? mapped.line() : null;
+        }
+        return source::nextLine;
+    }
+
+    private Predicate<CookieInfo> getTakeWhilePred(IngestMetrics.Tally tally, long start) {
         return (ci -> {
             if (ci == null) {
                 log.debug("No more data found in the source so terminate our stream");
+                finish(tally, start);
                 return false;
             } else if (ci.getTimestamp().toLocalDate().isBefore(cutoffDate)) {
                log.debug("Early exit from our parsing loop since we have gone below the cutoff date {} with cookie {}",
                        cutoffDate, ci);
+               cutoffReached = true;
+               tally.skipped();
+               finish(tally, start);
                return false;
            } else {
+                tally.parsed();
                 return true;
             }
         });
     }
 
+    private void finish(IngestMetrics.Tally tally, long start) {
+        tally.flushTo(metrics);
+        metrics.timed(IngestMetrics.Stage.PARSE, System.nanoTime() - start);
+    }
+
     private Predicate<CookieInfo> getFilterPred() {
         return (ci -> ci == null || ci.isValid());
     }
 
-    private CookieInfo parseInfo(String line) {
+    private static CookieInfo parseInfo(CharSequence line, IngestMetrics.Tally tally, Quarantine quarantine) {
         if (line == null) {
             return null;
         }
+        tally.read(line.length() + 1);
+        return parseOrReject(line, tally, quarantine);
+    }
+
+    /**
+     * Parse a single line, with the same rules as {@link #parseLines}.
+     *
+     * @return The cookie of the line, or an invalid one holding the line if it's malformed
+     */
+    static CookieInfo parseInfo(CharSequence line) {
+        if (line == null) {
+            return null;
+        }
+        var info = parseOrReject(line, new IngestMetrics.Tally(), Quarantine.DISCARD);
+        return info == MALFORMED ? CookieInfo.createInvalid(line.toString()) : info;
+    }
+
+    /**
+     * Parse a single line the way the line at a time ingestion does: a malformed line is tallied by its reason and sent
+     * to the quarantine right away, which is why the (shared) {@link #MALFORMED} cookie is all that's returned for it.
+     * Nothing throws for a malformed line, so a bad run of them costs about as much as parsing good ones.
+     */
+    static CookieInfo parseOrReject(CharSequence line, IngestMetrics.Tally tally, Quarantine quarantine) {
+        // Mirrors the semantics of `line.split(",")` (trailing empty fields are dropped) without going through the
+        // regex machinery or creating intermediate Strings.
+        var end = line.length();
+        while (end > 0 && line.charAt(end - 1) == ',') {
+            --end;
+        }
+        var comma = indexOfComma(line, 0, end);
+        MalformedReason malformed = null;
+        var epochSecond = TimestampParser.INVALID;
+        if (comma < 0) {
+            malformed = MalformedReason.MISSING_TIMESTAMP;
+        } else if (indexOfComma(line, comma + 1, end) >= 0) {
+            malformed = MalformedReason.EXTRA_FIELDS;
+        } else if (isBlank(line, comma)) {
+            malformed = MalformedReason.BLANK_COOKIE;
+        } else {
+            epochSecond = TimestampParser.parseEpochSecond(line, comma + 1, end);
+            if (epochSecond == TimestampParser.INVALID) {
+                malformed = MalformedReason.BAD_TIMESTAMP;
+            }
+        }
+        if (malformed != null) {
+            tally.malformed(malformed);
+            quarantine.reject(malformed, line);
+            return MALFORMED;
+        }
+        // The timestamp in the log file is an offset datetime which gets normalized to UTC timezone so that
+        // CookieInfo always deals with UTC as opposed to different timezones.
+        return new CookieInfo(line.subSequence(0, comma).toString(),
+                ZonedDateTime.ofInstant(Instant.ofEpochSecond(epochSecond), ZoneOffset.UTC));
+    }
 
-        var parts = line.split(",");
-        if (parts.length != 2) {
-            return CookieInfo.createInvalid(line);
+    /**
+     * Parse the lines in data[from, to) into the batch until it's full or a cookie older than the cutoff day shows up.
+     * A line which doesn't end with a newline is only parsed if it's the last line of the data (endOfData), otherwise
+     * it's left for the next call once more data has been read. The rules are the same as for {@link #parseInfo}.
+     *
+     * The lines are never searched byte by byte: the {@link DelimiterScanner} finds all the newlines and commas up front,
+     * many bytes at a time, and the lines are cut along those positions.
+     *
+     * @return The offset of the first line which wasn't parsed
+     */
+    static int parseLines(byte[] data, int from, int to, boolean endOfData, long cutoffEpochDay, CookieBatch batch) {
+        var delimiters = batch.delimiters();
+        var count = 0;
+        var next = 0;
+        // Everything before this offset has been scanned, and delimiters[next, count) are still to be looked at
+        var scanned = from;
+        var pos = from;
+        while (pos < to && !batch.isFull()) {
+            var newline = -1;
+            var firstComma = -1;
+            var secondComma = -1;
+            while (newline < 0) {
+                if (next == count) {
+                    if (scanned >= to) {
+                        break;
+                    }
+                    count = SCANNER.scan(data, scanned, to, delimiters);
+                    next = 0;
+                    scanned = count == delimiters.length ? delimiters[count - 1] + 1 : to;
+                    continue;
+                }
+                var delimiter = delimiters[next++];
+                if (data[delimiter] == '\n') {
+                    newline = delimiter;
+                } else if (firstComma < 0) {
+                    firstComma = delimiter;
+                } else if (secondComma < 0) {
+                    secondComma = delimiter;
+                }
+            }
+            if (newline < 0 && !endOfData) {
+                break;
+            }
+            var lineEnd = newline < 0 ? to : newline;
+            if (lineEnd > pos && data[lineEnd - 1] == '\r') {
+                --lineEnd;
+            }
+            // Trailing empty fields are dropped, so any commas at or after the end don't count
+            var end = lineEnd;
+            while (end > pos && data[end - 1] == ',') {
+                --end;
+            }
+            MalformedReason malformed = null;
+            var epochSecond = TimestampParser.INVALID;
+            if (firstComma < 0 || firstComma >= end) {
+                malformed = MalformedReason.MISSING_TIMESTAMP;
+            } else if (secondComma >= 0 && secondComma < end) {
+                malformed = MalformedReason.EXTRA_FIELDS;
+            } else if (isBlank(data, pos, firstComma)) {
+                malformed = MalformedReason.BLANK_COOKIE;
+            } else {
+                epochSecond = TimestampParser.parseEpochSecond(data, firstComma + 1, end);
+                if (epochSecond == TimestampParser.INVALID) {
+                    malformed = MalformedReason.BAD_TIMESTAMP;
+                }
+            }
+            if (malformed != null) {
+                batch.addInvalid(pos, lineEnd - pos, malformed);
+            } else {
+                var epochDay = TimestampParser.epochDayOf(epochSecond);
+                if (epochDay < cutoffEpochDay) {
+                    batch.cutoffReached();
+                    return pos;
+                }
+                batch.addValid(pos, firstComma - pos, (int) epochDay);
+            }
+            pos = newline < 0 ? to : newline + 1;
         }
+        return pos;
+    }
 
-        if (parts[0].isBlank()) {
-            return CookieInfo.createInvalid(line);
+    private static boolean isBlank(byte[] data, int from, int to) {
+        for (int i = from; i < to; ++i) {
+            if (data[i] < 0) {
+                // Not ASCII, which could still be (unicode) whitespace
+                return new String(data, from, to - from, StandardCharsets.UTF_8).isBlank();
+            }
+            if (!Character.isWhitespace(data[i])) {
+                return false;
+            }
         }
+        return true;
+    }
 
-        try {
-            return new CookieInfo(parts[0], parseDate(parts[1]));
-        } catch (Exception e) {
-            log.debug("Failed to parse the date in line {}, creating an invalid cookie", line);
-            return CookieInfo.createInvalid(line);
+    /** Whether line[0, to) is blank; no whitespace is a supplementary character, so it can be checked char by char */
+    private static boolean isBlank(CharSequence line, int to) {
+        for (int i = 0; i < to; ++i) {
+            if (!Character.isWhitespace(line.charAt(i))) {
+                return false;
+            }
         }
+        return true;
     }
 
-    private ZonedDateTime parseDate(String dateString) {
-        // Parse the timestamp in the log file as an offset datetime and then normalize it to UTC timezone so that
-        // CookieInfo always deals with UTC as opposed to different timezones.
-        return ZonedDateTime.parse(dateString, DateTimeFormatter.ISO_OFFSET_DATE_TIME).withZoneSameInstant(ZoneOffset.UTC);
+    private static int indexOfComma(CharSequence line, int from, int to) {
+        for (int i = from; i < to; ++i) {
+            if (line.charAt(i) == ',') {
+                return i;
+            }
+        }
+        return -1;
     }
 
 }
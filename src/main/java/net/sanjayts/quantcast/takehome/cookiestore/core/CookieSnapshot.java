@@ -0,0 +1,582 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import lombok.extern.slf4j.Slf4j;
+import net.sanjayts.quantcast.takehome.cookiestore.exceptions.SnapshotException;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A compact, read-only file of pre-aggregated daily cookie counts. A snapshot is meant to be written once per log file
+ * (e.g. for every hourly log, see {@link #write}) and merged with others into bigger ones (e.g. a daily or weekly one,
+ * see {@link #merge}), which are then queried straight from the memory mapped file without loading it into the heap.
+ *
+ * Every day is stored as two columns with an entry per cookie, both in the byte order of the cookie names:
+ * <ul>
+ *     <li>the names, front coded: the length of the prefix shared with the previous name, the length of the rest and
+ *     the UTF-8 bytes of the rest</li>
+ *     <li>the counts as varints (7 bits per byte), i.e. a single byte for the many cookies seen less than 128 times</li>
+ * </ul>
+ * Since the names are sorted, snapshots are merged day by day with a streaming k-way merge which adds up the counts of
+ * a cookie where all its entries meet, holding nothing but the counts column of the day being written in memory. The
+ * most active cookies of a day only take a pass over its counts column (the highest count is kept in the directory)
+ * and the names up to the last cookie with that count.
+ *
+ * The layout of the file (fixed size numbers big endian) is:
+ * <pre>
+ * header:    magic, version, day count, directory offset
+ * days:      per day, the names column followed by the counts column
+ * directory: per day, (epoch day, names offset, names length, counts length, cookie count, max count) by epoch day
+ * </pre>
+ */
+@Slf4j
+public class CookieSnapshot implements Closeable {
+
+    private static final int MAGIC = 0x434B534E; // "CKSN"
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 8;
+
+    private static final int DAY_COUNT_POSITION = 8;
+
+    private static final int DIRECTORY_ENTRY_SIZE = 8 + 8 + 8 + 8 + 4 + 4;
+
+    private final Path file;
+
+    private final FileChannel channel;
+
+    private final SortedMap<Long, Day> days;
+
+    private CookieSnapshot(Path file, FileChannel channel, SortedMap<Long, Day> days) {
+        this.file = file;
+        this.channel = channel;
+        this.days = days;
+    }
+
+    /**
+     * Whether the given file is a snapshot as opposed to a log file. Only regular files are looked at, so that
+     * checking a pipe doesn't eat into its data.
+     */
+    public static boolean isSnapshot(Path path) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            return false;
+        }
+        try (var in = new DataInputStream(Files.newInputStream(path))) {
+            return in.readInt() == MAGIC;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Open the given snapshot, which maps in nothing but its directory until it's queried.
+     */
+    public static CookieSnapshot open(Path file) {
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException("The file is too short to be a snapshot");
+            }
+            var header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("The file isn't a snapshot of a known version");
+            }
+            var dayCount = header.getInt();
+            var directoryOffset = header.getLong();
+            var directoryLength = (long) dayCount * DIRECTORY_ENTRY_SIZE;
+            if (dayCount < 0 || directoryOffset < HEADER_SIZE || directoryOffset + directoryLength > channel.size()) {
+                throw new IOException("The snapshot is truncated");
+            }
+            var directory = channel.map(FileChannel.MapMode.READ_ONLY, directoryOffset, directoryLength);
+            var days = new TreeMap<Long, Day>();
+            for (int i = 0; i < dayCount; ++i) {
+                days.put(directory.getLong(), new Day(directory.getLong(), directory.getLong(), directory.getLong(),
+                        directory.getInt(), directory.getInt()));
+            }
+            return new CookieSnapshot(file, channel, days);
+        } catch (IOException e) {
+            closeQuietly(channel);
+            String msg = String.format("Failed to open the snapshot %s -- %s", file, e.getMessage());
+            throw new SnapshotException(msg, e);
+        }
+    }
+
+    /**
+     * Write the counts the store holds for the given dates as a new snapshot, replacing the file if it exists. The store
+     * is expected to hold the complete counts of those dates; dates without any cookies are left out.
+     */
+    public static void write(Path file, CookieDataStore store, Collection<LocalDate> dates) {
+        var sortedDates = new TreeSet<>(dates);
+        var written = writeAtomically(file, writer -> {
+            for (var date : sortedDates) {
+                writer.startDay(date.toEpochDay());
+                store.forEachInNameOrder(date, (name, count) -> writer.add(name, name.length, count));
+                writer.endDay();
+            }
+        });
+        log.debug("Wrote the snapshot {} with {} dates", file, written);
+    }
+
+    /**
+     * Merge the given snapshots into a new one holding the total counts of every day any of them has, replacing the
+     * output file if it exists. The merge streams through the inputs one day at a time, so it takes about as much heap
+     * for a thousand hourly snapshots as for two.
+     */
+    public static void merge(List<Path> inputs, Path output) {
+        var snapshots = new ArrayList<CookieSnapshot>();
+        try {
+            var epochDays = new TreeSet<Long>();
+            for (var input : inputs) {
+                var snapshot = open(input);
+                snapshots.add(snapshot);
+                epochDays.addAll(snapshot.days.keySet());
+            }
+            var written = writeAtomically(output, writer -> {
+                for (var epochDay : epochDays) {
+                    writer.startDay(epochDay);
+                    forEachMerged(snapshots, epochDay, writer::add);
+                    writer.endDay();
+                }
+            });
+            log.debug("Merged {} snapshots with {} dates into {}", inputs.size(), written, output);
+        } finally {
+            snapshots.forEach(CookieSnapshot::close);
+        }
+    }
+
+    /**
+     * The most active cookies of each of the given dates across all the given snapshots, adding up the counts of a
+     * cookie found in several of them just like {@link #merge} does, but without writing the merged snapshot.
+     */
+    public static SortedMap<LocalDate, SortedSet<String>> mostActiveFor(List<CookieSnapshot> snapshots,
+                                                                        Collection<LocalDate> dates) {
+        var result = new TreeMap<LocalDate, SortedSet<String>>();
+        for (var date : dates) {
+            var epochDay = date.toEpochDay();
+            var holders = snapshots.stream().filter(snapshot -> snapshot.days.containsKey(epochDay)).toList();
+            if (holders.size() == 1) {
+                result.put(date, new TreeSet<>(holders.get(0).mostActiveFor(date)));
+                continue;
+            }
+            var leaders = new TreeSet<String>();
+            var maxCount = new int[1];
+            forEachMerged(holders, epochDay, (name, length, count) -> {
+                if (count > maxCount[0]) {
+                    maxCount[0] = count;
+                    leaders.clear();
+                }
+                if (count == maxCount[0]) {
+                    leaders.add(new String(name, 0, length, StandardCharsets.UTF_8));
+                }
+            });
+            result.put(date, leaders);
+        }
+        return result;
+    }
+
+    /**
+     * @return The dates this snapshot has counts for
+     */
+    public SortedSet<LocalDate> dates() {
+        var dates = new TreeSet<LocalDate>();
+        days.keySet().forEach(epochDay -> dates.add(LocalDate.ofEpochDay(epochDay)));
+        return dates;
+    }
+
+    /**
+     * @return The number of distinct cookies seen on the given date
+     */
+    public int uniqueCookies(LocalDate date) {
+        var day = days.get(date.toEpochDay());
+        return day == null ? 0 : day.cookies();
+    }
+
+    /**
+     * Retrieves the most active cookies for a given date
+     *
+     * @return The set of most active cookies; empty set if no eligible cookies exist.
+     */
+    public Set<String> mostActiveFor(LocalDate date) {
+        var leaders = new HashSet<String>();
+        var day = days.get(date.toEpochDay());
+        if (day == null) {
+            return leaders;
+        }
+        var cursor = cursorOf(day);
+        // The counts column alone tells how many leaders there are, so the names are only walked up to the last one
+        var counts = cursor.counts.duplicate();
+        var leadersLeft = 0;
+        for (int i = 0; i < day.cookies(); ++i) {
+            if (readVarint(counts) == day.maxCount()) {
+                ++leadersLeft;
+            }
+        }
+        while (leadersLeft > 0 && cursor.advance()) {
+            if (cursor.count() == day.maxCount()) {
+                leaders.add(cursor.decodeName());
+                --leadersLeft;
+            }
+        }
+        return leaders;
+    }
+
+    /**
+     * Retrieves the most active cookies for each of the given dates, see {@link CookieStore#mostActiveFor(Collection)}
+     */
+    public SortedMap<LocalDate, SortedSet<String>> mostActiveFor(Collection<LocalDate> dates) {
+        return mostActiveFor(List.of(this), dates);
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            String msg = String.format("Unexpected error encountered when closing the snapshot %s -- %s", file, e.getMessage());
+            throw new SnapshotException(msg, e);
+        }
+    }
+
+    private DayCursor cursorOf(Day day) {
+        var length = day.namesLength() + day.countsLength();
+        if (length > Integer.MAX_VALUE) {
+            throw new SnapshotException("A day of the snapshot %s is too big to be mapped".formatted(file), null);
+        }
+        try {
+            var block = channel.map(FileChannel.MapMode.READ_ONLY, day.namesOffset(), length);
+            return new DayCursor(block, day);
+        } catch (IOException e) {
+            String msg = String.format("Unexpected error encountered when reading the snapshot %s -- %s", file, e.getMessage());
+            throw new SnapshotException(msg, e);
+        }
+    }
+
+    /**
+     * Feed the total count of every cookie the given snapshots have for the day to the consumer, in name order, by
+     * k-way merging their cursors. The name array is reused, so it's only valid during the call.
+     */
+    private static void forEachMerged(List<CookieSnapshot> snapshots, long epochDay, MergedConsumer consumer) {
+        var heap = new PriorityQueue<DayCursor>(Math.max(1, snapshots.size()), DayCursor::compareNames);
+        for (var snapshot : snapshots) {
+            var day = snapshot.days.get(epochDay);
+            if (day != null) {
+                var cursor = snapshot.cursorOf(day);
+                if (cursor.advance()) {
+                    heap.add(cursor);
+                }
+            }
+        }
+        var name = new byte[64];
+        while (!heap.isEmpty()) {
+            var cursor = heap.poll();
+            var length = cursor.length;
+            if (name.length < length) {
+                name = new byte[Math.max(length, name.length * 2)];
+            }
+            System.arraycopy(cursor.name, 0, name, 0, length);
+            var count = cursor.count();
+            if (cursor.advance()) {
+                heap.add(cursor);
+            }
+            while (!heap.isEmpty() && heap.peek().hasName(name, length)) {
+                var same = heap.poll();
+                count += same.count();
+                if (same.advance()) {
+                    heap.add(same);
+                }
+            }
+            consumer.accept(name, length, count);
+        }
+    }
+
+    /**
+     * Write a snapshot into a temporary file next to the given one and move it in place once complete, so that a
+     * failure (or a concurrent reader) never sees half a snapshot.
+     *
+     * @return The number of days written
+     */
+    private static int writeAtomically(Path file, DayWriting writing) {
+        Path tempFile = null;
+        try {
+            var dir = file.toAbsolutePath().getParent();
+            if (dir == null) {
+                throw new IOException("Cannot determine the directory of the snapshot");
+            }
+            tempFile = Files.createTempFile(dir, String.valueOf(file.getFileName()), ".tmp");
+            DayWriter writer;
+            long directoryOffset;
+            try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(0); // The day count and directory offset, filled in once we know them
+                out.writeLong(0);
+                writer = new DayWriter(out);
+                writing.writeDays(writer);
+                directoryOffset = writer.finish();
+            }
+            try (var channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                var patch = ByteBuffer.allocate(4 + 8).putInt(0, writer.dayCount()).putLong(4, directoryOffset);
+                channel.write(patch, DAY_COUNT_POSITION);
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return writer.dayCount();
+        } catch (IOException | UncheckedIOException e) {
+            deleteQuietly(tempFile);
+            String msg = String.format("Unexpected error encountered when writing the snapshot %s -- %s", file, e.getMessage());
+            throw new SnapshotException(msg, e);
+        }
+    }
+
+    private static int readVarint(ByteBuffer buffer) {
+        var value = 0;
+        for (int shift = 0; ; shift += 7) {
+            var b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            log.debug("Failed to close the snapshot -- {}", e.getMessage());
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            if (file != null) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            log.debug("Failed to delete the temporary snapshot file {} -- {}", file, e.getMessage());
+        }
+    }
+
+    /** Receives the name (the first `length` bytes of the array) and the total count of every cookie of a day */
+    @FunctionalInterface
+    private interface MergedConsumer {
+        void accept(byte[] name, int length, int count);
+    }
+
+    /** Writes the days of a snapshot, in ascending order */
+    @FunctionalInterface
+    private interface DayWriting {
+        void writeDays(DayWriter writer) throws IOException;
+    }
+
+    /** Where a single day's columns live in the file */
+    private record Day(long namesOffset, long namesLength, long countsLength, int cookies, int maxCount) {}
+
+    /** Writes the columns of one day after another, followed by the directory */
+    private static final class DayWriter {
+
+        private final DataOutputStream out;
+
+        private final List<Long> epochDays = new ArrayList<>();
+
+        private final List<Day> days = new ArrayList<>();
+
+        /** DataOutputStream only counts the bytes written as an int, hence we track the position ourselves */
+        private long position = HEADER_SIZE;
+
+        private long epochDay;
+
+        private long namesOffset;
+
+        private int cookies;
+
+        private int maxCount;
+
+        private byte[] previous = new byte[64];
+
+        private int previousLength;
+
+        /** The counts column of the current day, which can only be written once all the names are */
+        private byte[] counts = new byte[1024];
+
+        private int countsLength;
+
+        DayWriter(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void startDay(long epochDay) {
+            this.epochDay = epochDay;
+            namesOffset = position;
+            cookies = 0;
+            maxCount = 0;
+            previousLength = 0;
+            countsLength = 0;
+        }
+
+        /** Add the next cookie of the day, which must come after the previous one in name order */
+        void add(byte[] name, int length, int count) {
+            if (count <= 0) {
+                throw new IllegalArgumentException("Only cookies which were seen can be written, got a count of %d".formatted(count));
+            }
+            if (cookies > 0 && Arrays.compareUnsigned(previous, 0, previousLength, name, 0, length) >= 0) {
+                throw new IllegalStateException("The cookies of a day have to be written in name order");
+            }
+            var shared = Math.max(0, Arrays.mismatch(previous, 0, previousLength, name, 0, length));
+            try {
+                position += writeVarint(shared);
+                position += writeVarint(length - shared);
+                out.write(name, shared, length - shared);
+                position += length - shared;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (previous.length < length) {
+                previous = new byte[Math.max(length, previous.length * 2)];
+            }
+            System.arraycopy(name, shared, previous, shared, length - shared);
+            previousLength = length;
+            appendCount(count);
+            ++cookies;
+            maxCount = Math.max(maxCount, count);
+        }
+
+        void endDay() throws IOException {
+            if (cookies == 0) {
+                return;
+            }
+            var namesLength = position - namesOffset;
+            out.write(counts, 0, countsLength);
+            position += countsLength;
+            epochDays.add(epochDay);
+            days.add(new Day(namesOffset, namesLength, countsLength, cookies, maxCount));
+        }
+
+        /**
+         * Write the directory
+         *
+         * @return The offset of the directory
+         */
+        long finish() throws IOException {
+            for (int i = 0; i < days.size(); ++i) {
+                var day = days.get(i);
+                out.writeLong(epochDays.get(i));
+                out.writeLong(day.namesOffset());
+                out.writeLong(day.namesLength());
+                out.writeLong(day.countsLength());
+                out.writeInt(day.cookies());
+                out.writeInt(day.maxCount());
+            }
+            return position;
+        }
+
+        int dayCount() {
+            return days.size();
+        }
+
+        private int writeVarint(int value) throws IOException {
+            var bytes = 1;
+            for (; (value & ~0x7F) != 0; value >>>= 7) {
+                out.write((value & 0x7F) | 0x80);
+                ++bytes;
+            }
+            out.write(value);
+            return bytes;
+        }
+
+        private void appendCount(int value) {
+            if (countsLength + 5 > counts.length) {
+                counts = Arrays.copyOf(counts, counts.length * 2);
+            }
+            for (; (value & ~0x7F) != 0; value >>>= 7) {
+                counts[countsLength++] = (byte) ((value & 0x7F) | 0x80);
+            }
+            counts[countsLength++] = (byte) value;
+        }
+
+    }
+
+    /** Walks the cookies of a day in name order, decoding the front coded names into a reused array */
+    private static final class DayCursor {
+
+        private final ByteBuffer names;
+
+        private final ByteBuffer counts;
+
+        private int remaining;
+
+        private byte[] name = new byte[64];
+
+        private int length;
+
+        private int count;
+
+        DayCursor(ByteBuffer block, Day day) {
+            names = block.slice(0, (int) day.namesLength());
+            counts = block.slice((int) day.namesLength(), (int) day.countsLength());
+            remaining = day.cookies();
+        }
+
+        /** Move to the next cookie, returning false if there is none */
+        boolean advance() {
+            if (remaining == 0) {
+                return false;
+            }
+            --remaining;
+            var shared = readVarint(names);
+            var rest = readVarint(names);
+            length = shared + rest;
+            if (name.length < length) {
+                name = Arrays.copyOf(name, Math.max(length, name.length * 2));
+            }
+            names.get(name, shared, rest);
+            count = readVarint(counts);
+            return true;
+        }
+
+        int count() {
+            return count;
+        }
+
+        String decodeName() {
+            return new String(name, 0, length, StandardCharsets.UTF_8);
+        }
+
+        boolean hasName(byte[] other, int otherLength) {
+            return Arrays.equals(name, 0, length, other, 0, otherLength);
+        }
+
+        static int compareNames(DayCursor a, DayCursor b) {
+            return Arrays.compareUnsigned(a.name, 0, a.length, b.name, 0, b.length);
+        }
+
+    }
+
+}
@@ -19,6 +19,14 @@ public class CookieSource implements Closeable {
         this.bufReader = reader;
     }
 
+    /**
+     * For sources which don't read their data through a Reader (e.g. {@link MappedCookieSource} and
+     * {@link StreamCookieSource}). Such sources are expected to override both {@link #nextLine()} and {@link #close()}.
+     */
+    protected CookieSource() {
+        this.bufReader = null;
+    }
+
     /**
      * Retrieve the next line of data from our cookie source.
      *
@@ -33,6 +41,25 @@ public class CookieSource implements Closeable {
         }
     }
 
+    /**
+     * Whether the raw bytes of this source can be read with {@link #read(byte[], int, int)}, which lets the source be
+     * parsed in batches straight from the bytes (see {@link CookieParser#nextBatch(CookieBatch)}). A reader based
+     * source only has the chars it decoded the bytes into.
+     */
+    public boolean isByteSource() {
+        return false;
+    }
+
+    /**
+     * Copy the next bytes of data into the given array, regardless of line boundaries, picking up right after the last
+     * line returned by {@link #nextLine()}.
+     *
+     * @return The number of bytes copied, or -1 if we have run out of data
+     * @throws UnsupportedOperationException If this isn't a {@link #isByteSource()}
+     */
+    public int read(byte[] dst, int offset, int length) {
+        throw new UnsupportedOperationException("A reader based cookie source can only be read line by line");
+    }
 
     @Override
     public void close() {
@@ -0,0 +1,112 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import net.sanjayts.quantcast.takehome.cookiestore.model.CookieCount;
+import net.sanjayts.quantcast.takehome.cookiestore.model.CookieInfo;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A store of the per-day cookie counts which the runners feed the parsed cookies into and which answers the queries.
+ * {@link CookieDataStore} keeps exact counts, {@link ApproximateCookieStore} trades accuracy for bounded memory.
+ */
+public interface CookieStore {
+
+    /**
+     * Adds a cookie to the store.
+     *
+     * @param info The cookie info to be added.
+     */
+    void addCookie(CookieInfo info);
+
+    /**
+     * Adds a single hit of a cookie which has already been taken apart into its name and (UTC) epoch day, which spares
+     * callers holding compact records the creation of a {@link CookieInfo} per hit.
+     *
+     * @param name The cookie name
+     * @param epochDay The day the cookie was seen on, as days since the epoch
+     */
+    void addCookie(String name, long epochDay);
+
+    /**
+     * Adds all the valid rows of a parsed batch. Stores which can count the names as bytes are expected to override
+     * this, the default decodes every name.
+     */
+    default void addCookies(CookieBatch batch) {
+        for (int row = 0; row < batch.size(); ++row) {
+            if (batch.isValid(row)) {
+                addCookie(batch.name(row), batch.epochDay(row));
+            }
+        }
+    }
+
+    /**
+     * Retrieves the most active cookies for a given date
+     *
+     * @param date The date for which the cookies should be returned
+     * @return The set of most active cookies; empty set if no eligible cookies exist.
+     */
+    Set<String> mostActiveFor(LocalDate date);
+
+    /**
+     * Retrieves the most active cookies for each of the given dates. The result is keyed by date and the cookies for
+     * each date are sorted so that the output stays deterministic.
+     *
+     * @param dates The dates for which the cookies should be returned
+     * @return The most active cookies for every requested date in date order; dates without any eligible cookies are
+     * mapped to an empty set.
+     */
+    default SortedMap<LocalDate, SortedSet<String>> mostActiveFor(Collection<LocalDate> dates) {
+        var result = new TreeMap<LocalDate, SortedSet<String>>();
+        dates.forEach(date -> result.put(date, new TreeSet<>(mostActiveFor(date))));
+        return result;
+    }
+
+    /**
+     * Retrieves the K most active cookies for a given date, ordered by their hit count (highest first). Cookies with the
+     * same count are ordered by name, which also decides which of the tied cookies make it into the result.
+     *
+     * @param date The date for which the cookies should be returned
+     * @param k The max number of cookies to be returned
+     * @return The most active cookies; empty list if no eligible cookies exist.
+     */
+    List<CookieCount> topK(LocalDate date, int k);
+
+    /**
+     * Retrieves the number of times the given cookie was seen on the given date.
+     */
+    int countOf(LocalDate date, String cookie);
+
+    /**
+     * Retrieves the number of distinct cookies seen on the given date. Stores which don't keep an exact count of them
+     * are expected to override this, the default goes through all the cookies of the day.
+     */
+    default int uniqueCookies(LocalDate date) {
+        return topK(date, Integer.MAX_VALUE).size();
+    }
+
+    /**
+     * Retrieves all the dates for which this store has seen at least one cookie, in ascending order.
+     */
+    SortedSet<LocalDate> dates();
+
+    /**
+     * Merge all the cookie counts from another store of the same kind into this store. The other store is left
+     * untouched.
+     *
+     * @param other The store whose counts should be added to this store
+     */
+    void merge(CookieStore other);
+
+    /**
+     * @return A new empty store configured like this one, e.g. for collecting partial results which get merged back
+     */
+    CookieStore createEmpty();
+
+}
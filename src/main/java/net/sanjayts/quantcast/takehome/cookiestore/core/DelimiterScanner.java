@@ -0,0 +1,157 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Optional;
+
+/**
+ * Finds the positions of all the newlines and commas in a run of bytes, which is the first thing done to every byte
+ * the batch parser sees (see {@link CookieParser#parseLines}). Instead of looking at one byte at a time, the bytes are
+ * compared many at once and the matches are read off a bit mask:
+ * <ul>
+ *     <li>`VectorDelimiterScanner` uses the Vector API to compare 16 to 64 bytes per instruction, depending on the
+ *     widest SIMD registers of the CPU. The API is an incubator module on JDK 17, which the compiler warns about and
+ *     which has to be added to the JVM explicitly (`--add-modules jdk.incubator.vector`), hence the scanner is only
+ *     compiled with the `vector` build profile (from src/vector/java) and only used if the module is there</li>
+ *     <li>{@link Swar} (SIMD within a register) compares 8 bytes at a time using plain long arithmetic, which works
+ *     everywhere and is the fallback</li>
+ * </ul>
+ * The system property `cookiestore.vector=false` forces the fallback.
+ */
+@Slf4j
+abstract class DelimiterScanner {
+
+    static final String VECTOR_MODULE = "jdk.incubator.vector";
+
+    private static final String VECTOR_SCANNER = DelimiterScanner.class.getPackageName() + ".VectorDelimiterScanner";
+
+    /**
+     * @return The fastest scanner available in this JVM
+     */
+    static DelimiterScanner best() {
+        return Best.SCANNER;
+    }
+
+    /**
+     * Write the positions of the newlines and commas in data[from, to) into the given array, in order. If there are
+     * more delimiters than fit into the array, the scan stops once it's full and can be resumed right after the last
+     * position written.
+     *
+     * @return The number of positions written
+     */
+    abstract int scan(byte[] data, int from, int to, int[] positions);
+
+    /** A short name for logging */
+    abstract String name();
+
+    static boolean isDelimiter(byte b) {
+        return b == '\n' || b == ',';
+    }
+
+    /** The byte at a time scan, for the bytes which don't fill a whole word or vector */
+    static int scanBytes(byte[] data, int from, int to, int[] positions, int count) {
+        var n = count;
+        for (int i = from; i < to && n < positions.length; ++i) {
+            if (isDelimiter(data[i])) {
+                positions[n++] = i;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return The Vector API scanner, if it was compiled in, the module was added to the JVM and the CPU has SIMD
+     * registers
+     */
+    static Optional<DelimiterScanner> vector() {
+        if (ModuleLayer.boot().findModule(VECTOR_MODULE).isEmpty()) {
+            log.debug("The {} module isn't available", VECTOR_MODULE);
+            return Optional.empty();
+        }
+        try {
+            // Loaded reflectively since it's only there when built with the vector profile
+            var type = Class.forName(VECTOR_SCANNER).asSubclass(DelimiterScanner.class);
+            if (!(Boolean) type.getDeclaredMethod("isSupported").invoke(null)) {
+                log.debug("The CPU has no SIMD registers for the Vector API to use");
+                return Optional.empty();
+            }
+            return Optional.of(type.getDeclaredConstructor().newInstance());
+        } catch (ClassNotFoundException e) {
+            log.debug("The vector scanner isn't part of this build, see the vector build profile");
+        } catch (ReflectiveOperationException | LinkageError e) {
+            log.debug("Failed to load the vector scanner -- {}", e.getMessage());
+        }
+        return Optional.empty();
+    }
+
+    private static DelimiterScanner pickBest() {
+        if (!Boolean.parseBoolean(System.getProperty("cookiestore.vector", "true"))) {
+            return new Swar();
+        }
+        var vector = vector();
+        if (vector.isPresent()) {
+            log.debug("Scanning for delimiters using {}", vector.get().name());
+            return vector.get();
+        }
+        log.debug("Scanning for delimiters 8 bytes at a time");
+        return new Swar();
+    }
+
+    /**
+     * Holds the pick, so that it isn't made while this class is initialized: loading a subclass initializes this class
+     * first, and the pick can't create a subclass instance which isn't initialized yet itself.
+     */
+    private static final class Best {
+
+        static final DelimiterScanner SCANNER = pickBest();
+    }
+
+    /** Compares 8 bytes at a time, each long being read in one go from the byte array */
+    static final class Swar extends DelimiterScanner {
+
+        private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+        private static final long NEWLINES = 0x0A0A0A0A0A0A0A0AL;
+
+        private static final long COMMAS = 0x2C2C2C2C2C2C2C2CL;
+
+        private static final long LOW_SEVEN_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+        @Override
+        int scan(byte[] data, int from, int to, int[] positions) {
+            var n = 0;
+            var i = from;
+            for (; i + Long.BYTES <= to; i += Long.BYTES) {
+                var word = (long) LONGS.get(data, i);
+                var matches = zeroBytes(word ^ NEWLINES) | zeroBytes(word ^ COMMAS);
+                while (matches != 0) {
+                    if (n == positions.length) {
+                        return n;
+                    }
+                    // Little endian, so the lowest byte of the word is the first one
+                    positions[n++] = i + (Long.numberOfTrailingZeros(matches) >>> 3);
+                    matches &= matches - 1;
+                }
+            }
+            return scanBytes(data, i, to, positions, n);
+        }
+
+        @Override
+        String name() {
+            return "SWAR (8 bytes)";
+        }
+
+        /**
+         * @return A word with the high bit set in exactly the bytes which are zero in the given word; unlike the
+         * shorter `(x - 0x01..) & ~x & 0x80..`, this doesn't flag any bytes next to a zero byte
+         */
+        private static long zeroBytes(long x) {
+            var t = (x & LOW_SEVEN_BITS) + LOW_SEVEN_BITS;
+            return ~(t | x | LOW_SEVEN_BITS);
+        }
+    }
+
+}
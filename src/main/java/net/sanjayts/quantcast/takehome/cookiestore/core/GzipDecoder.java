@@ -0,0 +1,361 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Streams the decompressed contents of a gzip compressed log file, so that rotated logs can be parsed without being
+ * decompressed to disk first.
+ *
+ * The decompression runs on a background thread which hands the decompressed data over in chunks through a bounded
+ * queue, so that it overlaps with the parsing on the calling thread while never running more than a few chunks ahead.
+ * Files in the BGZF flavour of gzip (as written by bgzip) consist of independent members of at most 64KB which record
+ * their own compressed size, which lets the background thread cut the file into members without decompressing it and
+ * inflate them in parallel; the queue then holds the pending members in file order. Any other gzip file (including
+ * plain multi-member ones, whose member boundaries can't be found without inflating them) is decompressed on the single
+ * background thread.
+ *
+ * Only gzip is supported: formats like zstd would need a third-party library, which this project avoids.
+ */
+@Slf4j
+public final class GzipDecoder extends InputStream {
+
+    private static final int GZIP_MAGIC = 0x1F8B;
+
+    private static final int FEXTRA = 4;
+
+    private static final int CHUNK_SIZE = 256 * 1024;
+
+    /** A BGZF member never holds more than this much uncompressed data */
+    private static final int MAX_BGZF_BLOCK_SIZE = 64 * 1024;
+
+    /** Marks the end of the decompressed data in the queue */
+    private static final byte[] END = new byte[0];
+
+    private final InputStream compressed;
+
+    /** What is being decompressed, for the logs */
+    private final String name;
+
+    private final BlockingQueue<Future<byte[]>> chunks;
+
+    private final Thread reader;
+
+    private final ExecutorService inflaters;
+
+    private byte[] chunk = new byte[0];
+
+    private int position;
+
+    private boolean done;
+
+    private volatile boolean closed;
+
+    private GzipDecoder(InputStream compressed, String name, int threads) {
+        this.compressed = compressed;
+        this.name = name;
+        this.chunks = new ArrayBlockingQueue<>(Math.max(4, threads * 4));
+        this.inflaters = threads > 1 ? Executors.newFixedThreadPool(threads, daemonThreads("gzip-inflater")) : null;
+        this.reader = daemonThreads("gzip-reader").newThread(this::decompress);
+    }
+
+    /**
+     * @return Whether the given file is a regular file which starts with the gzip magic bytes. Anything else (e.g. a
+     * pipe) isn't looked at, since the bytes read from it would be lost for the parser; see
+     * {@link #openDecompressed(Path, int)} for those.
+     */
+    public static boolean isGzip(Path path) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            return false;
+        }
+        try (var in = new DataInputStream(Files.newInputStream(path))) {
+            return in.readUnsignedShort() == GZIP_MAGIC;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Start decompressing the given gzip file in the background.
+     *
+     * @param threads The number of threads BGZF members are inflated with; other gzip files always use a single thread
+     */
+    public static GzipDecoder open(Path path, int threads) throws IOException {
+        return open(new FileInputStream(path.toFile()), path.toString(), threads);
+    }
+
+    /**
+     * Start decompressing the given gzip stream in the background, which is closed once it has been read.
+     *
+     * @param name What the stream is read from, for the logs
+     */
+    private static GzipDecoder open(InputStream compressed, String name, int threads) {
+        var decoder = new GzipDecoder(compressed, name, threads);
+        decoder.reader.start();
+        return decoder;
+    }
+
+    /**
+     * Open the given file for streaming its contents, decompressed if it starts with the gzip magic bytes. The magic is
+     * checked on the stream being returned, so that this works for pipes, which can't be read twice.
+     *
+     * @param threads The number of threads BGZF members are inflated with, see {@link #open(Path, int)}
+     */
+    public static InputStream openDecompressed(Path path, int threads) throws IOException {
+        // Not Files.newInputStream, whose available() fails on pipes, and both BufferedInputStream and GZIPInputStream
+        // rely on it
+        var buffered = new BufferedInputStream(new FileInputStream(path.toFile()), 1 << 16);
+        buffered.mark(2);
+        var magic = buffered.readNBytes(2);
+        buffered.reset();
+        if (magic.length == 2 && ((magic[0] & 0xFF) << 8 | magic[1] & 0xFF) == GZIP_MAGIC) {
+            log.debug("Decompressing the gzip compressed log file {} while parsing it", path);
+            return open(buffered, path.toString(), threads);
+        }
+        return buffered;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return fill() ? chunk[position++] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        var n = Math.min(len, chunk.length - position);
+        System.arraycopy(chunk, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        reader.interrupt();
+        chunks.forEach(f -> f.cancel(true));
+        chunks.clear();
+        if (inflaters != null) {
+            inflaters.shutdownNow();
+        }
+    }
+
+    /** Make sure the current chunk has data left, taking the next one from the queue if needed */
+    private boolean fill() throws IOException {
+        while (position == chunk.length) {
+            if (done) {
+                return false;
+            }
+            if (closed) {
+                throw new IOException("The gzip decoder was closed");
+            }
+            var next = take();
+            if (next == END) {
+                done = true;
+                return false;
+            }
+            chunk = next;
+            position = 0;
+        }
+        return true;
+    }
+
+    private byte[] take() throws IOException {
+        try {
+            return chunks.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the decompressed data", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException unchecked) {
+                throw unchecked.getCause();
+            }
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        }
+    }
+
+    /** The body of the background thread */
+    private void decompress() {
+        var buffered = compressed instanceof BufferedInputStream b ? b : new BufferedInputStream(compressed, 1 << 16);
+        try (var in = buffered) {
+            in.mark(64);
+            var header = in.readNBytes(16);
+            in.reset();
+            if (inflaters != null && bgzfExtraLength(header) >= 0) {
+                log.debug("Inflating the BGZF members of {} in parallel", name);
+                readMembers(new DataInputStream(in));
+            } else {
+                readSequentially(in);
+            }
+            chunks.put(CompletableFuture.completedFuture(END));
+        } catch (InterruptedException e) {
+            log.debug("Stopped decompressing {}", name);
+        } catch (IOException e) {
+            if (!closed) {
+                offerFailure(e);
+            }
+        } catch (RuntimeException e) {
+            if (!closed) {
+                offerFailure(new IOException("Failed to decompress %s -- %s".formatted(name, e.getMessage()), e));
+            }
+        }
+    }
+
+    private void readSequentially(InputStream compressed) throws IOException, InterruptedException {
+        // GZIPInputStream takes care of concatenated members as well
+        var in = new GZIPInputStream(compressed, 1 << 16);
+        while (!closed) {
+            var data = in.readNBytes(CHUNK_SIZE);
+            if (data.length == 0) {
+                return;
+            }
+            chunks.put(CompletableFuture.completedFuture(data));
+        }
+    }
+
+    /** Cut the file into its BGZF members and queue them up (in file order) for being inflated in parallel */
+    private void readMembers(DataInputStream in) throws IOException, InterruptedException {
+        var fixedHeader = new byte[12];
+        while (!closed) {
+            var n = in.readNBytes(fixedHeader, 0, fixedHeader.length);
+            if (n == 0) {
+                return;
+            }
+            if (n < fixedHeader.length) {
+                throw new EOFException("Truncated BGZF member header");
+            }
+            var extraLength = bgzfExtraLength(fixedHeader);
+            if (extraLength < 0) {
+                throw new IOException("Not a BGZF member, the file mixes BGZF with plain gzip members");
+            }
+            var extra = in.readNBytes(extraLength);
+            // The rest of the member: the deflated data, the CRC32 and the uncompressed size
+            var remaining = blockSize(extra) - fixedHeader.length - extraLength;
+            if (remaining < 8) {
+                throw new IOException("Corrupt BGZF member header, the block size is too small");
+            }
+            var member = in.readNBytes(remaining);
+            if (member.length != remaining) {
+                throw new EOFException("Truncated BGZF member");
+            }
+            chunks.put(CompletableFuture.supplyAsync(() -> inflate(member), inflaters));
+        }
+    }
+
+    private void offerFailure(IOException e) {
+        if (!chunks.offer(CompletableFuture.failedFuture(e))) {
+            // The queue is full, the consumer runs into the failure once it has caught up
+            try {
+                chunks.put(CompletableFuture.failedFuture(e));
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return The XLEN of the header if it's the header of a BGZF member, -1 otherwise
+     */
+    private static int bgzfExtraLength(byte[] header) {
+        if (header.length < 12 || (header[0] & 0xFF) != 0x1F || (header[1] & 0xFF) != 0x8B || header[2] != 8
+                || (header[3] & FEXTRA) == 0) {
+            return -1;
+        }
+        var extraLength = littleEndianShort(header, 10);
+        // The BC subfield is mandatory but not necessarily the first one; a full check happens in blockSize()
+        return extraLength >= 6 ? extraLength : -1;
+    }
+
+    /** The total size of the member, taken from the BC subfield of the extra field */
+    private static int blockSize(byte[] extra) throws IOException {
+        for (int i = 0; i + 4 <= extra.length; ) {
+            var subfieldLength = littleEndianShort(extra, i + 2);
+            if (extra[i] == 'B' && extra[i + 1] == 'C' && subfieldLength == 2 && i + 6 <= extra.length) {
+                return littleEndianShort(extra, i + 4) + 1;
+            }
+            i += 4 + subfieldLength;
+        }
+        throw new IOException("BGZF member without a BC subfield");
+    }
+
+    /** Inflate the deflated data of a member and check it against the CRC32 in its trailer */
+    private static byte[] inflate(byte[] member) {
+        var trailer = member.length - 8;
+        var expectedCrc = Integer.toUnsignedLong(littleEndianInt(member, trailer));
+        var size = littleEndianInt(member, trailer + 4);
+        if (size < 0 || size > MAX_BGZF_BLOCK_SIZE) {
+            // Checked before allocating, so that a corrupt trailer can't have us allocate up to 2GB per member
+            throw new UncheckedIOException(new IOException("Corrupt BGZF member, its size of %d is more than %d bytes"
+                    .formatted(Integer.toUnsignedLong(size), MAX_BGZF_BLOCK_SIZE)));
+        }
+        var inflater = new Inflater(true);
+        try {
+            inflater.setInput(member, 0, trailer);
+            var data = new byte[size];
+            var n = 0;
+            while (n < size && !inflater.finished()) {
+                var inflated = inflater.inflate(data, n, size - n);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += inflated;
+            }
+            var crc = new CRC32();
+            crc.update(data, 0, n);
+            if (n != size || crc.getValue() != expectedCrc) {
+                throw new UncheckedIOException(new IOException("Corrupt BGZF member, its size or CRC32 doesn't match"));
+            }
+            return data;
+        } catch (DataFormatException e) {
+            throw new UncheckedIOException(new IOException("Corrupt BGZF member -- " + e.getMessage(), e));
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static int littleEndianShort(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8;
+    }
+
+    private static int littleEndianInt(byte[] bytes, int offset) {
+        return littleEndianShort(bytes, offset) | littleEndianShort(bytes, offset + 2) << 16;
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        return runnable -> {
+            var thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+}
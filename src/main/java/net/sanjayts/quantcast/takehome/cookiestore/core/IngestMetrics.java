@@ -0,0 +1,448 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What the ingestion has done so far: lines and bytes read, lines parsed, malformed lines by reason, lines skipped for
+ * being older than the cutoff date and the time spent in every stage. Together with the unique cookies per day, which
+ * are taken from the store, this is the data behind `--stats` and `--stats-file`.
+ *
+ * Recording has to stay off the per-line path to be cheap. The parsers tally every batch in plain local counters and
+ * add the totals here once per batch (and the time spent on it to the stage histograms), while the counters here are
+ * {@link LongAdder}s which many parser threads can add to without contending; they are only summed up when a
+ * {@link #snapshot} is taken.
+ *
+ * The runners record into the process wide {@link #global()} metrics unless told otherwise.
+ */
+public final class IngestMetrics {
+
+    private static final IngestMetrics GLOBAL = new IngestMetrics();
+
+    /** The stage histograms have a bucket per power of two nanos, the last one also holding anything longer */
+    private static final int BUCKETS = 48;
+
+    /** The buckets below a microsecond are only exported as part of the first exported bucket */
+    private static final int FIRST_EXPORTED_BUCKET = 10;
+
+    private final long createdNanos = System.nanoTime();
+
+    private final LongAdder linesRead = new LongAdder();
+
+    private final LongAdder bytesRead = new LongAdder();
+
+    private final LongAdder linesParsed = new LongAdder();
+
+    private final LongAdder skippedBeforeCutoff = new LongAdder();
+
+    private final Map<MalformedReason, LongAdder> malformed = new EnumMap<>(MalformedReason.class);
+
+    private final Map<Stage, Timer> timers = new EnumMap<>(Stage.class);
+
+    public IngestMetrics() {
+        for (var reason : MalformedReason.values()) {
+            malformed.put(reason, new LongAdder());
+        }
+        for (var stage : Stage.values()) {
+            timers.put(stage, new Timer());
+        }
+    }
+
+    /**
+     * @return The metrics all the ingestion of this process is recorded into by default
+     */
+    public static IngestMetrics global() {
+        return GLOBAL;
+    }
+
+    /**
+     * @param lines The lines read from the source, malformed ones included
+     * @param bytes Their size in bytes (in chars for sources which are read as text) including the newlines
+     */
+    void read(long lines, long bytes) {
+        linesRead.add(lines);
+        bytesRead.add(bytes);
+    }
+
+    /** Valid cookie lines which were handed over to the store */
+    void parsed(long lines) {
+        linesParsed.add(lines);
+    }
+
+    void malformed(MalformedReason reason, long lines) {
+        if (lines > 0) {
+            malformed.get(reason).add(lines);
+        }
+    }
+
+    /** Valid cookie lines which were dropped for being older than the cutoff date (or no longer retained) */
+    void skipped(long lines) {
+        skippedBeforeCutoff.add(lines);
+    }
+
+    /** The time spent by a stage on a single batch (or a whole stream) */
+    void timed(Stage stage, long nanos) {
+        timers.get(stage).record(nanos);
+    }
+
+    /**
+     * @return The current totals, without any unique cookie counts
+     */
+    public Snapshot snapshot() {
+        return snapshot(null);
+    }
+
+    /**
+     * @param store The store the ingested cookies were counted in, for the unique cookies per day; may be null
+     * @return The current totals
+     */
+    public Snapshot snapshot(CookieStore store) {
+        var malformedCounts = new long[MalformedReason.values().length];
+        malformed.forEach((reason, count) -> malformedCounts[reason.ordinal()] = count.sum());
+        var stages = new StageSnapshot[Stage.values().length];
+        timers.forEach((stage, timer) -> stages[stage.ordinal()] = timer.snapshot(stage));
+        var uniqueCookies = new TreeMap<LocalDate, Integer>();
+        if (store != null) {
+            store.dates().forEach(date -> uniqueCookies.put(date, store.uniqueCookies(date)));
+        }
+        return new Snapshot(System.nanoTime() - createdNanos, linesRead.sum(), bytesRead.sum(), linesParsed.sum(),
+                skippedBeforeCutoff.sum(), malformedCounts, stages, uniqueCookies);
+    }
+
+    /** The stages every line goes through */
+    public enum Stage {
+
+        /** Getting the bytes or lines out of the source */
+        READ,
+
+        /** Taking the lines apart into cookie names and days */
+        PARSE,
+
+        /** Counting the parsed cookies in the store */
+        STORE;
+
+        String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * The totals at a point in time
+     *
+     * @param elapsedNanos  The time since the metrics were created
+     * @param malformed     The malformed lines by reason ordinal
+     * @param stages        By stage ordinal, i.e. in pipeline order
+     * @param uniqueCookies The number of distinct cookies per day in the store, empty if the snapshot was taken without
+     *                      one
+     */
+    public record Snapshot(long elapsedNanos, long linesRead, long bytesRead, long linesParsed, long skippedBeforeCutoff,
+                           long[] malformed, StageSnapshot[] stages, SortedMap<LocalDate, Integer> uniqueCookies) {
+
+        public Snapshot {
+            malformed = malformed.clone();
+            stages = stages.clone();
+            uniqueCookies = Collections.unmodifiableSortedMap(new TreeMap<>(uniqueCookies));
+        }
+
+        @Override
+        public long[] malformed() {
+            return malformed.clone();
+        }
+
+        @Override
+        public StageSnapshot[] stages() {
+            return stages.clone();
+        }
+
+        public long malformed(MalformedReason reason) {
+            return malformed[reason.ordinal()];
+        }
+
+        public long malformedTotal() {
+            return Arrays.stream(malformed).sum();
+        }
+
+        public StageSnapshot stage(Stage stage) {
+            return stages[stage.ordinal()];
+        }
+
+        /**
+         * @return A human readable summary
+         */
+        public String format() {
+            var sb = new StringBuilder();
+            var seconds = elapsedNanos / 1e9;
+            sb.append("Read %,d lines (%,.1f MB) in %,.3f s, %,.0f lines/s%n".formatted(linesRead, bytesRead / 1e6,
+                    seconds, seconds == 0 ? 0 : linesRead / seconds));
+            sb.append("  parsed %,d, malformed %,d, skipped before the cutoff %,d%n".formatted(linesParsed,
+                    malformedTotal(), skippedBeforeCutoff));
+            for (var reason : MalformedReason.values()) {
+                if (malformed(reason) > 0) {
+                    sb.append("    %-17s %,d%n".formatted(reason.label(), malformed(reason)));
+                }
+            }
+            for (var stage : stages) {
+                sb.append("  %-5s %,9.1f ms in %,d batches, per batch p50 < %s p99 < %s max < %s%n".formatted(
+                        stage.stage().label(), stage.nanos() / 1e6, stage.batches(), formatNanos(stage.percentile(0.5)),
+                        formatNanos(stage.percentile(0.99)), formatNanos(stage.percentile(1))));
+            }
+            uniqueCookies.forEach((date, count) -> sb.append("  %s %,d unique cookies%n".formatted(date, count)));
+            return sb.toString();
+        }
+
+        /**
+         * @return The snapshot as a single JSON object
+         */
+        public String toJson() {
+            var sb = new StringBuilder("{");
+            sb.append("\"elapsedNanos\":").append(elapsedNanos)
+                    .append(",\"linesRead\":").append(linesRead)
+                    .append(",\"bytesRead\":").append(bytesRead)
+                    .append(",\"linesParsed\":").append(linesParsed)
+                    .append(",\"skippedBeforeCutoff\":").append(skippedBeforeCutoff)
+                    .append(",\"malformed\":{");
+            var first = true;
+            for (var reason : MalformedReason.values()) {
+                sb.append(first ? "" : ",").append('"').append(reason.label()).append("\":").append(malformed(reason));
+                first = false;
+            }
+            sb.append("},\"stages\":{");
+            first = true;
+            for (var stage : stages) {
+                sb.append(first ? "" : ",").append('"').append(stage.stage().label()).append("\":{\"nanos\":")
+                        .append(stage.nanos()).append(",\"batches\":").append(stage.batches())
+                        .append(",\"p50Nanos\":").append(stage.percentile(0.5))
+                        .append(",\"p99Nanos\":").append(stage.percentile(0.99)).append('}');
+                first = false;
+            }
+            sb.append("},\"uniqueCookies\":{");
+            first = true;
+            for (var entry : uniqueCookies.entrySet()) {
+                sb.append(first ? "" : ",").append('"').append(entry.getKey()).append("\":").append(entry.getValue());
+                first = false;
+            }
+            return sb.append("}}").toString();
+        }
+
+        /**
+         * @return The snapshot in the Prometheus text exposition format, e.g. for the node exporter's textfile collector
+         */
+        public String toPrometheus() {
+            var sb = new StringBuilder();
+            counter(sb, "lines_read_total", "Log lines read, malformed ones included", linesRead);
+            counter(sb, "bytes_read_total", "Bytes (or chars of text sources) read", bytesRead);
+            counter(sb, "lines_parsed_total", "Valid cookie lines counted in the store", linesParsed);
+            counter(sb, "lines_skipped_before_cutoff_total", "Valid cookie lines older than the cutoff date", skippedBeforeCutoff);
+            header(sb, "lines_malformed_total", "counter", "Malformed lines by reason");
+            for (var reason : MalformedReason.values()) {
+                sb.append("cookiestore_lines_malformed_total{reason=\"").append(reason.label()).append("\"} ")
+                        .append(malformed(reason)).append('\n');
+            }
+            header(sb, "stage_batch_seconds", "histogram", "Time spent per batch by every ingestion stage");
+            for (var stage : stages) {
+                var label = "stage=\"" + stage.stage().label() + "\"";
+                var cumulative = 0L;
+                for (int i = 0; i <= stage.highestBucket(); ++i) {
+                    cumulative += stage.buckets[i];
+                    if (i < FIRST_EXPORTED_BUCKET && i < stage.highestBucket()) {
+                        continue;
+                    }
+                    sb.append("cookiestore_stage_batch_seconds_bucket{").append(label).append(",le=\"")
+                            .append(bucketUpperBound(i) / 1e9).append("\"} ").append(cumulative).append('\n');
+                }
+                sb.append("cookiestore_stage_batch_seconds_bucket{").append(label).append(",le=\"+Inf\"} ")
+                        .append(stage.batches()).append('\n');
+                sb.append("cookiestore_stage_batch_seconds_sum{").append(label).append("} ").append(stage.nanos() / 1e9).append('\n');
+                sb.append("cookiestore_stage_batch_seconds_count{").append(label).append("} ").append(stage.batches()).append('\n');
+            }
+            header(sb, "unique_cookies", "gauge", "Distinct cookies per day in the store");
+            uniqueCookies.forEach((date, count) -> sb.append("cookiestore_unique_cookies{date=\"").append(date)
+                    .append("\"} ").append(count).append('\n'));
+            return sb.toString();
+        }
+
+        /**
+         * Write the snapshot to the given file, as JSON if its name ends with .json and in the Prometheus text format
+         * otherwise. The file is replaced atomically (where the file system allows it), so that a reader never sees a
+         * half written file.
+         */
+        public void writeTo(Path file) {
+            var fileName = String.valueOf(file.getFileName());
+            var content = fileName.endsWith(".json") ? toJson() : toPrometheus();
+            var dir = file.toAbsolutePath().getParent();
+            if (dir == null) {
+                throw new IllegalArgumentException("The metrics can't be written to " + file);
+            }
+            try {
+                var temp = Files.createTempFile(dir, fileName, ".tmp");
+                try {
+                    Files.writeString(temp, content, StandardCharsets.UTF_8);
+                    try {
+                        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    } catch (AtomicMoveNotSupportedException e) {
+                        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                } finally {
+                    Files.deleteIfExists(temp);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to write the ingest metrics to %s -- %s".formatted(file, e.getMessage()), e);
+            }
+        }
+
+        private static void counter(StringBuilder sb, String name, String help, long value) {
+            header(sb, name, "counter", help);
+            sb.append("cookiestore_").append(name).append(' ').append(value).append('\n');
+        }
+
+        private static void header(StringBuilder sb, String name, String type, String help) {
+            sb.append("# HELP cookiestore_").append(name).append(' ').append(help).append('\n');
+            sb.append("# TYPE cookiestore_").append(name).append(' ').append(type).append('\n');
+        }
+
+        private static String formatNanos(long nanos) {
+            if (nanos < 1_000_000) {
+                return "%d us".formatted(TimeUnit.NANOSECONDS.toMicros(nanos));
+            }
+            return "%d ms".formatted(TimeUnit.NANOSECONDS.toMillis(nanos));
+        }
+    }
+
+    /**
+     * The time spent by a single stage
+     *
+     * @param nanos   The total time
+     * @param batches The number of batches (or streams) timed
+     * @param buckets The number of batches per power of two nanos: bucket i holds the batches which took less than 2^i
+     *                nanos (and at least 2^(i-1))
+     */
+    public record StageSnapshot(Stage stage, long nanos, long batches, long[] buckets) {
+
+        public StageSnapshot {
+            buckets = buckets.clone();
+        }
+
+        @Override
+        public long[] buckets() {
+            return buckets.clone();
+        }
+
+        /**
+         * @return An upper bound of the time per batch which the given fraction (0 to 1) of the batches stayed below
+         */
+        public long percentile(double fraction) {
+            var rank = (long) Math.ceil(fraction * batches);
+            var seen = 0L;
+            for (int i = 0; i < buckets.length; ++i) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0) {
+                    return bucketUpperBound(i);
+                }
+            }
+            return 0;
+        }
+
+        int highestBucket() {
+            for (int i = buckets.length - 1; i >= 0; --i) {
+                if (buckets[i] > 0) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static long bucketUpperBound(int bucket) {
+        return 1L << bucket;
+    }
+
+    /**
+     * Plain counters for a single thread which goes through the lines one at a time, e.g. a streaming parser, to be
+     * added to the shared metrics once in a while rather than for every line.
+     */
+    static final class Tally {
+
+        private long lines;
+
+        private long bytes;
+
+        private long parsed;
+
+        private long skipped;
+
+        private final long[] malformed = new long[MalformedReason.values().length];
+
+        void read(long lineBytes) {
+            ++lines;
+            bytes += lineBytes;
+        }
+
+        void parsed() {
+            ++parsed;
+        }
+
+        void skipped() {
+            ++skipped;
+        }
+
+        void malformed(MalformedReason reason) {
+            ++malformed[reason.ordinal()];
+        }
+
+        /** Add the tallies to the given metrics and start over from zero */
+        void flushTo(IngestMetrics metrics) {
+            metrics.read(lines, bytes);
+            metrics.parsed(parsed);
+            metrics.skipped(skipped);
+            for (var reason : MalformedReason.values()) {
+                metrics.malformed(reason, malformed[reason.ordinal()]);
+            }
+            lines = bytes = parsed = skipped = 0;
+            Arrays.fill(malformed, 0);
+        }
+    }
+
+    /** The total and the histogram of the time per batch of a single stage */
+    private static final class Timer {
+
+        private final LongAdder nanos = new LongAdder();
+
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+        private Timer() {
+            for (int i = 0; i < BUCKETS; ++i) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long batchNanos) {
+            nanos.add(batchNanos);
+            var bucket = 64 - Long.numberOfLeadingZeros(Math.max(0, batchNanos));
+            buckets[Math.min(bucket, BUCKETS - 1)].increment();
+        }
+
+        StageSnapshot snapshot(Stage stage) {
+            var counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; ++i) {
+                counts[i] = buckets[i].sum();
+            }
+            return new StageSnapshot(stage, nanos.sum(), Arrays.stream(counts).sum(), counts);
+        }
+    }
+
+}
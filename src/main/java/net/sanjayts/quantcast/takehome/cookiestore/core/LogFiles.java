@@ -0,0 +1,79 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Turns the log file arguments of the command line into the list of log files to be read. Every argument can be
+ * <ul>
+ *     <li>a file, which is taken as it is</li>
+ *     <li>a directory, which stands for all the regular, non-hidden files directly inside of it, except for the
+ *     {@link CookieIndex} and {@link CookieSnapshot} files which may sit next to the logs</li>
+ *     <li>a glob in its last path component (e.g. `logs/host-*.log.gz`), which stands for the matching regular files;
+ *     useful when the shell doesn't expand the glob itself or the expansion would exceed the argument limit</li>
+ * </ul>
+ */
+public final class LogFiles {
+
+    private LogFiles() {
+    }
+
+    /**
+     * @return The distinct log files in path order
+     * @throws IllegalArgumentException If an argument neither exists nor matches any file
+     */
+    public static List<Path> resolve(Collection<String> arguments) {
+        var files = new TreeSet<Path>();
+        for (var argument : arguments) {
+            var path = Path.of(argument);
+            var fileName = String.valueOf(path.getFileName());
+            if (Files.isDirectory(path)) {
+                files.addAll(list(path, "*").stream().filter(file -> !isIndexOrSnapshot(file)).toList());
+            } else if (isGlob(fileName)) {
+                var parent = path.getParent();
+                var matches = list(parent != null ? parent : Path.of("."), fileName);
+                if (matches.isEmpty()) {
+                    throw new IllegalArgumentException("No log files match %s".formatted(argument));
+                }
+                files.addAll(matches);
+            } else if (Files.exists(path)) {
+                files.add(path);
+            } else {
+                throw new IllegalArgumentException("The log file %s doesn't exist".formatted(argument));
+            }
+        }
+        return new ArrayList<>(files);
+    }
+
+    private static boolean isIndexOrSnapshot(Path file) {
+        try {
+            return CookieIndex.isIndex(file) || CookieSnapshot.isSnapshot(file);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("The file %s can't be read -- %s".formatted(file.toUri(), e.getMessage()),
+                    e);
+        }
+    }
+
+    private static boolean isGlob(String name) {
+        return name.contains("*") || name.contains("?") || name.contains("[") || name.contains("{");
+    }
+
+    private static List<Path> list(Path dir, String glob) {
+        var matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        var files = dir.toFile().listFiles(file -> file.isFile() && !file.isHidden()
+                && matcher.matches(file.toPath().getFileName()));
+        if (files == null) {
+            throw new IllegalArgumentException("The directory %s can't be listed".formatted(dir.toUri()));
+        }
+        return Arrays.stream(files).map(File::toPath).toList();
+    }
+
+}
@@ -0,0 +1,243 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import net.sanjayts.quantcast.takehome.cookiestore.exceptions.SourceException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Follows a log file which keeps getting appended to and feeds every new line into a data store, so that the store
+ * always reflects the whole file without it ever being parsed twice. Each {@link #poll()} picks up the complete lines
+ * appended since the previous poll; a trailing partial line is held back until its newline shows up.
+ *
+ * Unlike {@link CookieParser}, the tailer can't assume the lines are sorted newest-first: appended data is (roughly)
+ * oldest-first and can interleave late arrivals for earlier days. Every valid line is therefore counted towards its own
+ * day irrespective of where it appears, which the data store doesn't care about. Lines which arrive older than the
+ * newest day seen so far are counted as out-of-order. If a retention is configured, only the newest `retainDays` days
+ * are kept in the store and lines arriving for a day which was already dropped are discarded.
+ *
+ * If the file shrinks or gets replaced (e.g. log rotation) the tailer starts over from the top of the new file, while
+ * the counts of the old file are kept.
+ */
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+@Slf4j
+public class LogTailer implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path path;
+
+    private final CookieDataStore store;
+
+    private final String headerLine;
+
+    private final int retainDays;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private byte[] lineBytes = new byte[256];
+
+    private int lineLength;
+
+    private FileChannel channel;
+
+    private Object fileKey;
+
+    private long position;
+
+    private long newestEpochDay = Long.MIN_VALUE;
+
+    private long lineCount;
+
+    private long outOfOrderCount;
+
+    private long droppedCount;
+
+    private long invalidCount;
+
+    private final IngestMetrics.Tally tally = new IngestMetrics.Tally();
+
+    private IngestMetrics metrics = IngestMetrics.global();
+
+    private Quarantine quarantine = Quarantine.global();
+
+    /**
+     * Create a tailer which starts following the given log file from the top on its first poll.
+     *
+     * @param path The log file to follow
+     * @param store The store which gets the cookies of every new line
+     * @param headers The expected headers of the log file; the header line is skipped whenever the file is read from the top
+     * @param retainDays The number of most recent days which should be kept in the store; 0 keeps everything
+     */
+    public static LogTailer follow(Path path, CookieDataStore store, List<String> headers, int retainDays) {
+        if (retainDays < 0) {
+            throw new IllegalArgumentException("The number of days to retain can't be negative, got %d".formatted(retainDays));
+        }
+        return new LogTailer(path, store, String.join(",", headers), retainDays);
+    }
+
+    /**
+     * Record what this tailer does into the given metrics instead of the {@link IngestMetrics#global()} ones.
+     */
+    synchronized void recordTo(IngestMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Send the malformed lines to the given quarantine instead of the {@link Quarantine#global()} one.
+     */
+    synchronized void quarantineTo(Quarantine quarantine) {
+        this.quarantine = quarantine;
+    }
+
+    /**
+     * Ingest all the complete lines appended to the log file since the last poll.
+     *
+     * @return The number of lines read by this poll
+     */
+    public synchronized long poll() {
+        try {
+            reopenIfRotated();
+            if (channel == null) {
+                return 0;
+            }
+            var linesBefore = lineCount;
+            var newestBefore = newestEpochDay;
+            var start = System.nanoTime();
+            buffer.clear();
+            int read;
+            while ((read = channel.read(buffer, position)) > 0) {
+                position += read;
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    var b = buffer.get();
+                    if (b == '\n') {
+                        ingestLine();
+                    } else {
+                        appendToLine(b);
+                    }
+                }
+                buffer.clear();
+            }
+            if (retainDays > 0 && newestEpochDay > newestBefore) {
+                store.removeBefore(LocalDate.ofEpochDay(oldestRetainedEpochDay()));
+            }
+            if (lineCount > linesBefore) {
+                tally.flushTo(metrics);
+                metrics.timed(IngestMetrics.Stage.PARSE, System.nanoTime() - start);
+            }
+            return lineCount - linesBefore;
+        } catch (IOException e) {
+            String msg = String.format("Unexpected error encountered when following the log file %s -- %s", path, e.getMessage());
+            throw new SourceException(msg, e);
+        }
+    }
+
+    /**
+     * The running totals of what this tailer has seen so far
+     */
+    public synchronized Stats stats() {
+        return new Stats(lineCount, outOfOrderCount, droppedCount, invalidCount);
+    }
+
+    @Override
+    public synchronized void close() {
+        closeChannel();
+    }
+
+    private void reopenIfRotated() throws IOException {
+        if (!Files.exists(path)) {
+            // The file is being rotated, pick up the new one on the next poll
+            return;
+        }
+        var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        var rotated = channel != null && !Objects.equals(fileKey, attributes.fileKey());
+        var truncated = channel != null && attributes.size() < position;
+        if (rotated || truncated) {
+            log.info("The log file {} was {}, following it from the top", path, rotated ? "replaced" : "truncated");
+            closeChannel();
+        }
+        if (channel == null) {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            fileKey = attributes.fileKey();
+            position = 0;
+            lineLength = 0;
+        }
+    }
+
+    private void appendToLine(byte b) {
+        if (lineLength == lineBytes.length) {
+            lineBytes = Arrays.copyOf(lineBytes, lineLength * 2);
+        }
+        lineBytes[lineLength++] = b;
+    }
+
+    private void ingestLine() {
+        var length = lineLength > 0 && lineBytes[lineLength - 1] == '\r' ? lineLength - 1 : lineLength;
+        var line = new String(lineBytes, 0, length, StandardCharsets.UTF_8);
+        tally.read(lineLength + 1L);
+        lineLength = 0;
+        ++lineCount;
+
+        if (line.equals(headerLine)) {
+            return;
+        }
+        var info = CookieParser.parseOrReject(line, tally, quarantine);
+        if (!info.isValid()) {
+            ++invalidCount;
+            return;
+        }
+        var epochDay = TimestampParser.epochDayOf(info.getTimestamp().toEpochSecond());
+        if (epochDay < newestEpochDay) {
+            ++outOfOrderCount;
+            if (retainDays > 0 && epochDay < oldestRetainedEpochDay()) {
+                tally.skipped();
+                ++droppedCount;
+                return;
+            }
+        } else {
+            newestEpochDay = epochDay;
+        }
+        store.addCookie(info);
+        tally.parsed();
+    }
+
+    private long oldestRetainedEpochDay() {
+        return newestEpochDay - retainDays + 1;
+    }
+
+    private void closeChannel() {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            log.debug("Failed to close the log file {} -- {}", path, e.getMessage());
+        } finally {
+            channel = null;
+        }
+    }
+
+    /**
+     * @param lines The number of lines read, including invalid ones
+     * @param outOfOrder The number of valid lines which were older than the newest day seen before them
+     * @param dropped The number of out-of-order lines discarded since their day was no longer retained
+     * @param invalid The number of malformed lines which were skipped
+     */
+    public record Stats(long lines, long outOfOrder, long dropped, long invalid) {}
+
+}
@@ -0,0 +1,28 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import java.util.Locale;
+
+/**
+ * Why a log line didn't make it into the counts. Every line is checked in this order, so a line is blamed for the
+ * first rule it breaks.
+ */
+public enum MalformedReason {
+
+    /** The line has no comma separating a timestamp from the cookie, e.g. an empty or truncated line */
+    MISSING_TIMESTAMP,
+
+    /** The line has more than the two cookie and timestamp fields */
+    EXTRA_FIELDS,
+
+    /** The cookie field is empty or only whitespace */
+    BLANK_COOKIE,
+
+    /** The timestamp field isn't an ISO-8601 offset datetime */
+    BAD_TIMESTAMP;
+
+    /** The lower case name used in the metrics output */
+    public String label() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+}
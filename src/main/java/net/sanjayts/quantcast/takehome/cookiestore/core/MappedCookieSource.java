@@ -0,0 +1,242 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import net.sanjayts.quantcast.takehome.cookiestore.exceptions.SourceException;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A cookie source backed by a memory mapped log file. As opposed to the reader based source, this one never creates a
+ * String per line; instead it walks the mapped bytes and hands out the boundaries of the current line which the parser
+ * can read in-place via {@link #line()}. The classic {@link #nextLine()} is still supported (used for reading the
+ * headers) but it's not the one which should be used in a hot loop.
+ *
+ * Since a single mapping can't exceed 2GB, bigger files are read through a sliding "window" which gets re-mapped
+ * starting at the line being read whenever we run off the end of the current window. Only '\n' and "\r\n" are treated
+ * as line terminators.
+ */
+public class MappedCookieSource extends CookieSource {
+
+    static final int DEFAULT_WINDOW_SIZE = 1 << 30;
+
+    private final Path path;
+
+    private final FileChannel channel;
+
+    /** The (exclusive) file offset at which this source stops reading */
+    private long end;
+
+    private final int windowSize;
+
+    private final LineView lineView = new LineView();
+
+    private MappedByteBuffer window;
+
+    /** The file offset at which the current window starts */
+    private long windowBase;
+
+    /** The window relative offset from where we will look for the next line */
+    private int position;
+
+    private int lineStart;
+
+    private int lineEnd;
+
+    public MappedCookieSource(Path path) {
+        this(path, 0, Long.MAX_VALUE, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Create a source which only reads the lines in the file region [start, end). The caller is responsible for
+     * making sure the offsets are aligned to line boundaries.
+     */
+    MappedCookieSource(Path path, long start, long end, int windowSize) {
+        try {
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            this.end = Math.min(end, channel.size());
+            this.windowSize = windowSize;
+            map(Math.min(start, this.end));
+        } catch (IOException e) {
+            String msg = String.format("Unexpected error encountered when mapping cookie source %s -- %s", path, e.getMessage());
+            throw new SourceException(msg, e);
+        }
+    }
+
+    /**
+     * Move the cursor to the next line of data.
+     *
+     * @return true if a line was found, false if we have run out of data
+     */
+    public boolean advance() {
+        while (true) {
+            var limit = window.limit();
+            for (int i = position; i < limit; ++i) {
+                if (window.get(i) == '\n') {
+                    setLine(position, i);
+                    position = i + 1;
+                    return true;
+                }
+            }
+            if (windowBase + limit >= end) {
+                // The last line of the file doesn't necessarily end with a newline
+                if (position < limit) {
+                    setLine(position, limit);
+                    position = limit;
+                    return true;
+                }
+                return false;
+            }
+            if (position == 0) {
+                throw new SourceException("Found a line longer than the mapping window of %d bytes".formatted(windowSize), null);
+            }
+            remap(windowBase + position);
+        }
+    }
+
+    /**
+     * Copy the next bytes of data into the given array, regardless of line boundaries. This is meant for parsing many
+     * lines at once (see {@link CookieParser#nextBatch(CookieBatch)}) and moves the cursor just like {@link #advance()}
+     * does, so the two can't be mixed up for the same line.
+     *
+     * @return The number of bytes copied, or -1 if we have run out of data
+     */
+    @Override
+    public int read(byte[] dst, int offset, int length) {
+        var limit = window.limit();
+        if (position == limit) {
+            if (windowBase + limit >= end) {
+                return -1;
+            }
+            remap(windowBase + position);
+            limit = window.limit();
+        }
+        var n = Math.min(length, limit - position);
+        window.get(position, dst, offset, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public boolean isByteSource() {
+        return true;
+    }
+
+    /**
+     * A read-only view over the line the cursor is currently positioned on. The returned object is reused so it's only
+     * valid until the next call to {@link #advance()}.
+     */
+    public CharSequence line() {
+        return lineView;
+    }
+
+    /**
+     * The absolute file offset at which the current line starts
+     */
+    public long lineOffset() {
+        return windowBase + lineStart;
+    }
+
+    /**
+     * The absolute file offset of the line which will be returned by the next call to {@link #advance()}
+     */
+    public long nextLineOffset() {
+        return windowBase + position;
+    }
+
+    /**
+     * Reposition this source so that it only reads the lines in the file region [start, end). Like the region based
+     * constructor, the offsets are expected to be aligned to line boundaries.
+     */
+    public void seek(long start, long end) {
+        try {
+            this.end = Math.min(end, channel.size());
+            map(Math.min(start, this.end));
+        } catch (IOException e) {
+            String msg = String.format("Unexpected error encountered when seeking in cookie source -- %s", e.getMessage());
+            throw new SourceException(msg, e);
+        }
+    }
+
+    /**
+     * The (exclusive) file offset at which this source stops reading
+     */
+    public long endOffset() {
+        return end;
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    @Override
+    public String nextLine() {
+        return advance() ? lineView.toString() : null;
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (Exception e) {
+            String msg = String.format("Unexpected error encountered when closing the cookie source -- %s", e.getMessage());
+            throw new SourceException(msg, e);
+        }
+    }
+
+    private void setLine(int start, int newlinePos) {
+        lineStart = start;
+        lineEnd = newlinePos > start && window.get(newlinePos - 1) == '\r' ? newlinePos - 1 : newlinePos;
+    }
+
+    private void remap(long fileOffset) {
+        try {
+            map(fileOffset);
+        } catch (IOException e) {
+            String msg = String.format("Unexpected error encountered when reading cookie source data -- %s", e.getMessage());
+            throw new SourceException(msg, e);
+        }
+    }
+
+    private void map(long fileOffset) throws IOException {
+        var size = Math.min(windowSize, end - fileOffset);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, fileOffset, size);
+        windowBase = fileOffset;
+        position = 0;
+    }
+
+    /**
+     * The char view over the current line. Each byte is exposed as a char which is exactly right for the ASCII data
+     * our cookie logs are made of; anything which needs the real text (e.g. the cookie name) should go through
+     * {@link #subSequence(int, int)} which decodes the bytes as UTF-8.
+     */
+    private final class LineView implements CharSequence {
+
+        @Override
+        public int length() {
+            return lineEnd - lineStart;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (window.get(lineStart + index) & 0xFF);
+        }
+
+        @Override
+        public String subSequence(int start, int end) {
+            var bytes = new byte[end - start];
+            window.get(lineStart + start, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String toString() {
+            return subSequence(0, length());
+        }
+    }
+
+}
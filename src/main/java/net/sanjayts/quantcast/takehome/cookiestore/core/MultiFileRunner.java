@@ -0,0 +1,118 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import lombok.extern.slf4j.Slf4j;
+import net.sanjayts.quantcast.takehome.cookiestore.exceptions.ParserException;
+import net.sanjayts.quantcast.takehome.cookiestore.exceptions.SourceException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * The counterpart of {@link Runner} for logs which are sharded into many files (e.g. per host and hour). Every file is
+ * ingested as a whole on the given executor into its own partial data store, and the partial stores are merged into
+ * the final store as soon as they are done, so the run takes as long as the files take on the available threads rather
+ * than the sum of all files.
+ *
+ * Every file has to be sorted on its own, but there's no order among the files. Files which don't have any lines for
+ * the target dates are skipped cheaply: regular files are memory mapped and binary searched for the target dates (see
+ * {@link CookieParser#seekTo(LocalDate, LocalDate)}), which costs a handful of reads, while compressed files stop at the
+ * first line older than the oldest target date.
+ */
+@Slf4j
+public class MultiFileRunner {
+
+    private final ExecutorService executor;
+
+    private final List<String> headers;
+
+    /**
+     * @param executor The executor on which the files will be ingested
+     * @param headers The headers every file is expected to start with
+     */
+    public MultiFileRunner(ExecutorService executor, List<String> headers) {
+        this.executor = executor;
+        this.headers = List.copyOf(headers);
+    }
+
+    /**
+     * Ingest all the given files in parallel and return the most active cookies for all the target dates.
+     */
+    public SortedMap<LocalDate, SortedSet<String>> run(List<Path> files, CookieStore store, SortedSet<LocalDate> targetDates) {
+        CompletionService<FileResult> completion = new ExecutorCompletionService<>(executor);
+        var pending = files.stream()
+                .map(file -> completion.submit(() -> ingest(file, store.createEmpty(), targetDates.first(), targetDates.last())))
+                .toList();
+        var skipped = 0;
+        try {
+            for (int i = 0; i < pending.size(); ++i) {
+                var result = await(completion);
+                if (result.skipped()) {
+                    ++skipped;
+                } else {
+                    store.merge(result.store());
+                }
+            }
+        } finally {
+            pending.forEach(f -> f.cancel(true));
+        }
+        log.debug("Ingested {} log files, skipped {} without any lines for the target dates", files.size() - skipped, skipped);
+        return store.mostActiveFor(targetDates);
+    }
+
+    private FileResult ingest(Path file, CookieStore store, LocalDate oldestDate, LocalDate newestDate) {
+        try (var source = open(file)) {
+            var parser = CookieParser.createFromAndValidate(source, headers, oldestDate);
+            if (parser.seekTo(oldestDate, newestDate) && source instanceof MappedCookieSource mapped
+                    && mapped.nextLineOffset() >= mapped.endOffset()) {
+                log.debug("Skipping {} since it has no lines for [{}, {}]", file, oldestDate, newestDate);
+                return new FileResult(store, true);
+            }
+            Runner.ingest(parser, store);
+            return new FileResult(store, false);
+        } catch (ParserException | SourceException | UncheckedIOException e) {
+            throw new SourceException("Failed to ingest the log file %s -- %s".formatted(file, e.getMessage()), e);
+        }
+    }
+
+    private static CookieSource open(Path file) {
+        try {
+            if (Files.isRegularFile(file) && !GzipDecoder.isGzip(file)) {
+                return new MappedCookieSource(file);
+            }
+            // The file is already one of many parallel tasks, so it's decompressed on a single thread
+            return new StreamCookieSource(GzipDecoder.openDecompressed(file, 1));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e.getMessage(), e);
+        }
+    }
+
+    private static FileResult await(CompletionService<FileResult> completion) {
+        try {
+            Future<FileResult> result = completion.take();
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the log files to be ingested", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /** The outcome of ingesting a single file */
+    private record FileResult(CookieStore store, boolean skipped) {}
+
+}
@@ -0,0 +1,129 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * The parallel counterpart of {@link Runner}. Instead of driving a single stream over the whole log file, the data
+ * region of a memory mapped source is split into byte ranges aligned to line boundaries, each of which is parsed on the
+ * given executor into its own partial (empty, but otherwise alike) data store. The partial stores are then merged into
+ * the final store.
+ *
+ * The result is exactly the same as the sequential run: the sequential parser stops at the first cookie older than the
+ * cutoff date, so the partial stores are merged in file order up to (and including) the first range which ran into
+ * the cutoff date; anything after it would never have been read by the sequential parser.
+ */
+@Slf4j
+public class ParallelRunner {
+
+    private final ExecutorService executor;
+
+    private final int rangeCount;
+
+    /**
+     * @param executor The executor on which the file ranges will be parsed
+     * @param rangeCount The number of ranges the data should be split into; a few times the executor parallelism
+     *                   makes sure a thread isn't left idle because its range happened to be cheaper to parse.
+     */
+    public ParallelRunner(ExecutorService executor, int rangeCount) {
+        this.executor = executor;
+        this.rangeCount = rangeCount;
+    }
+
+    /**
+     * Parse the remaining data of the given source (i.e. everything after the current position) in parallel and
+     * return the most active cookies for the target date.
+     */
+    public Set<String> run(MappedCookieSource source, CookieStore store, LocalDate targetDate) {
+        ingest(source, store, targetDate);
+        return store.mostActiveFor(targetDate);
+    }
+
+    /**
+     * Parse the remaining data of the given source in parallel once and return the most active cookies for all the
+     * target dates.
+     */
+    public SortedMap<LocalDate, SortedSet<String>> run(MappedCookieSource source, CookieStore store,
+                                                       Collection<LocalDate> targetDates) {
+        ingest(source, store, Collections.min(targetDates));
+        return store.mostActiveFor(targetDates);
+    }
+
+    private void ingest(MappedCookieSource source, CookieStore store, LocalDate cutoffDate) {
+        var boundaries = rangeBoundaries(source);
+        log.debug("Split the data region into {} ranges with boundaries {}", boundaries.length - 1, boundaries);
+
+        var results = new ArrayList<Future<RangeResult>>();
+        for (int i = 0; i + 1 < boundaries.length; ++i) {
+            var start = boundaries[i];
+            var end = boundaries[i + 1];
+            results.add(executor.submit(() -> parseRange(source, store.createEmpty(), start, end, cutoffDate)));
+        }
+
+        for (var result : results) {
+            var rangeResult = await(result);
+            store.merge(rangeResult.store());
+            if (rangeResult.cutoffReached()) {
+                results.forEach(f -> f.cancel(false));
+                break;
+            }
+        }
+    }
+
+    private long[] rangeBoundaries(MappedCookieSource source) {
+        var start = source.nextLineOffset();
+        var end = source.endOffset();
+        var rangeSize = Math.max(1, (end - start) / rangeCount);
+        var boundaries = new ArrayList<Long>();
+        boundaries.add(start);
+        try (var seeker = new SortedLogSeeker(source.path())) {
+            for (int i = 1; i < rangeCount; ++i) {
+                var boundary = Math.min(seeker.lineStartAtOrAfter(start, start + i * rangeSize), end);
+                if (boundary > boundaries.get(boundaries.size() - 1)) {
+                    boundaries.add(boundary);
+                }
+            }
+        }
+        if (end > boundaries.get(boundaries.size() - 1)) {
+            boundaries.add(end);
+        }
+        return boundaries.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private static RangeResult parseRange(MappedCookieSource source, CookieStore store, long start, long end,
+                                          LocalDate cutoffDate) {
+        try (var rangeSource = new MappedCookieSource(source.path(), start, end, MappedCookieSource.DEFAULT_WINDOW_SIZE)) {
+            var parser = CookieParser.createForRegion(rangeSource, cutoffDate);
+            Runner.ingest(parser, store);
+            return new RangeResult(store, parser.isCutoffReached());
+        }
+    }
+
+    private static RangeResult await(Future<RangeResult> result) {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the file ranges to be parsed", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /** The outcome of parsing a single range of the file */
+    private record RangeResult(CookieStore store, boolean cutoffReached) {}
+
+}
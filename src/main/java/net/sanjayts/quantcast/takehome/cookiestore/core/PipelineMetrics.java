@@ -0,0 +1,144 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The throughput and queue depth of every stage of a {@link PipelinedRunner} run, which tells where the bottleneck is:
+ * <ul>
+ *     <li>a stage whose input queue is mostly full and which is rarely idle can't keep up with its upstream stage</li>
+ *     <li>a stage which spends its time blocked on its output queue is held back by the downstream stage</li>
+ *     <li>a stage which spends its time idle, waiting on an empty input queue, is starved by the upstream stage</li>
+ * </ul>
+ *
+ * The counters are updated by the stage threads once per batch, so keeping track of them costs next to nothing.
+ */
+public final class PipelineMetrics {
+
+    private final Stage read = new Stage("read");
+
+    private final Stage parse = new Stage("parse");
+
+    private final Stage sink = new Stage("sink");
+
+    private volatile long elapsedNanos;
+
+    Stage read() {
+        return read;
+    }
+
+    Stage parse() {
+        return parse;
+    }
+
+    Stage sink() {
+        return sink;
+    }
+
+    void finish(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return The wall time of the whole run, 0 while the run is still going on
+     */
+    public long elapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * @return The stats of the read, parse and sink stages in pipeline order
+     */
+    public List<StageStats> stages() {
+        return List.of(read.stats(), parse.stats(), sink.stats());
+    }
+
+    @Override
+    public String toString() {
+        var sb = new StringBuilder("Pipeline ran for %d ms".formatted(TimeUnit.NANOSECONDS.toMillis(elapsedNanos)));
+        for (var stage : stages()) {
+            sb.append(System.lineSeparator()).append("  ").append(stage.format(elapsedNanos));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The totals of a single stage, summed up over all its threads.
+     *
+     * @param name The name of the stage
+     * @param items The lines (read stage, or bytes for a source of raw bytes) or cookie records (parse and sink stages)
+     *              the stage has put out
+     * @param batches The batches the stage has taken from its input queue (the read stage has no input queue)
+     * @param busyNanos The time spent working on the batches
+     * @param idleNanos The time spent waiting for the input queue to hand over a batch
+     * @param blockedNanos The time spent waiting for room in the output queue(s), i.e. the backpressure
+     * @param meanQueueDepth The mean depth of the input queue, sampled whenever a batch was taken
+     * @param maxQueueDepth The max depth of the input queue
+     */
+    public record StageStats(String name, long items, long batches, long busyNanos, long idleNanos, long blockedNanos,
+                             double meanQueueDepth, long maxQueueDepth) {
+
+        /**
+         * @return The items put out per second of the given wall time
+         */
+        public double itemsPerSecond(long elapsedNanos) {
+            return elapsedNanos == 0 ? 0 : items * 1e9 / elapsedNanos;
+        }
+
+        String format(long elapsedNanos) {
+            return "%-5s %,12d items %,14.0f/s  busy %,7d ms  idle %,7d ms  blocked %,7d ms  queue depth mean %.1f max %d"
+                    .formatted(name, items, itemsPerSecond(elapsedNanos), TimeUnit.NANOSECONDS.toMillis(busyNanos),
+                            TimeUnit.NANOSECONDS.toMillis(idleNanos), TimeUnit.NANOSECONDS.toMillis(blockedNanos),
+                            meanQueueDepth, maxQueueDepth);
+        }
+    }
+
+    /** The counters of a single stage, which can be updated from all the threads of the stage */
+    static final class Stage {
+
+        private final String name;
+
+        private final LongAdder items = new LongAdder();
+
+        private final LongAdder batches = new LongAdder();
+
+        private final LongAdder busyNanos = new LongAdder();
+
+        private final LongAdder idleNanos = new LongAdder();
+
+        private final LongAdder blockedNanos = new LongAdder();
+
+        private final LongAdder queueDepthSum = new LongAdder();
+
+        private final LongAccumulator maxQueueDepth = new LongAccumulator(Math::max, 0);
+
+        private Stage(String name) {
+            this.name = name;
+        }
+
+        void taken(int queueDepth, long idleNanos) {
+            batches.increment();
+            queueDepthSum.add(queueDepth);
+            maxQueueDepth.accumulate(queueDepth);
+            this.idleNanos.add(idleNanos);
+        }
+
+        void processed(int items, long busyNanos) {
+            this.items.add(items);
+            this.busyNanos.add(busyNanos);
+        }
+
+        void blocked(long blockedNanos) {
+            this.blockedNanos.add(blockedNanos);
+        }
+
+        StageStats stats() {
+            var taken = batches.sum();
+            return new StageStats(name, items.sum(), taken, busyNanos.sum(), idleNanos.sum(), blockedNanos.sum(),
+                    taken == 0 ? 0 : (double) queueDepthSum.sum() / taken, maxQueueDepth.get());
+        }
+    }
+
+}
@@ -0,0 +1,517 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import lombok.extern.slf4j.Slf4j;
+import net.sanjayts.quantcast.takehome.cookiestore.exceptions.SourceException;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The pipelined counterpart of {@link Runner} for sources which can't be split into ranges like a memory mapped file
+ * can (see {@link ParallelRunner}), e.g. a compressed or piped log file. Instead of reading, parsing and counting on a
+ * single thread, the work is split into stages which run on their own threads, so that waiting for the data overlaps
+ * with parsing and counting:
+ * <ol>
+ *     <li>a reader thread pulls batches of lines from the source; a {@link CookieSource#isByteSource()} is read in
+ *     chunks of raw bytes instead, cut after their last newline, which the reader doesn't look into any further</li>
+ *     <li>parser threads turn the batches into compact (epoch day, cookie name) records, split up by the hash of the
+ *     cookie name into one batch per shard. The chunks of bytes are parsed like {@link CookieParser#nextBatch} does,
+ *     and their records only point at the name within the chunk rather than holding a String</li>
+ *     <li>sink threads, one per shard, count the records of their shard into their own partial (empty, but otherwise
+ *     alike) store, which interns the names of a chunk straight from its bytes; since the shards never share a cookie,
+ *     the partial stores are merged at the end without any contention while counting</li>
+ * </ol>
+ * The stages are connected by bounded queues of batches, so a slow stage makes the stages before it wait rather than
+ * the data piling up in memory. See {@link #metrics()} for finding out which stage is the bottleneck. The lines and the
+ * time spent on them are recorded into the {@link IngestMetrics#global()} metrics as well.
+ *
+ * For a sorted log file the result is exactly the same as the sequential run: the parsers drop the cookies older than
+ * the cutoff date and the reader stops once one of them has run into it.
+ */
+@Slf4j
+public class PipelinedRunner {
+
+    static final int DEFAULT_BATCH_SIZE = 4096;
+
+    /** About the length of a log line, which sizes the chunks of a byte source to roughly a batch worth of lines */
+    private static final int LINE_LENGTH_ESTIMATE = 64;
+
+    private final int parserThreads;
+
+    private final int shardCount;
+
+    private final int batchSize;
+
+    private final int queueCapacity;
+
+    private volatile PipelineMetrics metrics = new PipelineMetrics();
+
+    /**
+     * @param parserThreads The number of threads turning lines into cookie records
+     * @param shardCount The number of shards (and hence threads) the cookie records are counted in
+     */
+    public PipelinedRunner(int parserThreads, int shardCount) {
+        this(parserThreads, shardCount, DEFAULT_BATCH_SIZE, Math.max(4, 2 * parserThreads));
+    }
+
+    /**
+     * @param batchSize The number of lines the reader hands over to the parsers at once (for a byte source, the chunks
+     *                  are sized for about as many lines)
+     * @param queueCapacity The number of batches every queue can hold before its producers have to wait
+     */
+    PipelinedRunner(int parserThreads, int shardCount, int batchSize, int queueCapacity) {
+        if (parserThreads <= 0 || shardCount <= 0 || batchSize <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("The pipeline needs at least one thread per stage and non-empty batches " +
+                    "and queues, got %d parsers, %d shards, batches of %d and queues of %d".formatted(parserThreads,
+                    shardCount, batchSize, queueCapacity));
+        }
+        this.parserThreads = parserThreads;
+        this.shardCount = shardCount;
+        this.batchSize = batchSize;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * @return The metrics of the current (or else the last) run
+     */
+    public PipelineMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Ingest the remaining lines of the given source, whose headers are expected to have been validated already, and
+     * return the most active cookies for the target date.
+     */
+    public Set<String> run(CookieSource source, CookieStore store, LocalDate targetDate) {
+        new Run(source, store, targetDate).execute();
+        return store.mostActiveFor(targetDate);
+    }
+
+    /**
+     * Ingest the remaining lines of the given source once and return the most active cookies for all the target dates.
+     */
+    public SortedMap<LocalDate, SortedSet<String>> run(CookieSource source, CookieStore store,
+                                                       Collection<LocalDate> targetDates) {
+        new Run(source, store, Collections.min(targetDates)).execute();
+        return store.mostActiveFor(targetDates);
+    }
+
+    /** The state of a single run through the pipeline */
+    private final class Run {
+
+        private final CookieSource source;
+
+        private final CookieStore store;
+
+        private final long cutoffEpochDay;
+
+        private final BlockingQueue<LineBatch> lines = new ArrayBlockingQueue<>(queueCapacity);
+
+        private final List<BlockingQueue<RecordBatch>> records = new ArrayList<>();
+
+        private final List<CookieStore> shards = new ArrayList<>();
+
+        private final PipelineMetrics runMetrics = new PipelineMetrics();
+
+        private final IngestMetrics ingestMetrics = IngestMetrics.global();
+
+        private final Quarantine quarantine = Quarantine.global();
+
+        private volatile boolean cutoffReached;
+
+        private Run(CookieSource source, CookieStore store, LocalDate cutoffDate) {
+            this.source = source;
+            this.store = store;
+            this.cutoffEpochDay = cutoffDate.toEpochDay();
+            for (int i = 0; i < shardCount; ++i) {
+                records.add(new ArrayBlockingQueue<>(queueCapacity));
+                shards.add(store.createEmpty());
+            }
+        }
+
+        void execute() {
+            metrics = runMetrics;
+            var threads = Executors.newFixedThreadPool(1 + parserThreads + shardCount, daemonThreads());
+            CompletionService<Void> completion = new ExecutorCompletionService<>(threads);
+            var start = System.nanoTime();
+            try {
+                completion.submit(() -> read());
+                for (int i = 0; i < parserThreads; ++i) {
+                    completion.submit(() -> parse());
+                }
+                for (int i = 0; i < shardCount; ++i) {
+                    var shard = i;
+                    completion.submit(() -> sink(shard));
+                }
+                for (int i = 0; i < 1 + parserThreads + shardCount; ++i) {
+                    await(completion);
+                }
+            } finally {
+                threads.shutdownNow();
+                runMetrics.finish(System.nanoTime() - start);
+            }
+            shards.forEach(store::merge);
+            log.debug("{}", runMetrics);
+        }
+
+        private Void read() throws InterruptedException {
+            var stage = runMetrics.read();
+            if (source.isByteSource()) {
+                readChunks(stage);
+            } else {
+                readLines(stage);
+            }
+            for (int i = 0; i < parserThreads; ++i) {
+                put(lines, LineBatch.END, stage);
+            }
+            return null;
+        }
+
+        private void readLines(PipelineMetrics.Stage stage) throws InterruptedException {
+            var size = batchSize;
+            while (size == batchSize && !cutoffReached) {
+                var start = System.nanoTime();
+                var batch = new String[batchSize];
+                size = 0;
+                var chars = 0L;
+                for (String line; size < batchSize && (line = source.nextLine()) != null; ) {
+                    batch[size++] = line;
+                    chars += line.length() + 1;
+                }
+                var nanos = System.nanoTime() - start;
+                stage.processed(size, nanos);
+                ingestMetrics.read(size, chars);
+                ingestMetrics.timed(IngestMetrics.Stage.READ, nanos);
+                if (size > 0) {
+                    put(lines, LineBatch.ofLines(batch, size), stage);
+                }
+            }
+        }
+
+        /**
+         * Hand the bytes of the source over in chunks which end with a complete line. The lines are only counted by the
+         * parsers, so the items of the read stage are bytes here.
+         */
+        private void readChunks(PipelineMetrics.Stage stage) throws InterruptedException {
+            var chunkSize = batchSize * LINE_LENGTH_ESTIMATE;
+            // The incomplete line at the end of the previous chunk, which the next chunk starts with
+            var carry = new byte[0];
+            var drained = false;
+            while (!drained && !cutoffReached) {
+                var start = System.nanoTime();
+                var chunk = Arrays.copyOf(carry, carry.length < chunkSize ? chunkSize : grow(carry.length));
+                var size = carry.length;
+                while (size < chunk.length) {
+                    var n = source.read(chunk, size, chunk.length - size);
+                    if (n < 0) {
+                        drained = true;
+                        break;
+                    }
+                    size += n;
+                }
+                // The carried over bytes don't have a newline, otherwise they'd have gone out with the previous chunk
+                var end = drained ? size : lastNewline(chunk, carry.length, size) + 1;
+                carry = Arrays.copyOfRange(chunk, end, size);
+                var nanos = System.nanoTime() - start;
+                stage.processed(end, nanos);
+                ingestMetrics.timed(IngestMetrics.Stage.READ, nanos);
+                if (end > 0) {
+                    put(lines, LineBatch.ofBytes(chunk, end), stage);
+                }
+            }
+        }
+
+        private Void parse() throws InterruptedException {
+            var stage = runMetrics.parse();
+            var tally = new IngestMetrics.Tally();
+            var rows = new CookieBatch();
+            for (var batch = take(lines, stage); batch != LineBatch.END; batch = take(lines, stage)) {
+                var start = System.nanoTime();
+                var out = new RecordBatch[shardCount];
+                var parsed = batch.bytes() != null ? parseChunk(batch, rows, out) : parseLines(batch, tally, out);
+                var nanos = System.nanoTime() - start;
+                stage.processed(parsed, nanos);
+                tally.flushTo(ingestMetrics);
+                ingestMetrics.timed(IngestMetrics.Stage.PARSE, nanos);
+                for (int shard = 0; shard < shardCount; ++shard) {
+                    if (out[shard] != null) {
+                        put(records.get(shard), out[shard], stage);
+                    }
+                }
+            }
+            for (var queue : records) {
+                put(queue, RecordBatch.END, stage);
+            }
+            return null;
+        }
+
+        /** @return The number of cookies the lines were parsed into */
+        private int parseLines(LineBatch batch, IngestMetrics.Tally tally, RecordBatch[] out) {
+            var parsed = 0;
+            for (int i = 0; i < batch.size(); ++i) {
+                var info = CookieParser.parseOrReject(batch.lines()[i], tally, quarantine);
+                if (!info.isValid()) {
+                    continue;
+                }
+                var epochDay = TimestampParser.epochDayOf(info.getTimestamp().toEpochSecond());
+                if (epochDay < cutoffEpochDay) {
+                    cutoffReached = true;
+                    tally.skipped();
+                    continue;
+                }
+                var shard = shardOf(info.getName());
+                if (out[shard] == null) {
+                    out[shard] = RecordBatch.ofNames(batch.size() / shardCount + 16);
+                }
+                out[shard].add(info.getName(), epochDay);
+                tally.parsed();
+                ++parsed;
+            }
+            return parsed;
+        }
+
+        /**
+         * Parse a chunk of bytes through the given (reused) batch, leaving the names where they are in the chunk.
+         *
+         * @return The number of cookies the lines were parsed into
+         */
+        private int parseChunk(LineBatch chunk, CookieBatch rows, RecordBatch[] out) {
+            var data = chunk.bytes();
+            var parsed = 0;
+            for (int from = 0; from < chunk.size(); ) {
+                rows.reset(data);
+                var next = CookieParser.parseLines(data, from, chunk.size(), true, cutoffEpochDay, rows);
+                CookieParser.record(rows, next - from, ingestMetrics, quarantine);
+                for (int row = 0; row < rows.size(); ++row) {
+                    if (!rows.isValid(row)) {
+                        continue;
+                    }
+                    var shard = shardOf(data, rows.nameOffset(row), rows.nameLength(row));
+                    if (out[shard] == null) {
+                        out[shard] = RecordBatch.ofBytes(data, chunk.size() / LINE_LENGTH_ESTIMATE / shardCount + 16);
+                    }
+                    out[shard].add(rows.nameOffset(row), rows.nameLength(row), rows.epochDay(row));
+                    ++parsed;
+                }
+                if (rows.isCutoffReached()) {
+                    cutoffReached = true;
+                    break;
+                }
+                from = next;
+            }
+            return parsed;
+        }
+
+        private Void sink(int shard) throws InterruptedException {
+            var stage = runMetrics.sink();
+            var queue = records.get(shard);
+            var shardStore = shards.get(shard);
+            var rows = new CookieBatch();
+            // Every parser marks the end of its records separately
+            for (var ends = 0; ends < parserThreads; ) {
+                var batch = take(queue, stage);
+                if (batch == RecordBatch.END) {
+                    ++ends;
+                    continue;
+                }
+                var start = System.nanoTime();
+                if (batch.data != null) {
+                    addAll(shardStore, batch, rows);
+                } else {
+                    for (int i = 0; i < batch.size; ++i) {
+                        shardStore.addCookie(batch.names[i], batch.epochDays[i]);
+                    }
+                }
+                var nanos = System.nanoTime() - start;
+                stage.processed(batch.size, nanos);
+                ingestMetrics.timed(IngestMetrics.Stage.STORE, nanos);
+            }
+            return null;
+        }
+
+        private int shardOf(String name) {
+            return (name.hashCode() & Integer.MAX_VALUE) % shardCount;
+        }
+
+        private int shardOf(byte[] data, int offset, int length) {
+            var hash = 0;
+            for (int i = offset; i < offset + length; ++i) {
+                hash = 31 * hash + data[i];
+            }
+            return (hash & Integer.MAX_VALUE) % shardCount;
+        }
+    }
+
+    /** Add the records of a chunk through the given (reused) batch, so the store interns the names from the bytes */
+    private static void addAll(CookieStore store, RecordBatch records, CookieBatch rows) {
+        rows.reset(records.data);
+        for (int i = 0; i < records.size; ++i) {
+            if (rows.isFull()) {
+                store.addCookies(rows);
+                rows.reset(records.data);
+            }
+            rows.addValid(records.nameOffsets[i], records.nameLengths[i], records.epochDays[i]);
+        }
+        store.addCookies(rows);
+    }
+
+    private static int lastNewline(byte[] data, int from, int to) {
+        for (int i = to - 1; i >= from; --i) {
+            if (data[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** The size of the next chunk once a single line has filled up the current one */
+    private static int grow(int chunkSize) {
+        if (chunkSize >= CookieParser.MAX_LINE_LENGTH) {
+            throw new SourceException("Found a line longer than %d bytes".formatted(CookieParser.MAX_LINE_LENGTH), null);
+        }
+        return chunkSize * 2;
+    }
+
+    private static <T> void put(BlockingQueue<T> queue, T batch, PipelineMetrics.Stage stage) throws InterruptedException {
+        if (!queue.offer(batch)) {
+            var start = System.nanoTime();
+            queue.put(batch);
+            stage.blocked(System.nanoTime() - start);
+        }
+    }
+
+    private static <T> T take(BlockingQueue<T> queue, PipelineMetrics.Stage stage) throws InterruptedException {
+        var depth = queue.size();
+        var start = System.nanoTime();
+        var batch = queue.take();
+        stage.taken(depth, System.nanoTime() - start);
+        return batch;
+    }
+
+    private static void await(CompletionService<Void> completion) {
+        try {
+            completion.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the pipeline to finish", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static ThreadFactory daemonThreads() {
+        var count = new AtomicInteger();
+        return runnable -> {
+            var thread = new Thread(runnable, "cookie-pipeline-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * A batch handed over from the reader to the parsers: either size lines of a reader based source, or a chunk of a
+     * byte source whose first size bytes are complete lines.
+     */
+    private record LineBatch(String[] lines, byte[] bytes, int size) {
+
+        /** Marks the end of the batches, once for every parser */
+        static final LineBatch END = new LineBatch(new String[0], null, 0);
+
+        static LineBatch ofLines(String[] lines, int size) {
+            return new LineBatch(lines, null, size);
+        }
+
+        static LineBatch ofBytes(byte[] bytes, int size) {
+            return new LineBatch(null, bytes, size);
+        }
+    }
+
+    /**
+     * A batch of parsed cookies of a single shard, kept in columns instead of an object per cookie. The records parsed
+     * from a chunk of bytes point at their names within the chunk, the ones parsed from lines hold the names.
+     */
+    private static final class RecordBatch {
+
+        /** Marks the end of the records of a single parser */
+        static final RecordBatch END = ofNames(0);
+
+        /** The chunk the names are in, or null if the records hold the names */
+        private final byte[] data;
+
+        private String[] names;
+
+        private int[] nameOffsets;
+
+        private int[] nameLengths;
+
+        private int[] epochDays;
+
+        private int size;
+
+        private RecordBatch(byte[] data, int capacity) {
+            this.data = data;
+            if (data == null) {
+                names = new String[capacity];
+            } else {
+                nameOffsets = new int[capacity];
+                nameLengths = new int[capacity];
+            }
+            epochDays = new int[capacity];
+        }
+
+        static RecordBatch ofNames(int capacity) {
+            return new RecordBatch(null, capacity);
+        }
+
+        static RecordBatch ofBytes(byte[] data, int capacity) {
+            return new RecordBatch(data, capacity);
+        }
+
+        void add(String name, long epochDay) {
+            if (size == epochDays.length) {
+                grow();
+            }
+            names[size] = name;
+            epochDays[size++] = (int) epochDay;
+        }
+
+        void add(int nameOffset, int nameLength, int epochDay) {
+            if (size == epochDays.length) {
+                grow();
+            }
+            nameOffsets[size] = nameOffset;
+            nameLengths[size] = nameLength;
+            epochDays[size++] = epochDay;
+        }
+
+        private void grow() {
+            var capacity = size * 2;
+            if (data == null) {
+                names = Arrays.copyOf(names, capacity);
+            } else {
+                nameOffsets = Arrays.copyOf(nameOffsets, capacity);
+                nameLengths = Arrays.copyOf(nameLengths, capacity);
+            }
+            epochDays = Arrays.copyOf(epochDays, capacity);
+        }
+    }
+
+}
@@ -0,0 +1,227 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Where the malformed lines end up with `--rejects`: one per line, prefixed by the {@link MalformedReason#label()} of
+ * why it was rejected and a tab, for troubleshooting whatever produced them.
+ *
+ * A bad batch of lines must not slow the ingestion down, hence the parsers never wait for the file: the rejected lines
+ * are handed to a writer thread through a bounded queue, and once the queue is full (or the file can't be written to
+ * any more) further lines are only counted as dropped until the writer catches up. Closing the quarantine writes out
+ * whatever is still queued.
+ *
+ * The parsers send their rejects to the process wide {@link #global()} quarantine unless told otherwise, which
+ * discards them unless a file was opened with {@link #openGlobal(Path)}.
+ */
+@Slf4j
+public final class Quarantine implements AutoCloseable {
+
+    static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    /** The quarantine which throws every rejected line away */
+    static final Quarantine DISCARD = new Quarantine();
+
+    /** Tells the writer that nothing more is coming */
+    private static final Reject END = new Reject(null, null);
+
+    private static final AtomicReference<Quarantine> GLOBAL = new AtomicReference<>(DISCARD);
+
+    private final Path file;
+
+    private final Writer out;
+
+    private final BlockingQueue<Reject> queue;
+
+    private final Thread writer;
+
+    private final LongAdder written = new LongAdder();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private volatile boolean failed;
+
+    private Quarantine() {
+        file = null;
+        out = null;
+        queue = null;
+        writer = null;
+    }
+
+    /**
+     * Create (or truncate) the given file and start writing the rejected lines into it.
+     *
+     * @param capacity The number of rejected lines which can be queued before further ones are dropped
+     * @throws UncheckedIOException If the file can't be created
+     */
+    Quarantine(Path file, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The quarantine capacity should be positive, got %d".formatted(capacity));
+        }
+        try {
+            out = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create the rejects file %s".formatted(file), e);
+        }
+        this.file = file;
+        queue = new ArrayBlockingQueue<>(capacity);
+        writer = new Thread(this::drain, "quarantine-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * @return The quarantine the parsers send their rejected lines to by default
+     */
+    public static Quarantine global() {
+        return GLOBAL.get();
+    }
+
+    /**
+     * Open the given file as the {@link #global()} quarantine until it's closed.
+     *
+     * @throws UncheckedIOException If the file can't be created
+     */
+    public static Quarantine openGlobal(Path file) {
+        var quarantine = new Quarantine(file, DEFAULT_CAPACITY);
+        GLOBAL.set(quarantine);
+        return quarantine;
+    }
+
+    /**
+     * @return Whether the rejected lines are kept at all, so that the callers can skip decoding them otherwise
+     */
+    boolean isEnabled() {
+        return queue != null;
+    }
+
+    /**
+     * Queue the given line for the file, or drop it if the queue is full. This never blocks.
+     */
+    void reject(MalformedReason reason, CharSequence line) {
+        if (queue == null) {
+            return;
+        }
+        if (failed || closed.get() || !queue.offer(new Reject(reason, line.toString()))) {
+            dropped.increment();
+        }
+    }
+
+    /** The number of rejected lines written to the file so far */
+    long written() {
+        return written.sum();
+    }
+
+    /** The number of rejected lines which didn't make it into the file */
+    long dropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Write out the lines still queued and close the file; the {@link #global()} quarantine discards everything again
+     * if this was it.
+     */
+    @Override
+    public void close() {
+        if (queue == null || !closed.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            // The writer keeps taking lines off the queue even if it failed, so this won't block for long
+            queue.put(END);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        GLOBAL.compareAndSet(this, DISCARD);
+        log.debug("Wrote {} rejected lines into {}", written(), file);
+        if (dropped() > 0) {
+            log.warn("Dropped {} rejected lines which couldn't be written to {} in time", dropped(), file);
+        }
+    }
+
+    private void drain() {
+        var pending = new ArrayList<Reject>();
+        try {
+            while (true) {
+                pending.add(queue.take());
+                queue.drainTo(pending);
+                for (var reject : pending) {
+                    if (reject == END) {
+                        closeQuietly();
+                        return;
+                    }
+                    write(reject);
+                }
+                pending.clear();
+                flush();
+            }
+        } catch (InterruptedException e) {
+            // Nobody else interrupts the writer, so this is the JVM going down with the file as written so far
+            closeQuietly();
+        }
+    }
+
+    private void write(Reject reject) {
+        if (failed) {
+            dropped.increment();
+            return;
+        }
+        try {
+            out.write(reject.reason().label());
+            out.write('\t');
+            out.write(reject.line());
+            out.write('\n');
+            written.increment();
+        } catch (IOException e) {
+            fail(e);
+            dropped.increment();
+        }
+    }
+
+    private void flush() {
+        if (failed) {
+            return;
+        }
+        try {
+            // Lets a followed log file's rejects show up as they happen
+            out.flush();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void fail(IOException e) {
+        if (!failed) {
+            failed = true;
+            log.warn("Failed to write to the rejects file {}, dropping the rejected lines from now on: {}", file, e.getMessage());
+        }
+    }
+
+    private record Reject(MalformedReason reason, String line) {
+    }
+
+}
@@ -3,7 +3,10 @@ package net.sanjayts.quantcast.takehome.cookiestore.core;
 import lombok.extern.slf4j.Slf4j;
 
 import java.time.LocalDate;
+import java.util.Collection;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
 
 /**
  * The runner code responsible for orchestrating the entire program flow. This class receives the front-loaded
@@ -17,11 +20,36 @@ import java.util.Set;
 @Slf4j
 public class Runner {
 
-    public Set<String> run(CookieParser parser, CookieDataStore store, LocalDate targetDate) {
-        parser.cookieInfoStream().forEach(ci -> {
-           store.addCookie(ci);
-        });
+    public Set<String> run(CookieParser parser, CookieStore store, LocalDate targetDate) {
+        ingest(parser, store);
         return store.mostActiveFor(targetDate);
     }
 
+    /**
+     * Ingest the parser data once and answer the most active cookies for all the target dates. The parser is expected
+     * to have been created with the oldest target date as its cutoff date.
+     */
+    public SortedMap<LocalDate, SortedSet<String>> run(CookieParser parser, CookieStore store,
+                                                       Collection<LocalDate> targetDates) {
+        ingest(parser, store);
+        return store.mostActiveFor(targetDates);
+    }
+
+    /**
+     * Feed everything the parser has to offer into the store, in batches if the parser supports it and one cookie at a
+     * time otherwise.
+     */
+    static void ingest(CookieParser parser, CookieStore store) {
+        if (parser.isBatchCapable()) {
+            var batch = new CookieBatch();
+            while (parser.nextBatch(batch)) {
+                var start = System.nanoTime();
+                store.addCookies(batch);
+                parser.metrics().timed(IngestMetrics.Stage.STORE, System.nanoTime() - start);
+            }
+        } else {
+            parser.cookieInfoStream().forEach(store::addCookie);
+        }
+    }
+
 }
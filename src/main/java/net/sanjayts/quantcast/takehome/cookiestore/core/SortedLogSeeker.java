@@ -0,0 +1,149 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import net.sanjayts.quantcast.takehome.cookiestore.exceptions.SourceException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Locates lines in a log file which is sorted in descending timestamp order by binary searching over the raw byte
+ * offsets of the file. A probe at an arbitrary offset re-syncs to the start of the next line and reads the first
+ * well-formed line from there, which means a search costs O(log(file size)) small positional reads irrespective of
+ * where the requested date lies in the file.
+ *
+ * Like the rest of the program, this relies on the log file being sorted; an unsorted file will simply produce
+ * nonsensical offsets.
+ */
+class SortedLogSeeker implements Closeable {
+
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
+    private final FileChannel channel;
+
+    private final long size;
+
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+    SortedLogSeeker(Path path) {
+        try {
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            this.size = channel.size();
+        } catch (IOException e) {
+            String msg = String.format("Unexpected error encountered when opening cookie source %s -- %s", path, e.getMessage());
+            throw new SourceException(msg, e);
+        }
+    }
+
+    /**
+     * Find the offset of the first line at or after `from` whose date is on or before the given epoch day. All
+     * well-formed lines before the returned offset are guaranteed to be newer than the given day.
+     *
+     * @param from The offset of the first line to be considered (e.g. the line right after the headers)
+     * @return The offset of the matching line or the file size if no such line exists
+     */
+    long firstLineOnOrBefore(long from, long epochDay) {
+        long lo = from;
+        long hi = size;
+        while (lo < hi) {
+            long mid = lo + (hi - lo) / 2;
+            if (firstEpochDayFrom(from, mid) <= epochDay) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lineStartAtOrAfter(from, lo);
+    }
+
+    /**
+     * Find the offset of the first line at or after `from` whose date is before the given epoch day.
+     */
+    long firstLineBefore(long from, long epochDay) {
+        return firstLineOnOrBefore(from, epochDay - 1);
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            String msg = String.format("Unexpected error encountered when closing the cookie source -- %s", e.getMessage());
+            throw new SourceException(msg, e);
+        }
+    }
+
+    /**
+     * The epoch day of the first well-formed line starting at or after the given offset; EOF is treated as being older
+     * than any date.
+     */
+    private long firstEpochDayFrom(long from, long offset) {
+        var lineStart = lineStartAtOrAfter(from, offset);
+        while (lineStart < size) {
+            var lineEnd = readLine(lineStart);
+            var info = CookieParser.parseInfo(decodeBuffer());
+            if (info.isValid()) {
+                return info.getTimestamp().toLocalDate().toEpochDay();
+            }
+            lineStart = lineEnd + 1;
+        }
+        return Long.MIN_VALUE;
+    }
+
+    /**
+     * The offset of the first line which starts at or after the given offset, never going below `from`.
+     */
+    long lineStartAtOrAfter(long from, long offset) {
+        if (offset <= from) {
+            return from;
+        }
+        // An offset is a line start if the byte right before it is a newline, hence we read from one byte behind
+        return Math.min(readLine(offset - 1) + 1, size);
+    }
+
+    /**
+     * Read the bytes from the given offset up to the next newline (or EOF) into our buffer.
+     *
+     * @return The offset of the terminating newline or the file size if we hit EOF
+     */
+    private long readLine(long offset) {
+        buffer.clear();
+        var position = offset;
+        try {
+            while (true) {
+                var scanFrom = buffer.position();
+                var read = channel.read(buffer, position);
+                if (read < 0) {
+                    buffer.flip();
+                    return size;
+                }
+                position += read;
+                for (int i = scanFrom; i < buffer.position(); ++i) {
+                    if (buffer.get(i) == '\n') {
+                        buffer.limit(i).position(0);
+                        return offset + i;
+                    }
+                }
+                if (!buffer.hasRemaining()) {
+                    buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer.flip());
+                }
+            }
+        } catch (IOException e) {
+            String msg = String.format("Unexpected error encountered when reading cookie source data -- %s", e.getMessage());
+            throw new SourceException(msg, e);
+        }
+    }
+
+    private String decodeBuffer() {
+        var end = buffer.limit();
+        if (end > 0 && buffer.get(end - 1) == '\r') {
+            --end;
+        }
+        return new String(buffer.array(), 0, end, StandardCharsets.UTF_8);
+    }
+
+}
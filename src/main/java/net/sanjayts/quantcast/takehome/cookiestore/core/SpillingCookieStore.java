@@ -0,0 +1,608 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import net.sanjayts.quantcast.takehome.cookiestore.exceptions.SpillException;
+import net.sanjayts.quantcast.takehome.cookiestore.model.CookieCount;
+import net.sanjayts.quantcast.takehome.cookiestore.model.CookieInfo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An exact cookie store for logs whose days have more unique cookies than fit in the heap. The counts are collected in
+ * memory just like {@link CookieDataStore} does, but once their estimated size crosses the memory threshold they are
+ * spilled to disk and the memory is started afresh.
+ *
+ * A spill hash-partitions the cookies of every day by name and writes every partition as a run file in which each
+ * day's (name, count) pairs are sorted by name. A query for a day then merges the day's runs of one partition at a time
+ * with a k-way merge (together with what's still in memory), which adds up the partial counts of a cookie since they
+ * all meet at the same position of the merge. Since a cookie always lands in the same partition, the partitions never
+ * have to be combined and looking up a single cookie only has to read its own partition.
+ *
+ * The run files live in a temporary directory which is removed when the store is closed. Stores created through
+ * {@link #createEmpty()} share that directory (their runs can be merged without copying) and are cleaned up along with
+ * the store they were created from.
+ */
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+@Slf4j
+public class SpillingCookieStore implements CookieStore, Closeable {
+
+    /** A rough estimate of the heap used per (day, cookie) count: the counter arrays, index slot and bucket share */
+    static final int BYTES_PER_ENTRY = 48;
+
+    /** A rough estimate of the heap used per distinct name in the dictionary, for 16 character names */
+    static final int BYTES_PER_NAME = 64;
+
+    static final int DEFAULT_PARTITIONS = 16;
+
+    private final SpillDirectory spillDirectory;
+
+    private final long memoryThreshold;
+
+    private final int partitions;
+
+    private final boolean ownsDirectory;
+
+    private final Map<Long, List<Segment>> segments = new HashMap<>();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** Hands out the order in which the locks of two stores are taken when one is merged into the other */
+    private static final AtomicLong LOCK_ORDER = new AtomicLong();
+
+    private final long lockOrder = LOCK_ORDER.incrementAndGet();
+
+    private Map<Long, CookieCounter> datedCookies = new HashMap<>();
+
+    private CookieDictionary dictionary = new CookieDictionary();
+
+    private long entries;
+
+    private int spills;
+
+    private long lastEpochDay = Long.MIN_VALUE;
+
+    private CookieCounter lastCounter;
+
+    /**
+     * @param parentDir The directory in which the temporary directory for the run files is created
+     * @param memoryThreshold The approximate number of bytes of heap the in-memory counts may use before being spilled
+     */
+    public static SpillingCookieStore create(Path parentDir, long memoryThreshold) {
+        return create(parentDir, memoryThreshold, DEFAULT_PARTITIONS);
+    }
+
+    static SpillingCookieStore create(Path parentDir, long memoryThreshold, int partitions) {
+        if (memoryThreshold <= 0 || partitions <= 0) {
+            throw new IllegalArgumentException("The memory threshold and partitions should be positive, got %d and %d"
+                    .formatted(memoryThreshold, partitions));
+        }
+        try {
+            var dir = Files.createTempDirectory(parentDir, "cookie-spill");
+            log.debug("Spilling cookie counts above {} bytes to {}", memoryThreshold, dir);
+            return new SpillingCookieStore(new SpillDirectory(dir), memoryThreshold, partitions, true);
+        } catch (IOException e) {
+            throw new SpillException("Failed to create a spill directory in %s".formatted(parentDir), e);
+        }
+    }
+
+    @Override
+    public void addCookie(CookieInfo info) {
+        addCookie(info.getName(), TimestampParser.epochDayOf(info.getTimestamp().toEpochSecond()));
+    }
+
+    @Override
+    public void addCookie(String name, long epochDay) {
+        lock.writeLock().lock();
+        try {
+            if (counterFor(epochDay).add(dictionary.intern(name), 1) == 1) {
+                ++entries;
+                spillIfNeeded();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Set<String> mostActiveFor(LocalDate date) {
+        log.debug("Most active cookie requested for date {}", date);
+        lock.readLock().lock();
+        try {
+            var leaders = new HashSet<String>();
+            var max = new int[1];
+            forEachMerged(date.toEpochDay(), null, (name, count) -> {
+                if (count > max[0]) {
+                    max[0] = count;
+                    leaders.clear();
+                }
+                if (count == max[0]) {
+                    leaders.add(new String(name, StandardCharsets.UTF_8));
+                }
+            });
+            return leaders;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<CookieCount> topK(LocalDate date, int k) {
+        log.debug("Top {} cookies requested for date {}", k, date);
+        if (k <= 0) {
+            throw new IllegalArgumentException("The number of cookies requested should be positive, got %d".formatted(k));
+        }
+        Comparator<Candidate> byRank = Comparator.comparingInt(Candidate::count).reversed()
+                .thenComparing(Candidate::name, Arrays::compareUnsigned);
+        lock.readLock().lock();
+        try {
+            // A bounded heap whose head is the weakest of the K best candidates so far
+            var best = new PriorityQueue<Candidate>(Math.min(k, 1024) + 1, byRank.reversed());
+            forEachMerged(date.toEpochDay(), null, (name, count) -> {
+                best.add(new Candidate(name, count));
+                if (best.size() > k) {
+                    best.poll();
+                }
+            });
+            var result = new ArrayList<Candidate>(best);
+            result.sort(byRank);
+            return result.stream().map(c -> new CookieCount(new String(c.name(), StandardCharsets.UTF_8), c.count())).toList();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int countOf(LocalDate date, String cookie) {
+        var bytes = cookie.getBytes(StandardCharsets.UTF_8);
+        lock.readLock().lock();
+        try {
+            var result = new int[1];
+            forEachMerged(date.toEpochDay(), partitionOf(CookieDictionary.hash(bytes, 0, bytes.length)), (name, count) -> {
+                if (Arrays.equals(name, bytes)) {
+                    result[0] = count;
+                }
+            });
+            return result[0];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int uniqueCookies(LocalDate date) {
+        lock.readLock().lock();
+        try {
+            // Counted during the merge, unlike the default which would hold all the day's cookies in a heap
+            var result = new int[1];
+            forEachMerged(date.toEpochDay(), null, (name, count) -> ++result[0]);
+            return result[0];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public SortedSet<LocalDate> dates() {
+        lock.readLock().lock();
+        try {
+            var dates = new TreeSet<LocalDate>();
+            datedCookies.keySet().forEach(epochDay -> dates.add(LocalDate.ofEpochDay(epochDay)));
+            segments.keySet().forEach(epochDay -> dates.add(LocalDate.ofEpochDay(epochDay)));
+            return dates;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Merge another spilling store which was created through {@link #createEmpty()} from the same store (or from this
+     * one). Its run files are shared rather than copied, only its in-memory counts are added to this store.
+     */
+    @Override
+    public void merge(CookieStore otherStore) {
+        if (!(otherStore instanceof SpillingCookieStore other) || other.spillDirectory != spillDirectory
+                || other.partitions != partitions) {
+            throw new IllegalArgumentException("Only spilling stores sharing the spill directory %s can be merged, got %s"
+                    .formatted(spillDirectory.dir(), otherStore));
+        }
+        if (other == this) {
+            throw new IllegalArgumentException("A store can't be merged into itself");
+        }
+        // Taken in a fixed order like CookieDataStore does, so that merges in both directions can't deadlock
+        Lock first = lockOrder < other.lockOrder ? lock.writeLock() : other.lock.readLock();
+        Lock second = lockOrder < other.lockOrder ? other.lock.readLock() : lock.writeLock();
+        first.lock();
+        second.lock();
+        try {
+            log.debug("Merging {} spilled and {} in-memory dates into the spilling cookie store",
+                    other.segments.size(), other.datedCookies.size());
+            other.segments.forEach((epochDay, daySegments) ->
+                    segments.computeIfAbsent(epochDay, d -> new ArrayList<>()).addAll(daySegments));
+            other.datedCookies.forEach((epochDay, counts) -> counts.forEach((otherId, count) -> {
+                // Not cached per name since a spill in between starts a new dictionary
+                if (counterFor(epochDay).add(dictionary.intern(other.dictionary, otherId), count) == count) {
+                    ++entries;
+                    spillIfNeeded();
+                }
+            }));
+        } finally {
+            second.unlock();
+            first.unlock();
+        }
+    }
+
+    @Override
+    public SpillingCookieStore createEmpty() {
+        return new SpillingCookieStore(spillDirectory, memoryThreshold, partitions, false);
+    }
+
+    /** The number of times the in-memory counts were spilled to disk */
+    public int spillCount() {
+        lock.readLock().lock();
+        try {
+            return spills;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Remove the run files, unless they belong to the store this one was created from
+     */
+    @Override
+    public void close() {
+        if (!ownsDirectory) {
+            return;
+        }
+        try {
+            for (var file : runFiles()) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(spillDirectory.dir());
+        } catch (IOException e) {
+            log.warn("Failed to clean up the spill directory {}: {}", spillDirectory.dir(), e.getMessage());
+        }
+    }
+
+    private List<Path> runFiles() {
+        var files = spillDirectory.dir().toFile().listFiles();
+        return files == null ? List.of() : Arrays.stream(files).map(File::toPath).toList();
+    }
+
+    @Override
+    public String toString() {
+        return "SpillingCookieStore(dir=" + spillDirectory.dir() + ")";
+    }
+
+    private CookieCounter counterFor(long epochDay) {
+        if (epochDay != lastEpochDay) {
+            lastCounter = datedCookies.computeIfAbsent(epochDay, d -> new CookieCounter());
+            lastEpochDay = epochDay;
+        }
+        return lastCounter;
+    }
+
+    private void spillIfNeeded() {
+        if (entries * BYTES_PER_ENTRY + (long) dictionary.size() * BYTES_PER_NAME >= memoryThreshold) {
+            spill();
+        }
+    }
+
+    /**
+     * Write every partition of the in-memory counts to a run file of its own, with every day's cookies sorted by name,
+     * and start over with an empty memory.
+     */
+    private void spill() {
+        log.debug("Spilling {} cookie counts of {} dates", entries, datedCookies.size());
+        var files = new Path[partitions];
+        var outs = new DataOutputStream[partitions];
+        var offsets = new long[partitions];
+        try {
+            for (int p = 0; p < partitions; ++p) {
+                files[p] = spillDirectory.newRunFile(p);
+                outs[p] = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(files[p]), 1 << 16));
+            }
+            for (var epochDay : new TreeSet<>(datedCookies.keySet())) {
+                // Only one day is split up and sorted at a time so that the spill itself needs little extra memory
+                var counter = datedCookies.get(epochDay);
+                var ids = idsByPartition(counter, null);
+                for (int p = 0; p < partitions; ++p) {
+                    if (ids.get(p).isEmpty()) {
+                        continue;
+                    }
+                    segments.computeIfAbsent(epochDay, d -> new ArrayList<>())
+                            .add(new Segment(files[p], p, offsets[p], ids.get(p).size()));
+                    for (var id : ids.get(p)) {
+                        var name = dictionary.bytesOf(id);
+                        // An int rather than a short, since no name may be cut short without corrupting the run
+                        outs[p].writeInt(name.length);
+                        outs[p].write(name);
+                        outs[p].writeInt(counter.countOf(id));
+                        offsets[p] += Integer.BYTES + name.length + Integer.BYTES;
+                    }
+                }
+            }
+            for (int p = 0; p < partitions; ++p) {
+                // Closed here rather than in the finally block, so that a failing flush fails the spill
+                outs[p].close();
+                outs[p] = null;
+            }
+        } catch (IOException e) {
+            throw new SpillException("Failed to write the run files to %s".formatted(spillDirectory.dir()), e);
+        } finally {
+            for (var out : outs) {
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (IOException e) {
+                        log.warn("Failed to close a run file: {}", e.getMessage());
+                    }
+                }
+            }
+        }
+
+        datedCookies = new HashMap<>();
+        dictionary = new CookieDictionary();
+        entries = 0;
+        lastEpochDay = Long.MIN_VALUE;
+        lastCounter = null;
+        ++spills;
+    }
+
+    /**
+     * The ids of the given counter split up by partition in a single pass over the counter, each partition in name
+     * order.
+     *
+     * @param onlyPartition The only partition to be filled in, or null for all of them
+     */
+    private List<List<Integer>> idsByPartition(CookieCounter counter, Integer onlyPartition) {
+        var ids = new ArrayList<List<Integer>>(partitions);
+        for (int p = 0; p < partitions; ++p) {
+            ids.add(new ArrayList<>());
+        }
+        counter.forEach((id, count) -> {
+            var p = partitionOf(dictionary.hashOf(id));
+            if (onlyPartition == null || onlyPartition == p) {
+                ids.get(p).add(id);
+            }
+        });
+        ids.forEach(partition -> partition.sort(dictionary::compare));
+        return ids;
+    }
+
+    private int partitionOf(int hash) {
+        return Math.floorMod(hash, partitions);
+    }
+
+    /**
+     * Feed the total count of every cookie of the given day to the consumer (in name order within each partition), by
+     * k-way merging the spilled runs and the in-memory counts partition by partition.
+     *
+     * @param onlyPartition The only partition to be merged, or null for all of them
+     */
+    private void forEachMerged(long epochDay, Integer onlyPartition, MergedConsumer consumer) {
+        var daySegments = segments.getOrDefault(epochDay, Collections.emptyList());
+        var counter = datedCookies.get(epochDay);
+        var memoryIds = counter == null ? null : idsByPartition(counter, onlyPartition);
+        for (int p = 0; p < partitions; ++p) {
+            if (onlyPartition != null && onlyPartition != p) {
+                continue;
+            }
+            var cursors = new ArrayList<Cursor>();
+            try {
+                for (var segment : daySegments) {
+                    if (segment.partition() == p) {
+                        cursors.add(new SegmentCursor(segment));
+                    }
+                }
+                if (memoryIds != null && !memoryIds.get(p).isEmpty()) {
+                    cursors.add(new MemoryCursor(memoryIds.get(p), counter, dictionary));
+                }
+                merge(cursors, consumer);
+            } catch (IOException e) {
+                throw new SpillException("Failed to read the run files of partition %d".formatted(p), e);
+            } finally {
+                closeAll(cursors);
+            }
+        }
+    }
+
+    /** The k-way merge of sorted cursors, which sums up the counts of the same name across cursors */
+    private static void merge(List<Cursor> cursors, MergedConsumer consumer) throws IOException {
+        var heap = new PriorityQueue<Cursor>(Math.max(1, cursors.size()),
+                (c1, c2) -> Arrays.compareUnsigned(c1.name(), c2.name()));
+        for (var cursor : cursors) {
+            if (cursor.advance()) {
+                heap.add(cursor);
+            }
+        }
+        while (!heap.isEmpty()) {
+            var cursor = heap.poll();
+            var name = cursor.name();
+            var count = cursor.count();
+            if (cursor.advance()) {
+                heap.add(cursor);
+            }
+            while (!heap.isEmpty() && Arrays.equals(heap.peek().name(), name)) {
+                var same = heap.poll();
+                count += same.count();
+                if (same.advance()) {
+                    heap.add(same);
+                }
+            }
+            consumer.accept(name, count);
+        }
+    }
+
+    private static void closeAll(List<Cursor> cursors) {
+        for (var cursor : cursors) {
+            try {
+                cursor.close();
+            } catch (IOException e) {
+                log.warn("Failed to close a run file: {}", e.getMessage());
+            }
+        }
+    }
+
+    /** Receives the name and the total count of every cookie of a day */
+    @FunctionalInterface
+    private interface MergedConsumer {
+        void accept(byte[] name, int count);
+    }
+
+    /** A (day, partition) slice of a run file */
+    private record Segment(Path file, int partition, long offset, int entries) {}
+
+    private record Candidate(byte[] name, int count) {}
+
+    /** The temporary directory of the run files, shared by a store and the stores created from it */
+    private record SpillDirectory(Path dir, AtomicInteger runs) {
+
+        SpillDirectory(Path dir) {
+            this(dir, new AtomicInteger());
+        }
+
+        Path newRunFile(int partition) {
+            return dir.resolve("run-%d-p%d.bin".formatted(runs.incrementAndGet(), partition));
+        }
+
+    }
+
+    /** Walks the (name, count) pairs of a day in name order */
+    private interface Cursor extends Closeable {
+
+        /** Move to the next pair, returning false if there is none */
+        boolean advance() throws IOException;
+
+        byte[] name();
+
+        int count();
+
+    }
+
+    private static final class SegmentCursor implements Cursor {
+
+        private final DataInputStream in;
+
+        private int remaining;
+
+        private byte[] name;
+
+        private int count;
+
+        SegmentCursor(Segment segment) throws IOException {
+            var channel = FileChannel.open(segment.file());
+            try {
+                channel.position(segment.offset());
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            this.in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+            this.remaining = segment.entries();
+        }
+
+        @Override
+        public boolean advance() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            --remaining;
+            name = new byte[in.readInt()];
+            in.readFully(name);
+            count = in.readInt();
+            return true;
+        }
+
+        @Override
+        public byte[] name() {
+            return name;
+        }
+
+        @Override
+        public int count() {
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+    }
+
+    private static final class MemoryCursor implements Cursor {
+
+        private final List<Integer> ids;
+
+        private final CookieCounter counter;
+
+        private final CookieDictionary dictionary;
+
+        private int position = -1;
+
+        private byte[] name;
+
+        MemoryCursor(List<Integer> ids, CookieCounter counter, CookieDictionary dictionary) {
+            this.ids = ids;
+            this.counter = counter;
+            this.dictionary = dictionary;
+        }
+
+        @Override
+        public boolean advance() {
+            if (++position >= ids.size()) {
+                return false;
+            }
+            name = dictionary.bytesOf(ids.get(position));
+            return true;
+        }
+
+        @Override
+        public byte[] name() {
+            return name;
+        }
+
+        @Override
+        public int count() {
+            return counter.countOf(ids.get(position));
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+}
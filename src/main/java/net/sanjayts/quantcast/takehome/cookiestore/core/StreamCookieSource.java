@@ -0,0 +1,133 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import net.sanjayts.quantcast.takehome.cookiestore.exceptions.SourceException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A cookie source which reads the raw bytes of a stream, e.g. a pipe or a log file being decompressed, as opposed to
+ * the reader based source which decodes every byte into a (twice as big) char before the parser gets to see it. The
+ * cookie names and timestamps of a log are plain ASCII, which the batch parser works on directly (see
+ * {@link CookieParser#nextBatch(CookieBatch)}) and the store interns as bytes, so a name only becomes a String when it
+ * makes it into an answer. The odd line with non-ASCII bytes is just as fine: the bytes are UTF-8, which the parser
+ * and the store only decode for the fields which have such bytes.
+ *
+ * {@link #nextLine()} is still supported (used for reading the headers and by the line based consumers), decoding the
+ * line as UTF-8. Only '\n' and "\r\n" are treated as line terminators, like the memory mapped source does.
+ */
+public class StreamCookieSource extends CookieSource {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream in;
+
+    /** The bytes read ahead for {@link #nextLine()}, of which [position, limit) haven't been handed out yet */
+    private byte[] buffer = new byte[BUFFER_SIZE];
+
+    private int position;
+
+    private int limit;
+
+    private boolean drained;
+
+    public StreamCookieSource(InputStream in) {
+        this.in = in;
+    }
+
+    @Override
+    public String nextLine() {
+        var newline = indexOfNewline(position);
+        while (newline < 0 && !drained) {
+            // Only the bytes read by the fill still need to be searched
+            var searched = limit - position;
+            fillBuffer();
+            newline = indexOfNewline(position + searched);
+        }
+        if (newline < 0 && position == limit) {
+            return null;
+        }
+        var lineEnd = newline < 0 ? limit : newline;
+        var next = newline < 0 ? limit : newline + 1;
+        if (lineEnd > position && buffer[lineEnd - 1] == '\r') {
+            --lineEnd;
+        }
+        var line = new String(buffer, position, lineEnd - position, StandardCharsets.UTF_8);
+        position = next;
+        return line;
+    }
+
+    @Override
+    public boolean isByteSource() {
+        return true;
+    }
+
+    @Override
+    public int read(byte[] dst, int offset, int length) {
+        if (position < limit) {
+            // Whatever nextLine() has read ahead comes first
+            var n = Math.min(length, limit - position);
+            System.arraycopy(buffer, position, dst, offset, n);
+            position += n;
+            return n;
+        }
+        if (drained) {
+            return -1;
+        }
+        try {
+            var n = in.read(dst, offset, length);
+            if (n < 0) {
+                drained = true;
+            }
+            return n;
+        } catch (IOException e) {
+            throw new SourceException("Unexpected error encountered when reading cookie source data -- %s"
+                    .formatted(e.getMessage()), e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            in.close();
+        } catch (IOException e) {
+            throw new SourceException("Unexpected error encountered when closing the cookie source -- %s"
+                    .formatted(e.getMessage()), e);
+        }
+    }
+
+    private int indexOfNewline(int from) {
+        for (int i = from; i < limit; ++i) {
+            if (buffer[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Read more bytes after [position, limit), moving those to the front or growing the buffer to make room */
+    private void fillBuffer() {
+        var remaining = limit - position;
+        if (remaining == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        } else if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, remaining);
+        }
+        position = 0;
+        limit = remaining;
+        try {
+            var n = in.read(buffer, limit, buffer.length - limit);
+            if (n < 0) {
+                drained = true;
+            } else {
+                limit += n;
+            }
+        } catch (IOException e) {
+            throw new SourceException("Unexpected error encountered when reading cookie source data -- %s"
+                    .formatted(e.getMessage()), e);
+        }
+    }
+
+}
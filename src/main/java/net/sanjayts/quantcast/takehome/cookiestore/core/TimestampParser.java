@@ -0,0 +1,241 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+/**
+ * A hand-rolled parser for the ISO offset timestamps found in our cookie logs (e.g. 2018-12-09T14:19:00+01:00). This
+ * exists purely for performance reasons -- going through `ZonedDateTime.parse` for every line means a bunch of
+ * intermediate objects per line and an exception for every malformed one, which ends up dominating the run time.
+ *
+ * The accepted layout is `yyyy-MM-ddTHH:mm[:ss[.fffffffff]](Z|±HH[:MM[:ss]])` which is the subset of
+ * ISO_OFFSET_DATE_TIME one can expect in practice. The date and time fields are validated with the same strictness as
+ * java.time (e.g. 2018-02-30 is rejected) but fractional seconds are dropped since we only care about second
+ * granularity. Malformed input is reported using the {@link #INVALID} sentinel instead of an exception.
+ */
+final class TimestampParser {
+
+    /** The sentinel returned for input which doesn't conform to the expected layout */
+    static final long INVALID = Long.MIN_VALUE;
+
+    static final int SECONDS_PER_DAY = 86_400;
+
+    private static final int MAX_OFFSET_SECONDS = 18 * 3600;
+
+    private TimestampParser() {
+    }
+
+    /**
+     * Parse the timestamp in the region [from, to) of the given text into the number of seconds since the epoch.
+     *
+     * @return The epoch seconds or {@link #INVALID} if the text is not a valid timestamp
+     */
+    static long parseEpochSecond(CharSequence text, int from, int to) {
+        // The shortest valid timestamp is yyyy-MM-ddTHH:mmZ
+        if (to - from < 17) {
+            return INVALID;
+        }
+        var year = digits(text, from, 4);
+        var month = digits(text, from + 5, 2);
+        var day = digits(text, from + 8, 2);
+        var hour = digits(text, from + 11, 2);
+        var minute = digits(text, from + 14, 2);
+        if ((year | month | day | hour | minute) < 0
+                || text.charAt(from + 4) != '-' || text.charAt(from + 7) != '-'
+                || (text.charAt(from + 10) | 0x20) != 't' || text.charAt(from + 13) != ':') {
+            return INVALID;
+        }
+        if (month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month) || hour > 23 || minute > 59) {
+            return INVALID;
+        }
+
+        var pos = from + 16;
+        var second = 0;
+        if (pos < to && text.charAt(pos) == ':') {
+            second = pos + 3 <= to ? digits(text, pos + 1, 2) : -1;
+            if (second < 0 || second > 59) {
+                return INVALID;
+            }
+            pos += 3;
+            if (pos < to && text.charAt(pos) == '.') {
+                var fractionStart = ++pos;
+                while (pos < to && isDigit(text.charAt(pos))) {
+                    ++pos;
+                }
+                if (pos - fractionStart > 9) {
+                    return INVALID;
+                }
+            }
+        }
+
+        var offset = parseOffsetSeconds(text, pos, to);
+        if (offset == INVALID) {
+            return INVALID;
+        }
+        return epochDay(year, month, day) * SECONDS_PER_DAY + hour * 3600L + minute * 60L + second - offset;
+    }
+
+    /**
+     * The byte (ASCII) counterpart of {@link #parseEpochSecond(CharSequence, int, int)} for the batch parser, following
+     * exactly the same rules. It's a copy rather than a view over the bytes so that both stay monomorphic and simple
+     * enough for the JIT to inline the loads.
+     *
+     * @return The epoch seconds or {@link #INVALID} if the bytes are not a valid timestamp
+     */
+    static long parseEpochSecond(byte[] text, int from, int to) {
+        if (to - from < 17) {
+            return INVALID;
+        }
+        var year = digits(text, from, 4);
+        var month = digits(text, from + 5, 2);
+        var day = digits(text, from + 8, 2);
+        var hour = digits(text, from + 11, 2);
+        var minute = digits(text, from + 14, 2);
+        if ((year | month | day | hour | minute) < 0
+                || text[from + 4] != '-' || text[from + 7] != '-'
+                || (text[from + 10] | 0x20) != 't' || text[from + 13] != ':') {
+            return INVALID;
+        }
+        if (month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month) || hour > 23 || minute > 59) {
+            return INVALID;
+        }
+
+        var pos = from + 16;
+        var second = 0;
+        if (pos < to && text[pos] == ':') {
+            second = pos + 3 <= to ? digits(text, pos + 1, 2) : -1;
+            if (second < 0 || second > 59) {
+                return INVALID;
+            }
+            pos += 3;
+            if (pos < to && text[pos] == '.') {
+                var fractionStart = ++pos;
+                while (pos < to && isDigit(text[pos])) {
+                    ++pos;
+                }
+                if (pos - fractionStart > 9) {
+                    return INVALID;
+                }
+            }
+        }
+
+        var offset = parseOffsetSeconds(text, pos, to);
+        if (offset == INVALID) {
+            return INVALID;
+        }
+        return epochDay(year, month, day) * SECONDS_PER_DAY + hour * 3600L + minute * 60L + second - offset;
+    }
+
+    /**
+     * The epoch day (the same as `LocalDate.toEpochDay`) on which the given epoch second falls in UTC.
+     */
+    static long epochDayOf(long epochSecond) {
+        return Math.floorDiv(epochSecond, SECONDS_PER_DAY);
+    }
+
+    /** The offset in text[pos, to) as seconds; like java.time, the minutes and seconds are optional */
+    private static long parseOffsetSeconds(CharSequence text, int pos, int to) {
+        if (pos >= to) {
+            return INVALID;
+        }
+        var sign = text.charAt(pos);
+        if ((sign | 0x20) == 'z') {
+            return pos + 1 == to ? 0 : INVALID;
+        }
+        if ((sign != '+' && sign != '-') || (to - pos != 3 && to - pos != 6 && to - pos != 9)) {
+            return INVALID;
+        }
+        var hours = digits(text, pos + 1, 2);
+        var minutes = to - pos >= 6 ? digits(text, pos + 4, 2) : 0;
+        var seconds = to - pos == 9 ? digits(text, pos + 7, 2) : 0;
+        if ((hours | minutes | seconds) < 0 || (to - pos >= 6 && text.charAt(pos + 3) != ':')
+                || (to - pos == 9 && text.charAt(pos + 6) != ':') || minutes > 59 || seconds > 59) {
+            return INVALID;
+        }
+        var total = hours * 3600 + minutes * 60 + seconds;
+        if (total > MAX_OFFSET_SECONDS) {
+            return INVALID;
+        }
+        return sign == '-' ? -total : total;
+    }
+
+    /** Parse a fixed number of ascii digits, returning -1 if a non-digit is encountered */
+    private static int digits(CharSequence text, int pos, int count) {
+        var value = 0;
+        for (int i = pos; i < pos + count; ++i) {
+            var c = text.charAt(i);
+            if (!isDigit(c)) {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static long parseOffsetSeconds(byte[] text, int pos, int to) {
+        if (pos >= to) {
+            return INVALID;
+        }
+        var sign = text[pos];
+        if ((sign | 0x20) == 'z') {
+            return pos + 1 == to ? 0 : INVALID;
+        }
+        if ((sign != '+' && sign != '-') || (to - pos != 3 && to - pos != 6 && to - pos != 9)) {
+            return INVALID;
+        }
+        var hours = digits(text, pos + 1, 2);
+        var minutes = to - pos >= 6 ? digits(text, pos + 4, 2) : 0;
+        var seconds = to - pos == 9 ? digits(text, pos + 7, 2) : 0;
+        if ((hours | minutes | seconds) < 0 || (to - pos >= 6 && text[pos + 3] != ':')
+                || (to - pos == 9 && text[pos + 6] != ':') || minutes > 59 || seconds > 59) {
+            return INVALID;
+        }
+        var total = hours * 3600 + minutes * 60 + seconds;
+        if (total > MAX_OFFSET_SECONDS) {
+            return INVALID;
+        }
+        return sign == '-' ? -total : total;
+    }
+
+    private static int digits(byte[] text, int pos, int count) {
+        var value = 0;
+        for (int i = pos; i < pos + count; ++i) {
+            var c = text[i];
+            if (!isDigit(c)) {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static boolean isDigit(byte c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        return switch (month) {
+            case 2 -> isLeapYear(year) ? 29 : 28;
+            case 4, 6, 9, 11 -> 30;
+            default -> 31;
+        };
+    }
+
+    private static boolean isLeapYear(int year) {
+        return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    /**
+     * The proleptic gregorian days-from-civil algorithm, see https://howardhinnant.github.io/date_algorithms.html
+     */
+    private static long epochDay(int year, int month, int day) {
+        var y = month <= 2 ? year - 1 : year;
+        var era = Math.floorDiv(y, 400);
+        var yearOfEra = y - era * 400;
+        var dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        var dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146_097L + dayOfEra - 719_468;
+    }
+
+}
@@ -0,0 +1,12 @@
+package net.sanjayts.quantcast.takehome.cookiestore.exceptions;
+
+/**
+ * The exception thrown when we fail to write or read the on-disk index of daily cookie counts
+ */
+public class IndexException extends RuntimeException {
+
+    public IndexException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+}
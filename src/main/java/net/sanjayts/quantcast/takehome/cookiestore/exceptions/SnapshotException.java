@@ -0,0 +1,12 @@
+package net.sanjayts.quantcast.takehome.cookiestore.exceptions;
+
+/**
+ * The exception thrown when we fail to write, merge or read a cookie snapshot file
+ */
+public class SnapshotException extends RuntimeException {
+
+    public SnapshotException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+}
@@ -0,0 +1,12 @@
+package net.sanjayts.quantcast.takehome.cookiestore.exceptions;
+
+/**
+ * The exception thrown when we fail to write or read the temporary run files of a spilling cookie store
+ */
+public class SpillException extends RuntimeException {
+
+    public SpillException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+}
@@ -0,0 +1,6 @@
+package net.sanjayts.quantcast.takehome.cookiestore.model;
+
+/**
+ * The number of times a cookie was seen on a given day, as returned by the cookie store queries.
+ */
+public record CookieCount(String cookie, int count) {}
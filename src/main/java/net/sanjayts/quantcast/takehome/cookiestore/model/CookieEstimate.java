@@ -0,0 +1,13 @@
+package net.sanjayts.quantcast.takehome.cookiestore.model;
+
+/**
+ * The estimated number of times a cookie was seen on a given day, as returned by the approximate cookie store. The
+ * estimate never undercounts: the true count is between {@link #lowerBound()} and {@link #count()}.
+ */
+public record CookieEstimate(String cookie, int count, int error) {
+
+    public int lowerBound() {
+        return count - error;
+    }
+
+}
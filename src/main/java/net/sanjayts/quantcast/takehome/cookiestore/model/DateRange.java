@@ -0,0 +1,41 @@
+package net.sanjayts.quantcast.takehome.cookiestore.model;
+
+import java.time.LocalDate;
+import java.util.stream.Stream;
+
+/**
+ * An inclusive range of dates for which the most active cookies are requested. A single date is simply a range which
+ * starts and ends on the same day.
+ */
+public record DateRange(LocalDate from, LocalDate to) {
+
+    private static final String RANGE_SEPARATOR = "..";
+
+    public DateRange {
+        if (from.isAfter(to)) {
+            throw new IllegalArgumentException("The start of the date range %s is after its end %s".formatted(from, to));
+        }
+    }
+
+    /**
+     * Parse either a single ISO date (2018-12-09) or an inclusive range of ISO dates (2018-12-01..2018-12-31).
+     */
+    public static DateRange parse(String text) {
+        var separator = text.indexOf(RANGE_SEPARATOR);
+        if (separator < 0) {
+            var date = LocalDate.parse(text.strip());
+            return new DateRange(date, date);
+        }
+        var from = LocalDate.parse(text.substring(0, separator).strip());
+        var to = LocalDate.parse(text.substring(separator + RANGE_SEPARATOR.length()).strip());
+        return new DateRange(from, to);
+    }
+
+    /**
+     * All the dates in this range in ascending order
+     */
+    public Stream<LocalDate> dates() {
+        return from.datesUntil(to.plusDays(1));
+    }
+
+}
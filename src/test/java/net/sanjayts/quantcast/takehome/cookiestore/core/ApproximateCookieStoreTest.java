@@ -0,0 +1,138 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import net.sanjayts.quantcast.takehome.cookiestore.model.CookieEstimate;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+
+import static net.sanjayts.quantcast.takehome.cookiestore.core.TestFixtures.add;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class ApproximateCookieStoreTest {
+
+    private static final LocalDate DAY = LocalDate.of(2018, 12, 9);
+
+    @Test
+    void givenFewerCookiesThanCapacity_whenQueried_thenCountsShouldBeExact() {
+        var store = ApproximateCookieStore.withCapacity(10);
+        add(store, DAY, "c1", 3);
+        add(store, DAY, "c2", 3);
+        add(store, DAY, "c3", 1);
+        add(store, DAY.minusDays(1), "c4", 1);
+
+        assertThat(store.mostActiveFor(DAY)).isEqualTo(Set.of("c1", "c2"));
+        assertThat(store.mostActiveEstimatesFor(DAY))
+                .containsExactly(new CookieEstimate("c1", 3, 0), new CookieEstimate("c2", 3, 0));
+        assertThat(store.countOf(DAY, "c3")).isEqualTo(1);
+        assertThat(store.maxErrorFor(DAY)).isZero();
+        assertThat(store.dates()).containsExactly(DAY.minusDays(1), DAY);
+    }
+
+    @Test
+    void givenLongTail_whenCapacityExceeded_thenHeavyHittersShouldBeFoundWithinTheErrorBound() {
+        var maxError = 0.01;
+        var store = ApproximateCookieStore.forMaxError(maxError);
+        var expected = generate(new Random(42), 100_000, List.of(store));
+
+        var total = expected.values().stream().mapToInt(Integer::intValue).sum();
+        assertThat(store.mostActiveFor(DAY)).isEqualTo(Set.of("heavy-0"));
+        assertThat(store.maxErrorFor(DAY)).isPositive().isLessThanOrEqualTo((int) (total * maxError));
+        store.estimatesFor(DAY, 5).forEach(estimate -> {
+            assertThat(estimate.cookie()).startsWith("heavy-");
+            var actual = expected.get(estimate.cookie());
+            assertThat(actual).isBetween(estimate.lowerBound(), estimate.count());
+            assertThat(estimate.error()).isLessThanOrEqualTo((int) (total * maxError));
+        });
+    }
+
+    @Test
+    void givenTwoStores_whenMerged_thenEstimatesShouldBoundTheCombinedCounts() {
+        var store = ApproximateCookieStore.withCapacity(100);
+        var other = store.createEmpty();
+        var rand = new Random(42);
+        var expected = generate(rand, 50_000, List.of(store));
+        generate(rand, 50_000, List.of(other)).forEach((cookie, count) -> expected.merge(cookie, count, Integer::sum));
+        add(other, DAY.plusDays(1), "c1", 2);
+
+        store.merge(other);
+
+        var total = expected.values().stream().mapToInt(Integer::intValue).sum();
+        assertThat(store.mostActiveFor(DAY)).isEqualTo(Set.of("heavy-0"));
+        assertThat(store.mostActiveEstimatesFor(DAY.plusDays(1))).containsExactly(new CookieEstimate("c1", 2, 0));
+        store.estimatesFor(DAY, 5).forEach(estimate -> {
+            var actual = expected.get(estimate.cookie());
+            assertThat(actual).isBetween(estimate.lowerBound(), estimate.count());
+            assertThat(estimate.error()).isLessThanOrEqualTo(total / 100);
+        });
+    }
+
+    @Test
+    void givenIncompatibleStores_whenMerged_thenItShouldFail() {
+        var store = ApproximateCookieStore.withCapacity(10);
+        assertThatThrownBy(() -> store.merge(new CookieDataStore())).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> store.merge(ApproximateCookieStore.withCapacity(20)))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new CookieDataStore().merge(store)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void givenStore_whenMergedIntoItself_thenItShouldFail() {
+        var store = ApproximateCookieStore.withCapacity(10);
+        add(store, DAY, "c1", 2);
+        assertThatThrownBy(() -> store.merge(store)).isInstanceOf(IllegalArgumentException.class);
+        assertThat(store.countOf(DAY, "c1")).isEqualTo(2);
+    }
+
+    @Test
+    void givenTwoStores_whenMergedIntoEachOtherConcurrently_thenTheMergesShouldNotDeadlock() {
+        var store = ApproximateCookieStore.withCapacity(10);
+        var other = ApproximateCookieStore.withCapacity(10);
+        // Daemon threads, so that a deadlock fails the test rather than hanging the JVM
+        var executor = Executors.newFixedThreadPool(2, runnable -> {
+            var thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+                var forth = executor.submit(() -> IntStream.range(0, 20_000).forEach(i -> store.merge(other)));
+                var back = executor.submit(() -> IntStream.range(0, 20_000).forEach(i -> other.merge(store)));
+                forth.get();
+                back.get();
+            });
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void givenFactories_whenCreated_thenCapacityShouldFollowTheConstraint() {
+        assertThat(ApproximateCookieStore.forMaxError(0.001).capacity()).isEqualTo(1000);
+        assertThat(ApproximateCookieStore.forMemoryBudget(1 << 20).capacity())
+                .isEqualTo((1 << 20) / ApproximateCookieStore.BYTES_PER_COUNTER);
+        assertThatThrownBy(() -> ApproximateCookieStore.forMaxError(0)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ApproximateCookieStore.forMemoryBudget(1)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    /** Half of the hits go to a few heavy hitters with decreasing popularity, the rest to a long tail of rare cookies */
+    private static Map<String, Integer> generate(Random rand, int hits, List<CookieStore> stores) {
+        var expected = new HashMap<String, Integer>();
+        for (int i = 0; i < hits; ++i) {
+            var name = i % 2 == 0 ? "heavy-" + Math.min(rand.nextInt(10), rand.nextInt(10)) : "rare-" + rand.nextInt(20_000);
+            stores.forEach(store -> add(store, DAY, name, 1));
+            expected.merge(name, 1, Integer::sum);
+        }
+        return expected;
+    }
+
+}
@@ -0,0 +1,146 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import net.sanjayts.quantcast.takehome.cookiestore.model.CookieCount;
+import org.junit.jupiter.api.Test;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CookieCounterTest {
+
+    private final CookieDictionary dictionary = new CookieDictionary();
+
+    @Test
+    void givenNewCounter_whenNothingAdded_thenCountsShouldBeEmpty() {
+        var counter = new CookieCounter();
+        assertThat(counter.size()).isZero();
+        assertThat(counter.maxCount()).isZero();
+        assertThat(counter.countOf(dictionary.intern("c1"))).isZero();
+        assertThat(counter.leaders(dictionary)).isEmpty();
+    }
+
+    @Test
+    void givenCounter_whenCookiesAdded_thenLeadersShouldTrackTheMaxCount() {
+        var counter = new CookieCounter();
+        counter.add(dictionary.intern("c1"), 1);
+        counter.add(dictionary.intern("c2"), 1);
+        assertThat(counter.leaders(dictionary)).isEqualTo(Set.of("c1", "c2"));
+        counter.add(dictionary.intern("c2"), 1);
+        assertThat(counter.leaders(dictionary)).isEqualTo(Set.of("c2"));
+        assertThat(counter.add(dictionary.intern("c1"), 3)).isEqualTo(4);
+        assertThat(counter.leaders(dictionary)).isEqualTo(Set.of("c1"));
+        assertThat(counter.maxCount()).isEqualTo(4);
+    }
+
+    @Test
+    void givenManyCookies_whenAddedRandomly_thenCountsAndLeadersShouldMatchAPlainMap() {
+        var counter = new CookieCounter();
+        var expected = new HashMap<String, Integer>();
+        var rand = new Random(42);
+        for (int i = 0; i < 100_000; ++i) {
+            var name = "cookie-" + rand.nextInt(5_000);
+            counter.add(dictionary.intern(name), 1);
+            expected.merge(name, 1, Integer::sum);
+        }
+
+        var max = expected.values().stream().mapToInt(Integer::intValue).max().orElseThrow();
+        var expectedLeaders = expected.entrySet().stream().filter(e -> e.getValue() == max)
+                .map(Map.Entry::getKey).collect(Collectors.toSet());
+        var actual = new HashMap<String, Integer>();
+        counter.forEach((id, count) -> actual.put(dictionary.nameOf(id), count));
+
+        assertThat(counter.size()).isEqualTo(expected.size());
+        assertThat(actual).isEqualTo(expected);
+        assertThat(counter.maxCount()).isEqualTo(max);
+        assertThat(counter.leaders(dictionary)).isEqualTo(expectedLeaders);
+        assertThat(counter.countOf(dictionary.intern("cookie-42"))).isEqualTo(expected.get("cookie-42"));
+
+        var expectedTop = expected.entrySet().stream()
+                .map(e -> new CookieCount(e.getKey(), e.getValue()))
+                .sorted(Comparator.comparingInt(CookieCount::count).reversed().thenComparing(CookieCount::cookie))
+                .limit(50)
+                .toList();
+        assertThat(counter.topK(50, dictionary)).isEqualTo(expectedTop);
+    }
+
+    @Test
+    void givenCounter_whenIdsRemapped_thenCountsShouldFollowTheNewIds() {
+        var counter = new CookieCounter();
+        counter.add(0, 2);
+        counter.add(1, 1);
+        counter.add(2, 3);
+        counter.remap(new int[] {5, 3, 4});
+        assertThat(counter.countOf(5)).isEqualTo(2);
+        assertThat(counter.countOf(3)).isEqualTo(1);
+        assertThat(counter.countOf(4)).isEqualTo(3);
+        assertThat(counter.countOf(0)).isZero();
+        assertThat(counter.add(4, 1)).isEqualTo(4);
+    }
+
+    @Test
+    void givenCounter_whenCookiesAddedInBulk_thenBucketsShouldStayOrdered() {
+        var counter = new CookieCounter();
+        counter.add(dictionary.intern("c1"), 5);
+        counter.add(dictionary.intern("c2"), 1);
+        counter.add(dictionary.intern("c3"), 3);
+        counter.add(dictionary.intern("c2"), 3);
+        counter.add(dictionary.intern("c4"), 10);
+        counter.add(dictionary.intern("c4"), 1);
+        assertThat(counter.topK(10, dictionary)).isEqualTo(List.of(
+                new CookieCount("c4", 11), new CookieCount("c1", 5),
+                new CookieCount("c2", 4), new CookieCount("c3", 3)));
+        assertThat(counter.topK(2, dictionary)).isEqualTo(List.of(new CookieCount("c4", 11), new CookieCount("c1", 5)));
+        assertThat(counter.leaders(dictionary)).isEqualTo(Set.of("c4"));
+    }
+
+    @Test
+    void givenBoundedCounter_whenFull_thenTheMinEntryShouldBeReplacedAndItsCountBecomeTheError() {
+        var counter = new CookieCounter(2);
+        counter.add(dictionary.intern("c1"), 3);
+        counter.add(dictionary.intern("c2"), 1);
+        assertThat(counter.isFull()).isTrue();
+
+        assertThat(counter.add(dictionary.intern("c3"), 1)).isEqualTo(2);
+        assertThat(counter.size()).isEqualTo(2);
+        assertThat(counter.countOf(dictionary.intern("c2"))).isZero();
+        assertThat(counter.errorOf(dictionary.intern("c3"))).isEqualTo(1);
+        assertThat(counter.errorOf(dictionary.intern("c1"))).isZero();
+        assertThat(counter.minCount()).isEqualTo(2);
+        assertThat(counter.leaders(dictionary)).isEqualTo(Set.of("c1"));
+    }
+
+    @Test
+    void givenBoundedCounter_whenManyCookiesReplaced_thenCountsShouldBoundTheTrueCounts() {
+        var capacity = 50;
+        var counter = new CookieCounter(capacity);
+        var expected = new HashMap<Integer, Integer>();
+        var rand = new Random(42);
+        var hits = 100_000;
+        for (int i = 0; i < hits; ++i) {
+            // A few heavy hitters among a long tail of rare cookies
+            var name = i % 2 == 0 ? "heavy-" + rand.nextInt(5) : "rare-" + rand.nextInt(10_000);
+            var id = dictionary.intern(name);
+            counter.add(id, 1);
+            expected.merge(id, 1, Integer::sum);
+        }
+
+        assertThat(counter.size()).isEqualTo(capacity);
+        counter.forEach((id, count) -> {
+            // Every tracked cookie must still be found through the index after all the replacements
+            assertThat(counter.countOf(id)).isEqualTo(count);
+            assertThat(count - counter.errorOf(id)).isLessThanOrEqualTo(expected.get(id));
+            assertThat(count).isGreaterThanOrEqualTo(expected.get(id)).isLessThanOrEqualTo(expected.get(id) + hits / capacity);
+        });
+        for (int i = 0; i < 5; ++i) {
+            assertThat(counter.countOf(dictionary.idOf("heavy-" + i))).isPositive();
+        }
+    }
+
+}
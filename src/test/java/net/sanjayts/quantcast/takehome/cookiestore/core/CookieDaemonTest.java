@@ -0,0 +1,93 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CookieDaemonTest {
+
+    private static final String SAMPLE_DATA = "cookie,timestamp\n" +
+            "c1,2018-12-08T01:00:00+00:00\n" +
+            "c2,2018-12-09T01:00:00+00:00\n" +
+            "c3,2018-12-09T02:00:00+00:00\n" +
+            "c3,2018-12-09T03:00:00+00:00\n";
+
+    @TempDir
+    Path tempDir;
+
+    private ScheduledExecutorService scheduler;
+
+    private LogTailer tailer;
+
+    private CookieDaemon daemon;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        var logFile = Files.writeString(tempDir.resolve("cookies.txt"), SAMPLE_DATA);
+        var store = new CookieDataStore();
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        tailer = LogTailer.follow(logFile, store, List.of("cookie", "timestamp"), 0);
+        daemon = CookieDaemon.create(tailer, store, scheduler, Duration.ofMillis(10));
+    }
+
+    @AfterEach
+    void tearDown() {
+        tailer.close();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void givenRequests_whenServed_thenEachResponseShouldEndWithAnEmptyLine() throws Exception {
+        var in = new BufferedReader(new StringReader("2018-12-09\n\n2018-12-08..2018-12-09\nquit\n2018-12-08\n"));
+        var out = new StringWriter();
+        daemon.serve(in, new PrintWriter(out));
+        assertThat(out.toString().lines()).containsExactly("c3", "", "2018-12-08,c1", "2018-12-09,c3", "");
+    }
+
+    @Test
+    void givenTopKRequest_whenAnswered_thenCookiesWithCountsShouldBeReturned() {
+        tailer.poll();
+        assertThat(daemon.answer("top 2018-12-09 2")).containsExactly("c3,2", "c2,1");
+        assertThat(daemon.answer("stats")).containsExactly("lines=5,outOfOrder=0,dropped=0,invalid=0,dates=2");
+    }
+
+    @Test
+    void givenStatsFile_whenServed_thenMetricsShouldBeDumpedAndAnswered() throws Exception {
+        var statsFile = tempDir.resolve("cookies.prom");
+        var store = new CookieDataStore();
+        var statsTailer = LogTailer.follow(tempDir.resolve("cookies.txt"), store, List.of("cookie", "timestamp"), 0);
+        try {
+            var statsDaemon = CookieDaemon.create(statsTailer, store, scheduler, Duration.ofMillis(10), statsFile);
+            statsDaemon.serve(new BufferedReader(new StringReader("quit\n")), new PrintWriter(new StringWriter()));
+
+            assertThat(statsFile).content().contains("cookiestore_unique_cookies{date=\"2018-12-09\"} 2",
+                    "cookiestore_unique_cookies{date=\"2018-12-08\"} 1");
+            assertThat(statsDaemon.answer("metrics")).contains("# TYPE cookiestore_lines_read_total counter",
+                    "cookiestore_unique_cookies{date=\"2018-12-09\"} 2");
+        } finally {
+            statsTailer.close();
+        }
+    }
+
+    @Test
+    void givenMalformedRequest_whenAnswered_thenAnErrorShouldBeReturned() {
+        assertThat(daemon.answer("yesterday")).singleElement().asString().startsWith("ERROR ");
+        assertThat(daemon.answer("top 2018-12-09")).containsExactly("ERROR usage: top <date> <k>");
+        assertThat(daemon.answer("top 2018-12-09 0")).singleElement().asString().startsWith("ERROR ");
+    }
+
+}
@@ -1,16 +1,24 @@
 package net.sanjayts.quantcast.takehome.cookiestore.core;
 
+import net.sanjayts.quantcast.takehome.cookiestore.model.CookieCount;
 import net.sanjayts.quantcast.takehome.cookiestore.model.CookieInfo;
 import org.junit.jupiter.api.Test;
 
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
 
 class CookieDataStoreTest {
 
@@ -64,6 +72,116 @@ class CookieDataStoreTest {
         assertThat(mostActiveCookie).isEmpty();
     }
 
+    @Test
+    void givenPopulatedDataStore_whenMostFrequentRequestedRepeatedly_thenSameCookiesShouldBeReturned() {
+        var store = new CookieDataStore();
+        SAMPLE_COOKIES.forEach(store::addCookie);
+        for (int i = 0; i < 3; ++i) {
+            assertThat(store.mostActiveFor(LocalDate.of(2022, 2, 2))).isEqualTo(Set.of("zxcvzxcvzxcvv", "poiuwerwerwer"));
+        }
+    }
+
+    @Test
+    void givenPopulatedDataStore_whenTopKRequested_thenCookiesShouldBeOrderedByCountAndName() {
+        var store = new CookieDataStore();
+        SAMPLE_COOKIES.forEach(store::addCookie);
+        assertThat(store.topK(LocalDate.of(2022, 1, 1), 3)).isEqualTo(List.of(
+                new CookieCount("asdf3sdfasdf", 3),
+                new CookieCount("csdafg3423ds", 2),
+                new CookieCount("qwdafg3423ds", 2)));
+        assertThat(store.topK(LocalDate.of(2022, 1, 1), 4)).last().isEqualTo(new CookieCount("tydafg3423ds", 1));
+        assertThat(store.topK(LocalDate.of(2022, 1, 1), 100)).hasSize(5);
+        assertThat(store.topK(LocalDate.of(2022, 12, 12), 3)).isEmpty();
+    }
+
+    @Test
+    void givenPopulatedDataStore_whenCountRequested_thenHitCountForThatDayShouldBeReturned() {
+        var store = new CookieDataStore();
+        SAMPLE_COOKIES.forEach(store::addCookie);
+        assertThat(store.countOf(LocalDate.of(2022, 2, 2), "zxcvzxcvzxcvv")).isEqualTo(2);
+        assertThat(store.countOf(LocalDate.of(2021, 12, 31), "zxcvzxcvzxcvv")).isEqualTo(1);
+        assertThat(store.countOf(LocalDate.of(2022, 1, 1), "zxcvzxcvzxcvv")).isZero();
+    }
+
+    @Test
+    void givenTwoDataStores_whenMerged_thenCountsShouldBeAdded() {
+        var store = new CookieDataStore();
+        var other = new CookieDataStore();
+        SAMPLE_COOKIES.forEach(store::addCookie);
+        SAMPLE_COOKIES.subList(10, 12).forEach(other::addCookie);
+        store.merge(other);
+        assertThat(store.mostActiveFor(LocalDate.of(2022, 2, 2))).isEqualTo(Set.of("poiuwerwerwer"));
+        assertThat(store.countOf(LocalDate.of(2022, 2, 2), "poiuwerwerwer")).isEqualTo(4);
+    }
+
+    @Test
+    void givenDataStore_whenMergedIntoItself_thenItShouldFail() {
+        var store = new CookieDataStore();
+        SAMPLE_COOKIES.forEach(store::addCookie);
+        assertThatThrownBy(() -> store.merge(store)).isInstanceOf(IllegalArgumentException.class);
+        assertThat(store.countOf(LocalDate.of(2022, 2, 2), "poiuwerwerwer")).isEqualTo(2);
+    }
+
+    @Test
+    void givenTwoDataStores_whenMergedIntoEachOtherConcurrently_thenTheMergesShouldNotDeadlock() {
+        var store = new CookieDataStore();
+        var other = new CookieDataStore();
+        // Daemon threads, so that a deadlock fails the test rather than hanging the JVM
+        var executor = Executors.newFixedThreadPool(2, runnable -> {
+            var thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+                var forth = executor.submit(() -> IntStream.range(0, 20_000).forEach(i -> store.merge(other)));
+                var back = executor.submit(() -> IntStream.range(0, 20_000).forEach(i -> other.merge(store)));
+                forth.get();
+                back.get();
+            });
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void givenPopulatedDataStore_whenOlderDatesRemoved_thenOnlyNewerDatesShouldRemain() {
+        var store = new CookieDataStore();
+        SAMPLE_COOKIES.forEach(store::addCookie);
+        assertThat(store.removeBefore(LocalDate.of(2022, 2, 1))).isEqualTo(2);
+        assertThat(store.dates()).containsExactly(LocalDate.of(2022, 2, 2));
+        assertThat(store.mostActiveFor(LocalDate.of(2022, 1, 1))).isEmpty();
+        assertThat(store.mostActiveFor(LocalDate.of(2022, 2, 2))).isEqualTo(Set.of("zxcvzxcvzxcvv", "poiuwerwerwer"));
+        assertThat(store.countOf(LocalDate.of(2022, 2, 2), "fhfg342534fff")).isEqualTo(1);
+
+        store.addCookie(new CookieInfo("asdf3sdfasdf", zDtTimeOf(2022, 1, 1, 1)));
+        assertThat(store.countOf(LocalDate.of(2022, 1, 1), "asdf3sdfasdf")).isEqualTo(1);
+    }
+
+    @Test
+    void givenDataStore_whenWrittenAndQueriedConcurrently_thenNoCookiesShouldBeLost() throws Exception {
+        var store = new CookieDataStore();
+        var pool = Executors.newFixedThreadPool(4);
+        try {
+            var futures = new ArrayList<Future<?>>();
+            for (int t = 0; t < 4; ++t) {
+                futures.add(pool.submit(() -> {
+                    for (int i = 0; i < 1_000; ++i) {
+                        SAMPLE_COOKIES.forEach(store::addCookie);
+                        store.mostActiveFor(LocalDate.of(2022, 1, 1));
+                    }
+                }));
+            }
+            for (var f : futures) {
+                f.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertThat(store.countOf(LocalDate.of(2022, 1, 1), "asdf3sdfasdf")).isEqualTo(12_000);
+        assertThat(store.mostActiveFor(LocalDate.of(2022, 1, 1))).isEqualTo(Set.of("asdf3sdfasdf"));
+    }
+
     private static ZonedDateTime zDtTimeOf(int year, int month, int day, int min) {
         return ZonedDateTime.of(LocalDateTime.of(year, month, day, 0, min), ZoneOffset.UTC);
     }
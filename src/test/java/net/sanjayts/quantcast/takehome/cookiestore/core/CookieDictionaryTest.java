@@ -0,0 +1,71 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CookieDictionaryTest {
+
+    @Test
+    void givenNames_whenInterned_thenEachDistinctNameShouldGetItsOwnDenseId() {
+        var dictionary = new CookieDictionary();
+        for (int i = 0; i < 10_000; ++i) {
+            assertThat(dictionary.intern("cookie-" + i)).isEqualTo(i);
+        }
+        for (int i = 0; i < 10_000; ++i) {
+            assertThat(dictionary.intern("cookie-" + i)).isEqualTo(i);
+            assertThat(dictionary.idOf("cookie-" + i)).isEqualTo(i);
+            assertThat(dictionary.nameOf(i)).isEqualTo("cookie-" + i);
+        }
+        assertThat(dictionary.size()).isEqualTo(10_000);
+        assertThat(dictionary.idOf("cookie-10000")).isEqualTo(CookieDictionary.NONE);
+    }
+
+    @Test
+    void givenNonAsciiNames_whenInterned_thenTheyShouldRoundTrip() {
+        var dictionary = new CookieDictionary();
+        var id = dictionary.intern("kéks-クッキー");
+        assertThat(dictionary.intern("keks")).isNotEqualTo(id);
+        assertThat(dictionary.idOf("kéks-クッキー")).isEqualTo(id);
+        assertThat(dictionary.nameOf(id)).isEqualTo("kéks-クッキー");
+    }
+
+    @Test
+    void givenTwoDictionaries_whenNamesInternedFromTheOther_thenIdsShouldBeTranslated() {
+        var first = new CookieDictionary();
+        var second = new CookieDictionary();
+        first.intern("c1");
+        var c2 = first.intern("c2");
+        second.intern("c2");
+        assertThat(second.intern(first, c2)).isEqualTo(second.idOf("c2")).isZero();
+        assertThat(second.intern(first, first.idOf("c1"))).isEqualTo(1);
+    }
+
+    @Test
+    void givenNames_whenCompared_thenTheyShouldBeOrderedAlphabetically() {
+        var dictionary = new CookieDictionary();
+        var b = dictionary.intern("b");
+        var a = dictionary.intern("a");
+        var ab = dictionary.intern("ab");
+        assertThat(dictionary.compare(a, b)).isNegative();
+        assertThat(dictionary.compare(ab, a)).isPositive();
+        assertThat(dictionary.compare(ab, b)).isNegative();
+        assertThat(dictionary.compare(a, a)).isZero();
+    }
+
+    @Test
+    void givenUnusedNames_whenRetained_thenOnlyUsedNamesShouldBeKeptAndRenumbered() {
+        var dictionary = new CookieDictionary();
+        dictionary.intern("c0");
+        dictionary.intern("c1");
+        dictionary.intern("c2");
+        var mapping = new int[] {CookieDictionary.NONE, 1, 2};
+        dictionary.retain(mapping);
+        assertThat(dictionary.size()).isEqualTo(2);
+        assertThat(mapping).containsExactly(CookieDictionary.NONE, 0, 1);
+        assertThat(dictionary.idOf("c0")).isEqualTo(CookieDictionary.NONE);
+        assertThat(dictionary.idOf("c2")).isEqualTo(1);
+        assertThat(dictionary.intern("c3")).isEqualTo(2);
+    }
+
+}
@@ -0,0 +1,99 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import net.sanjayts.quantcast.takehome.cookiestore.model.CookieCount;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Set;
+
+import static net.sanjayts.quantcast.takehome.cookiestore.core.TestFixtures.fileOf;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CookieIndexTest {
+
+    private static final List<String> DEFAULT_HEADERS = List.of("cookie", "timestamp");
+
+    private static final String SAMPLE_DATA = "cookie,timestamp\n" +
+            "c1,2018-12-10T02:00:00+00:00\n" +
+            "c2,2018-12-10T01:00:00+00:00\n" +
+            "c2,2018-12-10T00:30:00+00:00\n" +
+            "c3,2018-12-09T02:00:00+00:00\n" +
+            "c4,2018-12-09T01:30:00+00:00\n" +
+            "c3,2018-12-09T01:00:00+00:00\n" +
+            "c4,2018-12-09T00:30:00+00:00\n" +
+            "c5,2018-12-09T00:10:00+00:00\n" +
+            "c6,2018-12-08T01:00:00+00:00\n";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void givenWrittenIndex_whenQueried_thenResultsShouldMatchTheDataStore() throws Exception {
+        var logFile = fileOf(tempDir, SAMPLE_DATA);
+        var store = ingest(logFile, LocalDate.of(2018, 12, 9));
+        var indexFile = CookieIndex.defaultPathFor(logFile);
+        CookieIndex.write(indexFile, logFile, store, LocalDate.of(2018, 12, 9));
+
+        try (var index = CookieIndex.openIfFresh(indexFile, logFile).orElseThrow()) {
+            var dates = List.of(LocalDate.of(2018, 12, 9), LocalDate.of(2018, 12, 10), LocalDate.of(2018, 12, 11));
+            assertThat(index.mostActiveFor(dates)).isEqualTo(store.mostActiveFor(dates));
+            assertThat(index.mostActiveFor(LocalDate.of(2018, 12, 9))).isEqualTo(Set.of("c3", "c4"));
+            assertThat(index.topK(LocalDate.of(2018, 12, 9), 10)).isEqualTo(store.topK(LocalDate.of(2018, 12, 9), 10));
+            assertThat(index.topK(LocalDate.of(2018, 12, 10), 1)).isEqualTo(List.of(new CookieCount("c2", 2)));
+        }
+    }
+
+    @Test
+    void givenWrittenIndex_whenOlderDateRequested_thenItShouldNotBeCovered() throws Exception {
+        var logFile = fileOf(tempDir, SAMPLE_DATA);
+        var indexFile = CookieIndex.defaultPathFor(logFile);
+        CookieIndex.write(indexFile, logFile, ingest(logFile, LocalDate.of(2018, 12, 9)), LocalDate.of(2018, 12, 9));
+
+        try (var index = CookieIndex.openIfFresh(indexFile, logFile).orElseThrow()) {
+            assertThat(index.covers(LocalDate.of(2018, 12, 9))).isTrue();
+            assertThat(index.covers(LocalDate.of(2019, 1, 1))).isTrue();
+            assertThat(index.covers(LocalDate.of(2018, 12, 8))).isFalse();
+        }
+    }
+
+    @Test
+    void givenWrittenIndex_whenLogFileChanges_thenIndexShouldBeStale() throws Exception {
+        var logFile = fileOf(tempDir, SAMPLE_DATA);
+        var indexFile = CookieIndex.defaultPathFor(logFile);
+        CookieIndex.write(indexFile, logFile, ingest(logFile, LocalDate.of(2018, 12, 9)), LocalDate.of(2018, 12, 9));
+
+        var modifiedTime = Files.getLastModifiedTime(logFile);
+        Files.writeString(logFile, SAMPLE_DATA.replace("c1,", "c9,"));
+        Files.setLastModifiedTime(logFile, modifiedTime);
+        assertThat(CookieIndex.openIfFresh(indexFile, logFile)).isEmpty();
+
+        Files.writeString(logFile, SAMPLE_DATA);
+        Files.setLastModifiedTime(logFile, FileTime.fromMillis(modifiedTime.toMillis() + 60_000));
+        assertThat(CookieIndex.openIfFresh(indexFile, logFile)).isEmpty();
+    }
+
+    @Test
+    void givenMissingOrCorruptIndex_whenOpened_thenItShouldBeIgnored() throws Exception {
+        var logFile = fileOf(tempDir, SAMPLE_DATA);
+        var indexFile = CookieIndex.defaultPathFor(logFile);
+        assertThat(CookieIndex.openIfFresh(indexFile, logFile)).isEmpty();
+
+        Files.writeString(indexFile, "this is not an index");
+        assertThat(CookieIndex.openIfFresh(indexFile, logFile)).isEmpty();
+    }
+
+    private static CookieDataStore ingest(Path logFile, LocalDate cutoffDate) {
+        try (var source = new MappedCookieSource(logFile)) {
+            var parser = CookieParser.createFromAndValidate(source, DEFAULT_HEADERS, cutoffDate);
+            var store = new CookieDataStore();
+            parser.cookieInfoStream().forEach(store::addCookie);
+            return store;
+        }
+    }
+
+}
@@ -3,14 +3,20 @@ package net.sanjayts.quantcast.takehome.cookiestore.core;
 import net.sanjayts.quantcast.takehome.cookiestore.exceptions.ParserException;
 import net.sanjayts.quantcast.takehome.cookiestore.model.CookieInfo;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.assertj.core.api.Assertions.catchThrowable;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
@@ -21,6 +27,9 @@ class CookieParserTest {
 
     private static final LocalDate cutoffDate = LocalDate.of(2018, 12, 9);
 
+    @TempDir
+    Path tempDir;
+
     @Test
     void givenNewParser_whenNoDataFoundInSource_thenAnExceptionShouldBeThrown() {
         var source = mock(CookieSource.class);
@@ -105,5 +114,124 @@ class CookieParserTest {
         assertThat(cookies).isEqualTo(expected);
     }
 
+    @Test
+    void givenMappedSource_whenParsedInBatches_thenValidRowsShouldMatchTheCookieStream() throws Exception {
+        var file = Files.writeString(tempDir.resolve("cookies.txt"), String.join("\n",
+                "cookie,timestamp", "", ",", " x , x", "abcd,", "c1,2018-12-10T00:00:00+00:00\r", "  ,    ",
+                "c2,2018-12-09T23:00:00-05:00,,", "c3,2018-12-09T01:00:00+00:00,x", "ünï,2018-12-09T01:00:00Z",
+                "c1,2018-12-09T00:00:00+00:00"));
+        var expected = new ArrayList<String>();
+        try (var source = new MappedCookieSource(file)) {
+            CookieParser.createFromAndValidate(source, DEFAULT_HEADERS, cutoffDate).cookieInfoStream()
+                    .forEach(ci -> expected.add(ci.getName() + "@" + ci.getTimestamp().toLocalDate().toEpochDay()));
+        }
+
+        var actual = new ArrayList<String>();
+        var invalid = 0;
+        try (var source = new MappedCookieSource(file)) {
+            var parser = CookieParser.createFromAndValidate(source, DEFAULT_HEADERS, cutoffDate);
+            assertThat(parser.isBatchCapable()).isTrue();
+            var batch = new CookieBatch(3);
+            while (parser.nextBatch(batch)) {
+                assertThat(batch.size()).isBetween(1, 3);
+                for (int row = 0; row < batch.size(); ++row) {
+                    if (batch.isValid(row)) {
+                        actual.add(batch.name(row) + "@" + batch.epochDay(row));
+                    } else {
+                        ++invalid;
+                    }
+                }
+            }
+            assertThat(parser.isCutoffReached()).isFalse();
+        }
+        assertThat(actual).isEqualTo(expected).hasSize(4);
+        assertThat(invalid).isEqualTo(6);
+    }
+
+    @Test
+    void givenMalformedLines_whenParsedInBatchesOrStreamed_thenMetricsAndQuarantineShouldHaveThemByReason() throws Exception {
+        var header = "cookie,timestamp\n";
+        var file = Files.writeString(tempDir.resolve("cookies.txt"), header + String.join("\n",
+                "", ",", " x , x", "abcd,", "c1,2018-12-10T00:00:00+00:00", "  ,    ", "c2,2018-12-09T23:00:00-05:00,,",
+                "c3,2018-12-09T01:00:00+00:00,x", "c4,2018-12-09T01:00:00Z", "c5,2018-12-08T01:00:00Z", "c6,2018-12-09T01:00:00Z"));
+        var batchMetrics = new IngestMetrics();
+        var batchRejects = tempDir.resolve("batch-rejects.txt");
+        try (var source = new MappedCookieSource(file); var quarantine = new Quarantine(batchRejects, 16)) {
+            var parser = CookieParser.createFromAndValidate(source, DEFAULT_HEADERS, cutoffDate);
+            parser.recordTo(batchMetrics);
+            parser.quarantineTo(quarantine);
+            var batch = new CookieBatch(4);
+            while (parser.nextBatch(batch)) {
+                assertThat(batch.size()).isPositive();
+            }
+        }
+        var streamMetrics = new IngestMetrics();
+        var streamRejects = tempDir.resolve("stream-rejects.txt");
+        try (var source = new CookieSource(Files.newBufferedReader(file)); var quarantine = new Quarantine(streamRejects, 16)) {
+            var parser = CookieParser.createFromAndValidate(source, DEFAULT_HEADERS, cutoffDate);
+            parser.recordTo(streamMetrics);
+            parser.quarantineTo(quarantine);
+            assertThat(parser.cookieInfoStream().count()).isEqualTo(3);
+        }
+
+        for (var snapshot : List.of(batchMetrics.snapshot(), streamMetrics.snapshot())) {
+            assertThat(snapshot.linesRead()).isEqualTo(10);
+            assertThat(snapshot.linesParsed()).isEqualTo(3);
+            assertThat(snapshot.skippedBeforeCutoff()).isEqualTo(1);
+            assertThat(snapshot.malformed(MalformedReason.MISSING_TIMESTAMP)).isEqualTo(3);
+            assertThat(snapshot.malformed(MalformedReason.EXTRA_FIELDS)).isEqualTo(1);
+            assertThat(snapshot.malformed(MalformedReason.BLANK_COOKIE)).isEqualTo(1);
+            assertThat(snapshot.malformed(MalformedReason.BAD_TIMESTAMP)).isEqualTo(1);
+            assertThat(snapshot.stage(IngestMetrics.Stage.PARSE).batches()).isPositive();
+        }
+        var expectedRejects = List.of("missing_timestamp\t", "missing_timestamp\t,", "bad_timestamp\t x , x",
+                "missing_timestamp\tabcd,", "blank_cookie\t  ,    ", "extra_fields\tc3,2018-12-09T01:00:00+00:00,x");
+        assertThat(Files.readAllLines(batchRejects)).isEqualTo(expectedRejects);
+        assertThat(Files.readAllLines(streamRejects)).isEqualTo(expectedRejects);
+        // Everything up to the line which ran into the cutoff date
+        var cutoffLine = Files.readString(file).indexOf("c5,");
+        assertThat(batchMetrics.snapshot().bytesRead()).isEqualTo(cutoffLine - header.length());
+    }
+
+    @Test
+    void givenMappedSource_whenBatchRunsIntoTheCutoffDate_thenParsingShouldStopThere() throws Exception {
+        var file = Files.writeString(tempDir.resolve("cookies.txt"), String.join("\n",
+                "cookie,timestamp", "c1,2018-12-10T02:00:00+00:00", "c2,2018-12-09T01:00:00+00:00",
+                "c3,2018-12-08T02:00:00+00:00", "c4,2018-12-09T01:00:00+00:00", ""));
+        try (var source = new MappedCookieSource(file)) {
+            var parser = CookieParser.createFromAndValidate(source, DEFAULT_HEADERS, cutoffDate);
+            var batch = new CookieBatch();
+            assertThat(parser.nextBatch(batch)).isTrue();
+            assertThat(batch.size()).isEqualTo(2);
+            assertThat(List.of(batch.name(0), batch.name(1))).containsExactly("c1", "c2");
+            assertThat(parser.isCutoffReached()).isTrue();
+            assertThat(parser.nextBatch(batch)).isFalse();
+        }
+    }
+
+    @Test
+    void givenIncompleteLastLine_whenMoreDataMayFollow_thenItShouldBeLeftForLater() {
+        var data = "c1,2018-12-09T01:00:00Z\nc2,2018-12-09T01:00".getBytes(StandardCharsets.US_ASCII);
+        var batch = new CookieBatch();
+        batch.reset(data);
+        var next = CookieParser.parseLines(data, 0, data.length, false, cutoffDate.toEpochDay(), batch);
+        assertThat(batch.size()).isEqualTo(1);
+        assertThat(next).isEqualTo(data.length - "c2,2018-12-09T01:00".length());
+
+        next = CookieParser.parseLines(data, next, data.length, true, cutoffDate.toEpochDay(), batch);
+        assertThat(next).isEqualTo(data.length);
+        assertThat(batch.size()).isEqualTo(2);
+        assertThat(batch.isValid(1)).isFalse();
+        assertThat(batch.name(1)).isEqualTo("c2,2018-12-09T01:00");
+    }
+
+    @Test
+    void givenReaderSource_whenParsedInBatches_thenItShouldFail() {
+        var source = mock(CookieSource.class);
+        doReturn("cookie,timestamp").when(source).nextLine();
+        var parser = CookieParser.createFromAndValidate(source, DEFAULT_HEADERS, cutoffDate);
+        assertThat(parser.isBatchCapable()).isFalse();
+        assertThatThrownBy(() -> parser.nextBatch(new CookieBatch())).isInstanceOf(IllegalStateException.class);
+    }
 
 }
@@ -0,0 +1,119 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import net.sanjayts.quantcast.takehome.cookiestore.exceptions.SnapshotException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+class CookieSnapshotTest {
+
+    private static final LocalDate DAY1 = LocalDate.of(2018, 12, 8);
+
+    private static final LocalDate DAY2 = LocalDate.of(2018, 12, 9);
+
+    private static final LocalDate DAY3 = LocalDate.of(2018, 12, 10);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void givenWrittenSnapshot_whenQueried_thenResultsShouldMatchTheDataStore() throws Exception {
+        var store = new CookieDataStore();
+        for (var name : List.of("caf", "cafe", "café", "café", "cafeteria", "cafeteria", "🍪", "🍪", "z")) {
+            store.addCookie(name, DAY2.toEpochDay());
+        }
+        store.addCookie("c1", DAY3.toEpochDay());
+        var file = tempDir.resolve("cookies.snap");
+        CookieSnapshot.write(file, store, List.of(DAY3, DAY2, DAY1));
+
+        assertThat(CookieSnapshot.isSnapshot(file)).isTrue();
+        try (var snapshot = CookieSnapshot.open(file)) {
+            assertThat(snapshot.dates()).containsExactly(DAY2, DAY3);
+            assertThat(snapshot.uniqueCookies(DAY2)).isEqualTo(6);
+            assertThat(snapshot.uniqueCookies(DAY1)).isZero();
+            assertThat(snapshot.mostActiveFor(DAY2)).isEqualTo(Set.of("café", "cafeteria", "🍪"));
+            assertThat(snapshot.mostActiveFor(DAY1)).isEmpty();
+            var dates = List.of(DAY1, DAY2, DAY3);
+            assertThat(snapshot.mostActiveFor(dates)).isEqualTo(store.mostActiveFor(dates));
+        }
+    }
+
+    @Test
+    void givenCountsNeedingMultiByteVarints_whenWrittenAndRead_thenTheyShouldSurviveTheRoundTrip() {
+        var store = new CookieDataStore();
+        for (int i = 0; i < 20_000; ++i) {
+            store.addCookie("busy", DAY2.toEpochDay());
+        }
+        for (int i = 0; i < 200; ++i) {
+            store.addCookie("steady", DAY2.toEpochDay());
+        }
+        var first = tempDir.resolve("first.snap");
+        var second = tempDir.resolve("second.snap");
+        CookieSnapshot.write(first, store, List.of(DAY2));
+        CookieSnapshot.write(second, store, List.of(DAY2));
+        var merged = tempDir.resolve("merged.snap");
+        CookieSnapshot.merge(List.of(first, second), merged);
+
+        try (var snapshot = CookieSnapshot.open(merged)) {
+            assertThat(snapshot.mostActiveFor(DAY2)).containsExactly("busy");
+            assertThat(snapshot.uniqueCookies(DAY2)).isEqualTo(2);
+        }
+    }
+
+    @Test
+    void givenManySnapshots_whenMerged_thenTheCountsShouldAddUpLikeMergedDataStores() {
+        var random = new Random(42);
+        var total = new CookieDataStore();
+        var files = new ArrayList<Path>();
+        var snapshots = new ArrayList<CookieSnapshot>();
+        try {
+            for (int s = 0; s < 3; ++s) {
+                var store = new CookieDataStore();
+                for (int i = 0; i < 5_000; ++i) {
+                    var name = "cookie-" + random.nextInt(s == 0 ? 50 : 800);
+                    var day = s == 2 ? DAY3 : random.nextBoolean() ? DAY1 : DAY2;
+                    store.addCookie(name, day.toEpochDay());
+                    total.addCookie(name, day.toEpochDay());
+                }
+                var file = tempDir.resolve("hour-" + s + ".snap");
+                CookieSnapshot.write(file, store, List.of(DAY1, DAY2, DAY3));
+                files.add(file);
+                snapshots.add(CookieSnapshot.open(file));
+            }
+            var merged = tempDir.resolve("day.snap");
+            CookieSnapshot.merge(files, merged);
+
+            var dates = List.of(DAY1, DAY2, DAY3);
+            assertThat(CookieSnapshot.mostActiveFor(snapshots, dates)).isEqualTo(total.mostActiveFor(dates));
+            try (var snapshot = CookieSnapshot.open(merged)) {
+                assertThat(snapshot.mostActiveFor(dates)).isEqualTo(total.mostActiveFor(dates));
+                for (var date : dates) {
+                    assertThat(snapshot.uniqueCookies(date)).isEqualTo(total.uniqueCookies(date));
+                }
+            }
+        } finally {
+            snapshots.forEach(CookieSnapshot::close);
+        }
+    }
+
+    @Test
+    void givenLogFile_whenOpenedAsSnapshot_thenSnapshotExceptionShouldBeThrown() throws Exception {
+        var logFile = Files.writeString(tempDir.resolve("cookies.txt"), "cookie,timestamp\nc1,2018-12-09T14:19:00+00:00\n");
+
+        assertThat(CookieSnapshot.isSnapshot(logFile)).isFalse();
+        assertThat(CookieSnapshot.isSnapshot(tempDir)).isFalse();
+        var t = catchThrowable(() -> CookieSnapshot.open(logFile));
+        assertThat(t).isInstanceOf(SnapshotException.class).hasMessageContaining("cookies.txt");
+    }
+
+}
@@ -1,57 +1,326 @@
 package net.sanjayts.quantcast.takehome.cookiestore.core;
 
-import java.io.Writer;
+import lombok.Builder;
+import lombok.Singular;
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.security.SecureRandom;
-import java.util.ArrayList;
-import java.util.Comparator;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 /**
  * Test data generator for ease of load/functional testing.
+ *
+ * The generated log is streamed newest-first straight to the output in constant memory, so files of any size (tens of
+ * GBs included) can be produced. The output is fully determined by the configuration: the same seed always gives the
+ * same bytes, irrespective of the JVM, since the random numbers come from a hand-rolled SplitMix64 generator and the
+ * cookie names are derived from their popularity rank instead of being kept in memory.
  */
+@Builder
 public class DataGen {
 
-    private static final String[] NAMES = new String[] {
-            "AtY0laUfhglK3lC7", "BtY0laUfhglK3lC7", "CtY0laUfhglK3lC7", "DtY0laUfhglK3lC7", "EtY0laUfhglK3lC7",
-            "FtY0laUfhglK3lC7", "GtY0laUfhglK3lC7", "HtY0laUfhglK3lC7", "JtY0laUfhglK3lC7", "KtY0laUfhglK3lC7",
-            "LtY0laUfhglK3lC7", "MtY0laUfhglK3lC7", "NtY0laUfhglK3lC7", "OtY0laUfhglK3lC7", "PtY0laUfhglK3lC7",
-            "QtY0laUfhglK3lC7", "RtY0laUfhglK3lC7", "StY0laUfhglK3lC7", "TtY0laUfhglK3lC7", "UtY0laUfhglK3lC7",
-    };
-
-    private static final String[] TIMESTAMPS = new String[] {
-            "2018-01-01T14:19:00+00:00", "2018-02-02T14:19:00+00:00", "2018-03-03T14:19:00+00:00", "2018-04-04T14:19:00+00:00",
-            "2018-05-05T14:19:00+00:00", "2018-06-06T14:19:00+00:00", "2018-07-07T14:19:00+00:00", "2018-08-08T14:19:00+00:00",
-            "2018-09-09T14:19:00+00:00", "2018-10-10T14:19:00+00:00", "2018-11-11T14:19:00+00:00", "2018-12-12T14:19:00+00:00"
-    };
-
-    public static void main(String[] args) throws Exception {
-        var out = Files.newBufferedWriter(Path.of("test-data/load-test.txt"), StandardCharsets.UTF_8);
-        new DataGen().generateData(out, 1_000);
+    private static final byte[] NAME_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789"
+            .getBytes(StandardCharsets.US_ASCII);
+
+    private static final int NAME_LENGTH = 16;
+
+    private static final int SECONDS_PER_DAY = 86_400;
+
+    /** The seed of the random generator */
+    @Builder.Default
+    private final long seed = 42;
+
+    /** The number of distinct cookies */
+    @Builder.Default
+    private final int cardinality = 20;
+
+    /** The exponent of the Zipfian popularity of the cookies; 0 picks every cookie with the same probability */
+    @Builder.Default
+    private final double zipfSkew = 0;
+
+    /** The most recent day in the log */
+    @Builder.Default
+    private final LocalDate newestDay = LocalDate.of(2018, 12, 12);
+
+    /** The number of days the log spans, counting back from the newest day */
+    @Builder.Default
+    private final int days = 1;
+
+    /** The number of lines for every day, spread evenly over the day */
+    @Builder.Default
+    private final long linesPerDay = 1_000;
+
+    /** The offsets the timestamps are written with, picked at random for every line */
+    @Singular
+    private final List<ZoneOffset> offsets;
+
+    /** The share of lines which are replaced by malformed ones, between 0 and 1 */
+    @Builder.Default
+    private final double malformedRatio = 0;
+
+    public static void main(String[] args) {
+        System.exit(new CommandLine(new Cli()).execute(args));
     }
 
-    void generateData(Writer out, int recordCnt) throws Exception {
-        var noOfNames = NAMES.length;
-        var noOfTs = TIMESTAMPS.length;
-        var rand = new SecureRandom();
-        try (out) {
-            out.write("cookie,timestamp\n");
-            var data = new ArrayList<Cookie>();
-            for (int i = 0; i < recordCnt; ++i) {
-                var rName = NAMES[rand.nextInt(noOfNames)];
-                var rTs = TIMESTAMPS[rand.nextInt(noOfTs)];
-                data.add(new Cookie(rName, rTs));
+    /**
+     * Write the whole log, header included, to the given file
+     */
+    public void generate(Path file) throws IOException {
+        try (var out = Files.newOutputStream(file)) {
+            generate(out);
+        }
+    }
+
+    /**
+     * Write the whole log, header included, to the given stream. The stream is buffered internally but not closed.
+     */
+    public void generate(OutputStream output) throws IOException {
+        if (cardinality <= 0 || days <= 0 || linesPerDay < 0 || malformedRatio < 0 || malformedRatio > 1) {
+            throw new IllegalArgumentException(("Invalid data generator configuration -- cardinality=%d, days=%d, " +
+                    "linesPerDay=%d, malformedRatio=%s").formatted(cardinality, days, linesPerDay, malformedRatio));
+        }
+        var zoneOffsets = offsets.isEmpty() ? List.of(ZoneOffset.UTC) : offsets;
+        var random = new SplitMix64(seed);
+        var popularity = zipfSkew > 0 ? new ZipfSampler(cardinality, zipfSkew) : null;
+        var oldestEpochDay = newestDay.toEpochDay() - days + 1;
+        // Timestamps written with an offset may fall on the day before the oldest or after the newest day
+        var dates = new byte[days + 2][];
+        for (int i = 0; i < dates.length; ++i) {
+            dates[i] = LocalDate.ofEpochDay(oldestEpochDay - 1 + i).toString().getBytes(StandardCharsets.US_ASCII);
+        }
+
+        var out = new BufferedOutputStream(output, 1 << 20);
+        var line = new LineBuilder();
+        out.write("cookie,timestamp\n".getBytes(StandardCharsets.US_ASCII));
+        for (long epochDay = newestDay.toEpochDay(); epochDay >= oldestEpochDay; --epochDay) {
+            for (long i = 0; i < linesPerDay; ++i) {
+                var epochSecond = epochDay * SECONDS_PER_DAY + SECONDS_PER_DAY - 1 - i * SECONDS_PER_DAY / linesPerDay;
+                var rank = popularity == null ? random.nextInt(cardinality) + 1 : popularity.sample(random);
+                var offset = zoneOffsets.get(zoneOffsets.size() == 1 ? 0 : random.nextInt(zoneOffsets.size()));
+                var malformed = malformedRatio > 0 && random.nextDouble() < malformedRatio;
+
+                line.reset();
+                if (malformed) {
+                    line.malformed(random.nextInt(3), rank, epochSecond, offset, dates, oldestEpochDay);
+                } else {
+                    line.name(rank).ascii(',').timestamp(epochSecond, offset, dates, oldestEpochDay);
+                }
+                out.write(line.bytes, 0, line.length);
+                out.write('\n');
             }
+        }
+        out.flush();
+    }
+
+    /** Builds a single line of the log in a reusable buffer */
+    private final class LineBuilder {
+
+        private final byte[] bytes = new byte[64];
 
-            data.sort(Comparator.comparing(Cookie::timestamp).reversed());
+        private int length;
 
-            for (var c : data) {
-                out.write(String.format("%s,%s\n", c.name(), c.timestamp()));
+        void reset() {
+            length = 0;
+        }
+
+        LineBuilder ascii(char c) {
+            bytes[length++] = (byte) c;
+            return this;
+        }
+
+        LineBuilder ascii(String s) {
+            for (int i = 0; i < s.length(); ++i) {
+                ascii(s.charAt(i));
+            }
+            return this;
+        }
+
+        /** The name of a cookie is a 16 character alphanumeric string derived from its rank and the seed */
+        LineBuilder name(long rank) {
+            var bits = SplitMix64.mix(seed ^ (rank * 0x9E3779B97F4A7C15L));
+            for (int i = 0; i < NAME_LENGTH; ++i) {
+                if (i == NAME_LENGTH / 2) {
+                    bits = SplitMix64.mix(bits);
+                }
+                bytes[length++] = NAME_CHARS[(int) Long.remainderUnsigned(bits, NAME_CHARS.length)];
+                bits = Long.divideUnsigned(bits, NAME_CHARS.length);
+            }
+            return this;
+        }
+
+        LineBuilder timestamp(long epochSecond, ZoneOffset offset, byte[][] dates, long oldestEpochDay) {
+            var local = epochSecond + offset.getTotalSeconds();
+            var localDay = Math.floorDiv(local, SECONDS_PER_DAY);
+            var secondOfDay = (int) Math.floorMod(local, SECONDS_PER_DAY);
+            var date = dates[(int) (localDay - oldestEpochDay + 1)];
+            System.arraycopy(date, 0, bytes, length, date.length);
+            length += date.length;
+            ascii('T').twoDigits(secondOfDay / 3600).ascii(':').twoDigits(secondOfDay / 60 % 60).ascii(':')
+                    .twoDigits(secondOfDay % 60);
+            var offsetSeconds = offset.getTotalSeconds();
+            return ascii(offsetSeconds < 0 ? '-' : '+').twoDigits(Math.abs(offsetSeconds) / 3600).ascii(':')
+                    .twoDigits(Math.abs(offsetSeconds) / 60 % 60);
+        }
+
+        void malformed(int kind, long rank, long epochSecond, ZoneOffset offset, byte[][] dates, long oldestEpochDay) {
+            switch (kind) {
+                case 0 -> name(rank);
+                case 1 -> name(rank).ascii(",not-a-timestamp");
+                default -> ascii(',').timestamp(epochSecond, offset, dates, oldestEpochDay);
             }
         }
+
+        private LineBuilder twoDigits(int value) {
+            return ascii((char) ('0' + value / 10)).ascii((char) ('0' + value % 10));
+        }
+
     }
 
-}
+    /**
+     * The SplitMix64 generator (Steele, Lea and Flood): tiny, fast and statistically good enough for test data, and
+     * unlike java.util.Random its output is pinned down by this code rather than the JDK.
+     */
+    static final class SplitMix64 {
+
+        private long state;
+
+        SplitMix64(long seed) {
+            this.state = seed;
+        }
+
+        static long mix(long z) {
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+
+        long nextLong() {
+            state += 0x9E3779B97F4A7C15L;
+            return mix(state);
+        }
+
+        double nextDouble() {
+            return (nextLong() >>> 11) * 0x1.0p-53;
+        }
+
+        int nextInt(int bound) {
+            // Lemire's multiply-shift; the bias is negligible for the bounds we deal with
+            return (int) (((nextLong() >>> 32) * bound) >>> 32);
+        }
+
+    }
+
+    /**
+     * Samples ranks 1..n with a probability proportional to 1/rank^exponent in constant time and memory, using the
+     * rejection-inversion method of Hörmann and Derflinger (as found in Apache Commons Math).
+     */
+    static final class ZipfSampler {
+
+        private final int n;
+
+        private final double exponent;
+
+        private final double hIntegralX1;
+
+        private final double hIntegralN;
 
-record Cookie(String name, String timestamp) {}
\ No newline at end of file
+        private final double s;
+
+        ZipfSampler(int n, double exponent) {
+            this.n = n;
+            this.exponent = exponent;
+            this.hIntegralX1 = hIntegral(1.5) - 1;
+            this.hIntegralN = hIntegral(n + 0.5);
+            this.s = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+        }
+
+        int sample(SplitMix64 random) {
+            while (true) {
+                var u = hIntegralN + random.nextDouble() * (hIntegralX1 - hIntegralN);
+                var x = hIntegralInverse(u);
+                var k = (int) Math.max(1, Math.min(n, x + 0.5));
+                if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) {
+                    return k;
+                }
+            }
+        }
+
+        private double hIntegral(double x) {
+            var logX = Math.log(x);
+            return helper2((1 - exponent) * logX) * logX;
+        }
+
+        private double h(double x) {
+            return Math.exp(-exponent * Math.log(x));
+        }
+
+        private double hIntegralInverse(double x) {
+            var t = Math.max(-1, x * (1 - exponent));
+            return Math.exp(helper1(t) * x);
+        }
+
+        /** log(1 + x) / x, accurate around 0 */
+        private static double helper1(double x) {
+            return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+        }
+
+        /** (exp(x) - 1) / x, accurate around 0 */
+        private static double helper2(double x) {
+            return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1 + x * 0.5 * (1 + x / 3 * (1 + 0.25 * x));
+        }
+
+    }
+
+    @Command(name = "data-gen", mixinStandardHelpOptions = true,
+            description = "Generate a newest-first sorted cookie log for load testing")
+    static class Cli implements Callable<Integer> {
+
+        @Option(names = {"-o", "--output"}, defaultValue = "test-data/load-test.txt", description = "The file to write")
+        private Path output;
+
+        @Option(names = "--seed", defaultValue = "42")
+        private long seed;
+
+        @Option(names = "--cardinality", defaultValue = "20", description = "Number of distinct cookies")
+        private int cardinality;
+
+        @Option(names = "--zipf", defaultValue = "0", description = "Zipfian popularity exponent, 0 for uniform")
+        private double zipfSkew;
+
+        @Option(names = "--newest-day", defaultValue = "2018-12-12")
+        private LocalDate newestDay;
+
+        @Option(names = "--days", defaultValue = "12", description = "Number of days counting back from the newest day")
+        private int days;
+
+        @Option(names = "--lines-per-day", defaultValue = "100")
+        private long linesPerDay;
+
+        @Option(names = "--offsets", split = ",", defaultValue = "+00:00",
+                description = "Offsets the timestamps are written with, e.g. +00:00,+05:30,-08:00")
+        private List<String> offsets;
+
+        @Option(names = "--malformed", defaultValue = "0", description = "Share of malformed lines between 0 and 1")
+        private double malformedRatio;
+
+        @Override
+        public Integer call() throws IOException {
+            var builder = DataGen.builder().seed(seed).cardinality(cardinality).zipfSkew(zipfSkew).newestDay(newestDay)
+                    .days(days).linesPerDay(linesPerDay).malformedRatio(malformedRatio);
+            offsets.forEach(offset -> builder.offset(ZoneOffset.of(offset)));
+            builder.build().generate(output);
+            return 0;
+        }
+
+    }
+
+}
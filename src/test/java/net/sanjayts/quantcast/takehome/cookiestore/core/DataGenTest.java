@@ -0,0 +1,65 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.HashSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DataGenTest {
+
+    private static final DataGen GENERATOR = DataGen.builder()
+            .cardinality(1_000)
+            .zipfSkew(1.1)
+            .newestDay(LocalDate.of(2018, 12, 12))
+            .days(3)
+            .linesPerDay(2_000)
+            .offset(ZoneOffset.UTC)
+            .offset(ZoneOffset.ofHours(-8))
+            .malformedRatio(0.05)
+            .build();
+
+    @Test
+    void givenSameConfiguration_whenGeneratedTwice_thenOutputShouldBeIdentical() throws Exception {
+        assertThat(generate(GENERATOR)).isEqualTo(generate(GENERATOR));
+        assertThat(generate(DataGen.builder().seed(7).build())).isNotEqualTo(generate(DataGen.builder().build()));
+    }
+
+    @Test
+    void givenConfiguration_whenGenerated_thenLinesShouldBeSortedNewestFirstWithTheRequestedShape() throws Exception {
+        var lines = new String(generate(GENERATOR), StandardCharsets.US_ASCII).split("\n");
+        assertThat(lines[0]).isEqualTo("cookie,timestamp");
+        assertThat(lines).hasSize(1 + 3 * 2_000);
+
+        var previous = Long.MAX_VALUE;
+        var malformed = 0;
+        var names = new HashSet<String>();
+        var days = new HashSet<LocalDate>();
+        for (int i = 1; i < lines.length; ++i) {
+            var info = CookieParser.parseInfo(lines[i]);
+            if (!info.isValid()) {
+                ++malformed;
+                continue;
+            }
+            var epochSecond = info.getTimestamp().toEpochSecond();
+            assertThat(epochSecond).isLessThanOrEqualTo(previous);
+            previous = epochSecond;
+            names.add(info.getName());
+            days.add(info.getTimestamp().toLocalDate());
+        }
+        assertThat(malformed).isBetween(200, 400);
+        assertThat(names).hasSizeGreaterThan(100).hasSizeLessThanOrEqualTo(1_000);
+        assertThat(days).containsExactlyInAnyOrder(LocalDate.of(2018, 12, 10), LocalDate.of(2018, 12, 11), LocalDate.of(2018, 12, 12));
+    }
+
+    private static byte[] generate(DataGen generator) throws Exception {
+        var out = new ByteArrayOutputStream();
+        generator.generate(out);
+        return out.toByteArray();
+    }
+
+}
@@ -0,0 +1,85 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class DelimiterScannerTest {
+
+    @Test
+    void givenRandomBytes_whenScannedWithSwar_thenPositionsShouldMatchByteByByteScan() {
+        verifyAgainstNaiveScan(new DelimiterScanner.Swar());
+    }
+
+    @Test
+    void givenRandomBytes_whenScannedWithVectors_thenPositionsShouldMatchByteByByteScan() {
+        var vector = DelimiterScanner.vector();
+        assumeTrue(vector.isPresent(), "The Vector API scanner isn't available, it needs the vector build profile");
+        verifyAgainstNaiveScan(vector.get());
+    }
+
+    @Test
+    void givenMoreDelimitersThanPositions_whenScanned_thenScanShouldStopAndResume() {
+        var data = "a,b\nc,d\ne,f\ng,h\n".getBytes(StandardCharsets.US_ASCII);
+        var scanner = DelimiterScanner.best();
+        var positions = new int[3];
+
+        var found = new ArrayList<Integer>();
+        for (int from = 0, count; from < data.length; from = count == positions.length ? positions[count - 1] + 1 : data.length) {
+            count = scanner.scan(data, from, data.length, positions);
+            IntStream.range(0, count).forEach(i -> found.add(positions[i]));
+        }
+
+        assertThat(found).containsExactly(1, 3, 5, 7, 9, 11, 13, 15);
+    }
+
+    @Test
+    void givenBytesAboveAscii_whenScanned_thenTheyShouldNotBeTakenForDelimiters() {
+        // The bytes which differ from a delimiter in the high bit only, and the UTF-8 bytes of a non-ASCII cookie
+        var data = ("été,x" + "\n").getBytes(StandardCharsets.UTF_8);
+        var tricky = new byte[]{(byte) 0x8A, (byte) 0xAC, (byte) 0x8A, (byte) 0xAC, (byte) 0x8A, (byte) 0xAC, 0, 1};
+        var bytes = new byte[data.length + tricky.length];
+        System.arraycopy(tricky, 0, bytes, 0, tricky.length);
+        System.arraycopy(data, 0, bytes, tricky.length, data.length);
+
+        assertThat(scan(DelimiterScanner.best(), bytes, 0, bytes.length))
+                .isEqualTo(naiveScan(bytes, 0, bytes.length))
+                .hasSize(2);
+    }
+
+    private static void verifyAgainstNaiveScan(DelimiterScanner scanner) {
+        var random = new Random(42);
+        // Mostly delimiters and the bytes around them, to hit all the positions within a word or vector
+        var alphabet = new byte[]{',', '\n', 'a', '\r', 0, (byte) 0x8A, (byte) 0xAC, (byte) 0xFF, '+', '-'};
+        for (int round = 0; round < 200; ++round) {
+            var data = new byte[random.nextInt(300)];
+            for (int i = 0; i < data.length; ++i) {
+                data[i] = alphabet[random.nextInt(alphabet.length)];
+            }
+            // Unaligned ranges as well as the whole array
+            var from = data.length == 0 ? 0 : random.nextInt(Math.min(data.length, 17));
+            var to = data.length - (data.length - from == 0 ? 0 : random.nextInt(Math.min(data.length - from, 17)));
+
+            assertThat(scan(scanner, data, from, to)).as("%s on round %d", scanner.name(), round)
+                    .isEqualTo(naiveScan(data, from, to));
+        }
+    }
+
+    private static List<Integer> scan(DelimiterScanner scanner, byte[] data, int from, int to) {
+        var positions = new int[to - from];
+        var count = scanner.scan(data, from, to, positions);
+        return IntStream.range(0, count).mapToObj(i -> positions[i]).toList();
+    }
+
+    private static List<Integer> naiveScan(byte[] data, int from, int to) {
+        return IntStream.range(from, to).filter(i -> data[i] == '\n' || data[i] == ',').boxed().toList();
+    }
+
+}
@@ -0,0 +1,178 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import static net.sanjayts.quantcast.takehome.cookiestore.core.TestFixtures.fifo;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class GzipDecoderTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void givenFiles_whenChecked_thenOnlyGzipFilesShouldBeDetected() throws Exception {
+        assertThat(GzipDecoder.isGzip(gzip(tempDir.resolve("a.gz"), sampleLog(10)))).isTrue();
+        assertThat(GzipDecoder.isGzip(Files.write(tempDir.resolve("a.txt"), sampleLog(10)))).isFalse();
+        assertThat(GzipDecoder.isGzip(Files.write(tempDir.resolve("empty.txt"), new byte[0]))).isFalse();
+    }
+
+    @Test
+    @EnabledOnOs({OS.LINUX, OS.MAC})
+    void givenPipes_whenOpenedDecompressed_thenNoBytesShouldBeLostToTheCheck() throws Exception {
+        var data = sampleLog(10_000);
+        for (var bytes : new byte[][]{data, gzipBytes(data)}) {
+            var pipe = fifo(tempDir.resolve("pipe-" + bytes.length));
+            var writer = CompletableFuture.runAsync(() -> {
+                try {
+                    Files.write(pipe, bytes);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+
+            assertThat(GzipDecoder.isGzip(pipe)).isFalse();
+            try (var in = GzipDecoder.openDecompressed(pipe, 1)) {
+                assertThat(in.readAllBytes()).isEqualTo(data);
+            }
+            writer.join();
+        }
+    }
+
+    @Test
+    void givenMultiMemberGzip_whenDecoded_thenAllMembersShouldBeStreamedInOrder() throws Exception {
+        var data = sampleLog(50_000);
+        var half = data.length / 2;
+        var file = tempDir.resolve("cookies.gz");
+        var out = new ByteArrayOutputStream();
+        out.write(gzipBytes(Arrays.copyOfRange(data, 0, half)));
+        out.write(gzipBytes(Arrays.copyOfRange(data, half, data.length)));
+        Files.write(file, out.toByteArray());
+
+        try (var in = GzipDecoder.open(file, 1)) {
+            assertThat(in.readAllBytes()).isEqualTo(data);
+        }
+    }
+
+    @Test
+    void givenBgzfFile_whenDecodedInParallel_thenTheOriginalDataShouldBeStreamed() throws Exception {
+        var data = sampleLog(100_000);
+        var file = Files.write(tempDir.resolve("cookies.bgz"), bgzf(data, 20_000));
+
+        try (var in = GzipDecoder.open(file, 4)) {
+            assertThat(in.readAllBytes()).isEqualTo(data);
+        }
+        try (var in = GzipDecoder.open(file, 1)) {
+            assertThat(in.readAllBytes()).isEqualTo(data);
+        }
+    }
+
+    @Test
+    void givenCorruptBgzfMember_whenDecoded_thenItShouldFail() throws Exception {
+        var bytes = bgzf(sampleLog(1_000), 10_000);
+        // Flip a bit of the CRC32 of the first member
+        var firstBlockSize = (bytes[16] & 0xFF | (bytes[17] & 0xFF) << 8) + 1;
+        bytes[firstBlockSize - 8] ^= 1;
+        var file = Files.write(tempDir.resolve("corrupt.bgz"), bytes);
+
+        try (var in = GzipDecoder.open(file, 2)) {
+            assertThatThrownBy(in::readAllBytes).isInstanceOf(IOException.class).hasMessageContaining("CRC32");
+        }
+    }
+
+    @Test
+    void givenBgzfMemberClaimingAHugeSize_whenDecoded_thenItShouldFailWithoutAllocatingIt() throws Exception {
+        var bytes = bgzf(sampleLog(1_000), 10_000);
+        // Overwrite the uncompressed size in the trailer of the first member with 2GB - 1
+        var firstBlockSize = (bytes[16] & 0xFF | (bytes[17] & 0xFF) << 8) + 1;
+        bytes[firstBlockSize - 4] = (byte) 0xFF;
+        bytes[firstBlockSize - 3] = (byte) 0xFF;
+        bytes[firstBlockSize - 2] = (byte) 0xFF;
+        bytes[firstBlockSize - 1] = 0x7F;
+        var file = Files.write(tempDir.resolve("huge.bgz"), bytes);
+
+        try (var in = GzipDecoder.open(file, 2)) {
+            assertThatThrownBy(in::readAllBytes).isInstanceOf(IOException.class).hasMessageContaining("2147483647");
+        }
+    }
+
+    @Test
+    void givenLargeFile_whenClosedEarly_thenTheBackgroundThreadShouldStop() throws Exception {
+        var file = gzip(tempDir.resolve("big.gz"), sampleLog(200_000));
+        var in = GzipDecoder.open(file, 1);
+        assertThat(in.read()).isEqualTo('c');
+        in.close();
+        assertThatThrownBy(in::readAllBytes).isInstanceOf(IOException.class);
+    }
+
+    private static byte[] sampleLog(int lines) {
+        var sb = new StringBuilder("cookie,timestamp\n");
+        for (int i = 0; i < lines; ++i) {
+            sb.append("cookie-").append(i % 977).append(",2018-12-09T10:").append(i % 60 / 10).append(i % 10).append(":00+00:00\n");
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Path gzip(Path file, byte[] data) throws IOException {
+        return Files.write(file, gzipBytes(data));
+    }
+
+    private static byte[] gzipBytes(byte[] data) throws IOException {
+        var out = new ByteArrayOutputStream();
+        try (var gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    /** Write the data as BGZF members of the given uncompressed size, followed by the empty EOF member */
+    private static byte[] bgzf(byte[] data, int memberSize) {
+        var out = new ByteArrayOutputStream();
+        for (int from = 0; from < data.length; from += memberSize) {
+            writeMember(out, Arrays.copyOfRange(data, from, Math.min(data.length, from + memberSize)));
+        }
+        writeMember(out, new byte[0]);
+        return out.toByteArray();
+    }
+
+    private static void writeMember(ByteArrayOutputStream out, byte[] data) {
+        var deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data);
+        deflater.finish();
+        var buffer = new byte[data.length + 1024];
+        var compressedSize = deflater.deflate(buffer);
+        deflater.end();
+        var crc = new CRC32();
+        crc.update(data);
+
+        var blockSize = 18 + compressedSize + 8;
+        out.writeBytes(new byte[]{0x1F, (byte) 0x8B, 8, 4, 0, 0, 0, 0, 0, (byte) 0xFF, 6, 0, 'B', 'C', 2, 0});
+        writeLittleEndian(out, blockSize - 1, 2);
+        out.write(buffer, 0, compressedSize);
+        writeLittleEndian(out, (int) crc.getValue(), 4);
+        writeLittleEndian(out, data.length, 4);
+    }
+
+    private static void writeLittleEndian(ByteArrayOutputStream out, int value, int bytes) {
+        for (int i = 0; i < bytes; ++i) {
+            out.write(value >>> (8 * i));
+        }
+    }
+
+}
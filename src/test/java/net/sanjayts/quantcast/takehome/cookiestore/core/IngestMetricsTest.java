@@ -0,0 +1,113 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IngestMetricsTest {
+
+    private static final LocalDate DAY = LocalDate.of(2018, 12, 9);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void givenRecordedCounts_whenSnapshotTaken_thenTotalsShouldBeSummedUp() {
+        var metrics = new IngestMetrics();
+        var tally = new IngestMetrics.Tally();
+        tally.read(10);
+        tally.read(20);
+        tally.parsed();
+        tally.malformed(MalformedReason.BAD_TIMESTAMP);
+        tally.flushTo(metrics);
+        tally.read(5);
+        tally.skipped();
+        tally.flushTo(metrics);
+        metrics.read(100, 4000);
+        metrics.parsed(99);
+        metrics.malformed(MalformedReason.BAD_TIMESTAMP, 1);
+
+        var snapshot = metrics.snapshot();
+
+        assertThat(snapshot.linesRead()).isEqualTo(103);
+        assertThat(snapshot.bytesRead()).isEqualTo(4035);
+        assertThat(snapshot.linesParsed()).isEqualTo(100);
+        assertThat(snapshot.skippedBeforeCutoff()).isEqualTo(1);
+        assertThat(snapshot.malformed(MalformedReason.BAD_TIMESTAMP)).isEqualTo(2);
+        assertThat(snapshot.malformed(MalformedReason.EXTRA_FIELDS)).isZero();
+        assertThat(snapshot.malformedTotal()).isEqualTo(2);
+        assertThat(snapshot.uniqueCookies()).isEmpty();
+    }
+
+    @Test
+    void givenTimedBatches_whenSnapshotTaken_thenPercentilesShouldBoundTheTimes() {
+        var metrics = new IngestMetrics();
+        for (int i = 0; i < 99; ++i) {
+            metrics.timed(IngestMetrics.Stage.PARSE, 1000);
+        }
+        metrics.timed(IngestMetrics.Stage.PARSE, 1_000_000);
+
+        var parse = metrics.snapshot().stage(IngestMetrics.Stage.PARSE);
+
+        assertThat(parse.stage()).isEqualTo(IngestMetrics.Stage.PARSE);
+        assertThat(parse.batches()).isEqualTo(100);
+        assertThat(parse.nanos()).isEqualTo(99 * 1000 + 1_000_000);
+        assertThat(parse.percentile(0.5)).isEqualTo(1024);
+        assertThat(parse.percentile(0.99)).isEqualTo(1024);
+        assertThat(parse.percentile(1)).isEqualTo(1 << 20);
+        assertThat(metrics.snapshot().stage(IngestMetrics.Stage.READ).percentile(0.5)).isZero();
+    }
+
+    @Test
+    void givenStore_whenSnapshotTaken_thenUniqueCookiesPerDayShouldBeIncluded() {
+        var store = new CookieDataStore();
+        store.addCookie("c1", DAY.toEpochDay());
+        store.addCookie("c1", DAY.toEpochDay());
+        store.addCookie("c2", DAY.toEpochDay());
+        store.addCookie("c1", DAY.minusDays(1).toEpochDay());
+
+        var snapshot = new IngestMetrics().snapshot(store);
+
+        assertThat(snapshot.uniqueCookies()).containsExactly(Map.entry(DAY.minusDays(1), 1),
+                Map.entry(DAY, 2));
+        assertThat(snapshot.format()).contains("2018-12-09 2 unique cookies");
+    }
+
+    @Test
+    void givenSnapshot_whenWritten_thenFormatShouldFollowTheFileName() throws Exception {
+        var metrics = new IngestMetrics();
+        metrics.read(3, 120);
+        metrics.malformed(MalformedReason.BLANK_COOKIE, 1);
+        metrics.timed(IngestMetrics.Stage.STORE, 3000);
+        var store = new CookieDataStore();
+        store.addCookie("c1", DAY.toEpochDay());
+        var snapshot = metrics.snapshot(store);
+
+        var json = tempDir.resolve("stats.json");
+        var prometheus = tempDir.resolve("stats.prom");
+        snapshot.writeTo(json);
+        snapshot.writeTo(prometheus);
+        snapshot.writeTo(prometheus);
+
+        assertThat(json).content().startsWith("{\"elapsedNanos\":")
+                .contains("\"linesRead\":3,\"bytesRead\":120", "\"blank_cookie\":1", "\"uniqueCookies\":{\"2018-12-09\":1}}");
+        assertThat(Files.readAllLines(prometheus)).contains(
+                "# TYPE cookiestore_lines_read_total counter",
+                "cookiestore_lines_read_total 3",
+                "cookiestore_lines_malformed_total{reason=\"blank_cookie\"} 1",
+                "cookiestore_stage_batch_seconds_bucket{stage=\"store\",le=\"4.096E-6\"} 1",
+                "cookiestore_stage_batch_seconds_bucket{stage=\"store\",le=\"+Inf\"} 1",
+                "cookiestore_stage_batch_seconds_count{stage=\"store\"} 1",
+                "cookiestore_unique_cookies{date=\"2018-12-09\"} 1");
+        assertThat(tempDir.toFile().list()).containsExactlyInAnyOrder("stats.json", "stats.prom");
+        assertThat(List.of(snapshot.format().split("\n"))).anyMatch(line -> line.contains("blank_cookie"));
+    }
+
+}
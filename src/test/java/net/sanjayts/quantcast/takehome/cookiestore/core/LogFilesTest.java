@@ -0,0 +1,72 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.TreeSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LogFilesTest {
+
+    private static final List<String> HEADERS = List.of("cookie", "timestamp");
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void givenFilesDirectoriesAndGlobs_whenResolved_thenTheDistinctFilesShouldBeReturnedInOrder() throws Exception {
+        var dir = Files.createDirectories(tempDir.resolve("hosts"));
+        var a = Files.writeString(dir.resolve("a.log"), "");
+        var b = Files.writeString(dir.resolve("b.log.gz"), "");
+        Files.writeString(dir.resolve(".hidden"), "");
+        Files.createDirectories(dir.resolve("nested"));
+        var single = Files.writeString(tempDir.resolve("single.log"), "");
+
+        assertThat(LogFiles.resolve(List.of(dir.toString()))).containsExactly(a, b);
+        assertThat(LogFiles.resolve(List.of(dir.resolve("*.gz").toString(), single.toString(), a.toString())))
+                .containsExactly(a, b, single);
+    }
+
+    @Test
+    void givenIndexAndSnapshotNextToTheLogs_whenDirectoryResolved_thenOnlyTheLogsShouldBeReturned() throws Exception {
+        var dir = Files.createDirectories(tempDir.resolve("logs"));
+        var logFile = Files.writeString(dir.resolve("a.log"), "cookie,timestamp\nc1,2018-12-09T14:19:00+00:00\n");
+        var dates = new TreeSet<>(List.of(LocalDate.of(2018, 12, 9)));
+        var store = new CookieDataStore();
+        try (var source = new MappedCookieSource(logFile)) {
+            new Runner().run(CookieParser.createFromAndValidate(source, HEADERS, dates.first()), store, dates);
+        }
+        var indexFile = CookieIndex.defaultPathFor(logFile);
+        CookieIndex.write(indexFile, logFile, store, dates.first());
+        var snapshotFile = dir.resolve("a.snap");
+        CookieSnapshot.write(snapshotFile, store, dates);
+
+        assertThat(LogFiles.resolve(List.of(dir.toString()))).containsExactly(logFile);
+        // Naming them, or a glob matching them, is still fine
+        assertThat(LogFiles.resolve(List.of(dir.resolve("a.*").toString())))
+                .containsExactly(logFile, indexFile, snapshotFile);
+    }
+
+    @Test
+    void givenGlobWithoutMatches_whenResolved_thenItShouldFail() {
+        assertThatThrownBy(() -> LogFiles.resolve(List.of(tempDir.resolve("*.log").toString())))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void givenMissingFile_whenResolved_thenItShouldFail() throws Exception {
+        var existing = Files.writeString(tempDir.resolve("a.log"), "");
+        var missing = tempDir.resolve("b.log");
+
+        assertThatThrownBy(() -> LogFiles.resolve(List.of(existing.toString(), missing.toString())))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining(missing.toString());
+    }
+
+}
@@ -0,0 +1,92 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LogTailerTest {
+
+    private static final List<String> DEFAULT_HEADERS = List.of("cookie", "timestamp");
+
+    private static final LocalDate DAY_1 = LocalDate.of(2018, 12, 8);
+
+    private static final LocalDate DAY_2 = LocalDate.of(2018, 12, 9);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void givenGrowingLog_whenPolled_thenOnlyNewCompleteLinesShouldBeIngested() throws Exception {
+        var logFile = Files.writeString(tempDir.resolve("cookies.txt"), "cookie,timestamp\nc1,2018-12-09T01:00:00+00:00\nc2,2018-12-09T02:00");
+        var store = new CookieDataStore();
+        try (var tailer = LogTailer.follow(logFile, store, DEFAULT_HEADERS, 0)) {
+            assertThat(tailer.poll()).isEqualTo(2);
+            assertThat(store.mostActiveFor(DAY_2)).isEqualTo(Set.of("c1"));
+
+            append(logFile, ":00+00:00\nc2,2018-12-09T03:00:00+00:00\n");
+            assertThat(tailer.poll()).isEqualTo(2);
+            assertThat(store.mostActiveFor(DAY_2)).isEqualTo(Set.of("c2"));
+            assertThat(tailer.poll()).isZero();
+            assertThat(tailer.stats()).isEqualTo(new LogTailer.Stats(4, 0, 0, 0));
+        }
+    }
+
+    @Test
+    void givenLinesOutOfOrder_whenPolled_thenTheyShouldBeCountedTowardsTheirOwnDay() throws Exception {
+        var logFile = Files.writeString(tempDir.resolve("cookies.txt"), "cookie,timestamp\n" +
+                "c1,2018-12-08T01:00:00+00:00\n" +
+                "c2,2018-12-09T01:00:00+00:00\n" +
+                "c3,2018-12-08T02:00:00+00:00\n" +
+                "c3,2018-12-08T03:00:00+00:00\n" +
+                "not a cookie\n");
+        var store = new CookieDataStore();
+        try (var tailer = LogTailer.follow(logFile, store, DEFAULT_HEADERS, 0)) {
+            tailer.poll();
+            assertThat(store.mostActiveFor(DAY_1)).isEqualTo(Set.of("c3"));
+            assertThat(store.mostActiveFor(DAY_2)).isEqualTo(Set.of("c2"));
+            assertThat(tailer.stats()).isEqualTo(new LogTailer.Stats(6, 2, 0, 1));
+        }
+    }
+
+    @Test
+    void givenRetention_whenNewerDaysArrive_thenOlderDaysAndLateLinesShouldBeDropped() throws Exception {
+        var logFile = Files.writeString(tempDir.resolve("cookies.txt"), "c1,2018-12-08T01:00:00+00:00\n");
+        var store = new CookieDataStore();
+        try (var tailer = LogTailer.follow(logFile, store, DEFAULT_HEADERS, 1)) {
+            tailer.poll();
+            assertThat(store.dates()).containsExactly(DAY_1);
+
+            append(logFile, "c2,2018-12-09T01:00:00+00:00\nc1,2018-12-08T02:00:00+00:00\n");
+            tailer.poll();
+            assertThat(store.dates()).containsExactly(DAY_2);
+            assertThat(tailer.stats()).isEqualTo(new LogTailer.Stats(3, 1, 1, 0));
+        }
+    }
+
+    @Test
+    void givenTruncatedLog_whenPolled_thenItShouldBeFollowedFromTheTop() throws Exception {
+        var logFile = Files.writeString(tempDir.resolve("cookies.txt"), "cookie,timestamp\n" +
+                "c1,2018-12-09T01:00:00+00:00\nc1,2018-12-09T02:00:00+00:00\n");
+        var store = new CookieDataStore();
+        try (var tailer = LogTailer.follow(logFile, store, DEFAULT_HEADERS, 0)) {
+            tailer.poll();
+            Files.writeString(logFile, "cookie,timestamp\nc2,2018-12-09T03:00:00+00:00\n");
+            tailer.poll();
+            assertThat(store.countOf(DAY_2, "c1")).isEqualTo(2);
+            assertThat(store.countOf(DAY_2, "c2")).isEqualTo(1);
+        }
+    }
+
+    private static void append(Path file, String data) throws Exception {
+        Files.writeString(file, data, StandardOpenOption.APPEND);
+    }
+
+}
@@ -0,0 +1,107 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import net.sanjayts.quantcast.takehome.cookiestore.exceptions.SourceException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static net.sanjayts.quantcast.takehome.cookiestore.core.TestFixtures.fileOf;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+class MappedCookieSourceTest {
+
+    private static final String SAMPLE_DATA = "cookie,timestamp\nAtY0laUfhglK3lC7,2018-12-09T14:19:00+00:00";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void givenNewSource_whenNextLineCalledTwice_thenBothLinesShouldBeReturned() throws Exception {
+        try (var cookieSource = new MappedCookieSource(fileOf(tempDir, SAMPLE_DATA))) {
+            assertThat(cookieSource.nextLine()).isEqualTo("cookie,timestamp");
+            assertThat(cookieSource.nextLine()).isEqualTo("AtY0laUfhglK3lC7,2018-12-09T14:19:00+00:00");
+            assertThat(cookieSource.nextLine()).isNull();
+        }
+    }
+
+    @Test
+    void givenNewSource_whenAdvanceCalled_thenLineViewShouldPointToTheCurrentLine() throws Exception {
+        try (var cookieSource = new MappedCookieSource(fileOf(tempDir, SAMPLE_DATA + "\n"))) {
+            assertThat(cookieSource.advance()).isTrue();
+            assertThat(cookieSource.line().length()).isEqualTo(16);
+            assertThat(cookieSource.line().charAt(6)).isEqualTo(',');
+            assertThat(cookieSource.line().subSequence(0, 6)).isEqualTo("cookie");
+            assertThat(cookieSource.advance()).isTrue();
+            assertThat(cookieSource.lineOffset()).isEqualTo(17);
+            assertThat(cookieSource.advance()).isFalse();
+        }
+    }
+
+    @Test
+    void givenFileWithWindowsLineEndingsAndEmptyLines_whenRead_thenAllLinesShouldBeReturnedWithoutCarriageReturns() throws Exception {
+        try (var cookieSource = new MappedCookieSource(fileOf(tempDir, "a,b\r\n\nc,d\r\n"))) {
+            assertThat(readAll(cookieSource)).isEqualTo(List.of("a,b", "", "c,d"));
+        }
+    }
+
+    @Test
+    void givenEmptyFile_whenNextLineCalled_thenNullShouldBeReturned() throws Exception {
+        try (var cookieSource = new MappedCookieSource(fileOf(tempDir, ""))) {
+            assertThat(cookieSource.nextLine()).isNull();
+        }
+    }
+
+    @Test
+    void givenWindowSmallerThanTheFile_whenRead_thenLinesCrossingWindowBoundariesShouldBeReturnedIntact() throws Exception {
+        var data = "cookie,timestamp\nc1,2018-12-09T14:19:00+00:00\nc2,2018-12-09T10:13:00+00:00\nc3,2018-12-08T10:13:00+00:00";
+        try (var cookieSource = new MappedCookieSource(fileOf(tempDir, data), 0, Long.MAX_VALUE, 50)) {
+            assertThat(readAll(cookieSource)).isEqualTo(List.of(data.split("\n")));
+        }
+    }
+
+    @Test
+    void givenFileRegion_whenRead_thenOnlyLinesInsideTheRegionShouldBeReturned() throws Exception {
+        var data = "l1\nl2\nl3\nl4\n";
+        try (var cookieSource = new MappedCookieSource(fileOf(tempDir, data), 3, 9, MappedCookieSource.DEFAULT_WINDOW_SIZE)) {
+            assertThat(readAll(cookieSource)).isEqualTo(List.of("l2", "l3"));
+        }
+    }
+
+    @Test
+    void givenLineLongerThanTheWindow_whenRead_thenAnExceptionShouldBeThrown() throws Exception {
+        try (var cookieSource = new MappedCookieSource(fileOf(tempDir, "a-really-long-line\nb"), 0, Long.MAX_VALUE, 4)) {
+            var t = catchThrowable(cookieSource::nextLine);
+            assertThat(t).isInstanceOf(SourceException.class)
+                    .hasMessage("Found a line longer than the mapping window of 4 bytes");
+        }
+    }
+
+    @Test
+    void givenMappedSource_whenParsed_thenCookiesShouldBeSameAsReaderBasedSource() throws Exception {
+        var data = "cookie,timestamp\nc1,2018-12-09T14:19:00+01:00\n,\nbad,line\nc2,2018-12-09T10:13:00+00:00\nc3,2018-12-08T10:13:00+00:00\n";
+        var cutoff = LocalDate.of(2018, 12, 9);
+        var file = fileOf(tempDir, data);
+        try (var mapped = new MappedCookieSource(file); var reader = new CookieSource(Files.newBufferedReader(file))) {
+            var mappedCookies = CookieParser.createFromAndValidate(mapped, List.of("cookie", "timestamp"), cutoff)
+                    .cookieInfoStream().toList();
+            var readerCookies = CookieParser.createFromAndValidate(reader, List.of("cookie", "timestamp"), cutoff)
+                    .cookieInfoStream().toList();
+            assertThat(mappedCookies).hasSize(2).isEqualTo(readerCookies);
+        }
+    }
+
+    private static List<String> readAll(CookieSource source) {
+        var lines = new ArrayList<String>();
+        for (var line = source.nextLine(); line != null; line = source.nextLine()) {
+            lines.add(line);
+        }
+        return lines;
+    }
+
+}
@@ -0,0 +1,96 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MultiFileRunnerTest {
+
+    private static final List<String> DEFAULT_HEADERS = List.of("cookie", "timestamp");
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    @TempDir
+    static Path tempDir;
+
+    private static final List<Path> shards = new ArrayList<>();
+
+    @BeforeAll
+    static void generateShards() throws Exception {
+        // Shards of different hosts overlap in time, the last one is entirely older than the target dates
+        for (int i = 0; i < 6; ++i) {
+            var newestDay = i < 5 ? LocalDate.of(2018, 12, 12 - i % 3) : LocalDate.of(2018, 11, 1);
+            var generator = DataGen.builder().seed(i).cardinality(30).zipfSkew(1.1).newestDay(newestDay).days(4)
+                    .linesPerDay(200).build();
+            var shard = tempDir.resolve("host-%d.log".formatted(i));
+            if (i == 2) {
+                shard = tempDir.resolve("host-%d.log.gz".formatted(i));
+                try (var out = new GZIPOutputStream(Files.newOutputStream(shard))) {
+                    generator.generate(out);
+                }
+            } else {
+                generator.generate(shard);
+            }
+            shards.add(shard);
+        }
+    }
+
+    @AfterAll
+    static void shutdownPool() {
+        POOL.shutdownNow();
+    }
+
+    @Test
+    void givenShardedLogs_whenRunInParallel_thenResultShouldBeSameAsIngestingEveryFileSequentially() {
+        var targetDates = new TreeSet<>(List.of(LocalDate.of(2018, 12, 9), LocalDate.of(2018, 12, 10)));
+        var expected = new CookieDataStore();
+        for (var shard : shards) {
+            try (var source = shard.toString().endsWith(".gz") ? new CookieSource(gunzip(shard)) : new MappedCookieSource(shard)) {
+                var parser = CookieParser.createFromAndValidate(source, DEFAULT_HEADERS, targetDates.first());
+                parser.cookieInfoStream().filter(ci -> !ci.getTimestamp().toLocalDate().isAfter(targetDates.last()))
+                        .forEach(expected::addCookie);
+            }
+        }
+
+        var actual = new MultiFileRunner(POOL, DEFAULT_HEADERS).run(shards, new CookieDataStore(), targetDates);
+
+        assertThat(actual).isEqualTo(expected.mostActiveFor(targetDates));
+        assertThat(actual.values()).allMatch(cookies -> !cookies.isEmpty());
+    }
+
+    @Test
+    void givenShardWithInvalidHeaders_whenRun_thenTheFileShouldBeNamedInTheError() throws Exception {
+        var broken = Files.writeString(tempDir.resolve("broken.log"), "foo,bar\n");
+        var files = List.of(shards.get(0), broken);
+        var targetDates = new TreeSet<>(List.of(LocalDate.of(2018, 12, 9)));
+        assertThatThrownBy(() -> new MultiFileRunner(POOL, DEFAULT_HEADERS).run(files, new CookieDataStore(), targetDates))
+                .hasMessageContaining("broken.log");
+    }
+
+    private static BufferedReader gunzip(Path file) {
+        try {
+            return new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(file))));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
@@ -0,0 +1,95 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ParallelRunnerTest {
+
+    private static final List<String> DEFAULT_HEADERS = List.of("cookie", "timestamp");
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    @TempDir
+    static Path tempDir;
+
+    private static Path logFile;
+
+    @BeforeAll
+    static void generateLogFile() throws Exception {
+        logFile = tempDir.resolve("load-test.txt");
+        DataGen.builder()
+                .newestDay(LocalDate.of(2018, 12, 12))
+                .days(346)
+                .linesPerDay(15)
+                .offset(ZoneOffset.UTC)
+                .offset(ZoneOffset.ofHoursMinutes(5, 30))
+                .offset(ZoneOffset.ofHours(-8))
+                .malformedRatio(0.01)
+                .build()
+                .generate(logFile);
+    }
+
+    @AfterAll
+    static void shutdownPool() {
+        POOL.shutdownNow();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"2018-12-12", "2018-06-06", "2018-01-01", "2017-01-01", "2019-01-01"})
+    void givenLogFile_whenRunInParallel_thenResultShouldBeSameAsSequentialRun(String date) {
+        var targetDate = LocalDate.parse(date);
+        assertThat(parallelRun(targetDate, 16)).isEqualTo(sequentialRun(targetDate));
+    }
+
+    @Test
+    void givenMoreRangesThanLines_whenRunInParallel_thenResultShouldBeSameAsSequentialRun() throws Exception {
+        var file = Files.writeString(tempDir.resolve("tiny.txt"),
+                "cookie,timestamp\nc1,2018-12-09T14:19:00+00:00\nc1,2018-12-09T10:13:00+00:00\nc2,2018-12-09T07:25:00+00:00");
+        try (var source = new MappedCookieSource(file)) {
+            CookieParser.createFromAndValidate(source, DEFAULT_HEADERS, LocalDate.of(2018, 12, 9));
+            var cookies = new ParallelRunner(POOL, 100).run(source, new CookieDataStore(), LocalDate.of(2018, 12, 9));
+            assertThat(cookies).isEqualTo(Set.of("c1"));
+        }
+    }
+
+    @Test
+    void givenLogFile_whenMultipleDatesRunInParallel_thenResultShouldBeSameAsSequentialRun() {
+        var dates = List.of(LocalDate.of(2018, 3, 3), LocalDate.of(2018, 6, 6), LocalDate.of(2018, 6, 7));
+        try (var parallel = new MappedCookieSource(logFile); var sequential = new MappedCookieSource(logFile)) {
+            CookieParser.createFromAndValidate(parallel, DEFAULT_HEADERS, dates.get(0));
+            var parser = CookieParser.createFromAndValidate(sequential, DEFAULT_HEADERS, dates.get(0));
+            assertThat(new ParallelRunner(POOL, 16).run(parallel, new CookieDataStore(), dates))
+                    .isEqualTo(new Runner().run(parser, new CookieDataStore(), dates))
+                    .containsOnlyKeys(dates);
+        }
+    }
+
+    private static Set<String> parallelRun(LocalDate targetDate, int rangeCount) {
+        try (var source = new MappedCookieSource(logFile)) {
+            CookieParser.createFromAndValidate(source, DEFAULT_HEADERS, targetDate);
+            return new ParallelRunner(POOL, rangeCount).run(source, new CookieDataStore(), targetDate);
+        }
+    }
+
+    private static Set<String> sequentialRun(LocalDate targetDate) {
+        try (var source = new MappedCookieSource(logFile)) {
+            var parser = CookieParser.createFromAndValidate(source, DEFAULT_HEADERS, targetDate);
+            return new Runner().run(parser, new CookieDataStore(), targetDate);
+        }
+    }
+
+}
@@ -0,0 +1,174 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import net.sanjayts.quantcast.takehome.cookiestore.exceptions.SourceException;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PipelinedRunnerTest {
+
+    private static final List<String> DEFAULT_HEADERS = List.of("cookie", "timestamp");
+
+    @TempDir
+    static Path tempDir;
+
+    private static Path logFile;
+
+    @BeforeAll
+    static void generateLogFile() throws Exception {
+        logFile = tempDir.resolve("load-test.txt");
+        DataGen.builder()
+                .newestDay(LocalDate.of(2018, 12, 12))
+                .days(346)
+                .linesPerDay(15)
+                .offset(ZoneOffset.UTC)
+                .offset(ZoneOffset.ofHoursMinutes(5, 30))
+                .offset(ZoneOffset.ofHours(-8))
+                .malformedRatio(0.01)
+                .build()
+                .generate(logFile);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"2018-12-12", "2018-06-06", "2018-01-01", "2017-01-01", "2019-01-01"})
+    void givenLogFile_whenRunInPipeline_thenResultShouldBeSameAsSequentialRun(String date) throws Exception {
+        var targetDate = LocalDate.parse(date);
+        // Tiny batches and queues so that the stages keep running into each other
+        var runner = new PipelinedRunner(3, 2, 7, 2);
+        try (var source = new CookieSource(Files.newBufferedReader(logFile))) {
+            CookieParser.createFromAndValidate(source, DEFAULT_HEADERS, targetDate);
+            assertThat(runner.run(source, new CookieDataStore(), targetDate)).isEqualTo(sequentialRun(targetDate));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"2018-12-12", "2018-06-06", "2017-01-01", "2019-01-01"})
+    void givenByteSource_whenRunInPipeline_thenResultShouldBeSameAsSequentialRun(String date) throws Exception {
+        var targetDate = LocalDate.parse(date);
+        // Chunks of a line or two, so that most of them end with an incomplete line to be carried over
+        var runner = new PipelinedRunner(3, 2, 1, 2);
+        try (var source = new StreamCookieSource(Files.newInputStream(logFile))) {
+            CookieParser.createFromAndValidate(source, DEFAULT_HEADERS, targetDate);
+            assertThat(runner.run(source, new CookieDataStore(), targetDate)).isEqualTo(sequentialRun(targetDate));
+        }
+    }
+
+    @Test
+    void givenByteSourceWithLinesLongerThanAChunk_whenRunInPipeline_thenTheyShouldBeParsedWhole() throws Exception {
+        var longName = "c".repeat(1000);
+        var file = Files.writeString(tempDir.resolve("long.txt"), "cookie,timestamp\n%s,2018-12-09T14:19:00+00:00\n"
+                .formatted(longName) + "c1,2018-12-09T10:13:00+00:00\n%s,2018-12-09T07:25:00+00:00".formatted(longName));
+        try (var source = new StreamCookieSource(Files.newInputStream(file))) {
+            CookieParser.createFromAndValidate(source, DEFAULT_HEADERS, LocalDate.of(2018, 12, 9));
+            var cookies = new PipelinedRunner(2, 2, 1, 2).run(source, new CookieDataStore(), LocalDate.of(2018, 12, 9));
+            assertThat(cookies).isEqualTo(Set.of(longName));
+        }
+    }
+
+    @Test
+    void givenLogFile_whenMultipleDatesRunInPipeline_thenResultShouldBeSameAsSequentialRun() throws Exception {
+        var dates = List.of(LocalDate.of(2018, 3, 3), LocalDate.of(2018, 6, 6), LocalDate.of(2018, 6, 7));
+        try (var pipelined = new CookieSource(Files.newBufferedReader(logFile));
+             var sequential = new CookieSource(Files.newBufferedReader(logFile))) {
+            CookieParser.createFromAndValidate(pipelined, DEFAULT_HEADERS, dates.get(0));
+            var parser = CookieParser.createFromAndValidate(sequential, DEFAULT_HEADERS, dates.get(0));
+            assertThat(new PipelinedRunner(4, 4).run(pipelined, new CookieDataStore(), dates))
+                    .isEqualTo(new Runner().run(parser, new CookieDataStore(), dates))
+                    .containsOnlyKeys(dates);
+        }
+    }
+
+    @Test
+    void givenFinishedRun_whenMetricsQueried_thenEveryStageShouldHaveAccountedForItsItems() throws Exception {
+        var runner = new PipelinedRunner(2, 3, 100, 4);
+        try (var source = new CookieSource(Files.newBufferedReader(logFile))) {
+            CookieParser.createFromAndValidate(source, DEFAULT_HEADERS, LocalDate.of(2017, 1, 1));
+            runner.run(source, new CookieDataStore(), LocalDate.of(2017, 1, 1));
+        }
+
+        var metrics = runner.metrics();
+        var lines = Files.readAllLines(logFile).size() - 1;
+        assertThat(metrics.elapsedNanos()).isPositive();
+        assertThat(metrics.stages()).extracting(PipelineMetrics.StageStats::name).containsExactly("read", "parse", "sink");
+        var read = metrics.stages().get(0);
+        var parse = metrics.stages().get(1);
+        var sink = metrics.stages().get(2);
+        assertThat(read.items()).isEqualTo(lines);
+        // Only the malformed lines get lost on the way
+        assertThat(parse.items()).isLessThan(lines).isGreaterThan(lines * 95L / 100);
+        assertThat(sink.items()).isEqualTo(parse.items());
+        assertThat(parse.maxQueueDepth()).isLessThanOrEqualTo(4);
+        assertThat(metrics.toString()).contains("read", "parse", "sink");
+    }
+
+    @Test
+    void givenByteSource_whenMetricsQueried_thenTheReaderShouldHaveAccountedForTheBytes() throws Exception {
+        var runner = new PipelinedRunner(2, 3, 100, 4);
+        try (var source = new StreamCookieSource(Files.newInputStream(logFile))) {
+            CookieParser.createFromAndValidate(source, DEFAULT_HEADERS, LocalDate.of(2017, 1, 1));
+            runner.run(source, new CookieDataStore(), LocalDate.of(2017, 1, 1));
+        }
+
+        var metrics = runner.metrics();
+        var lines = Files.readAllLines(logFile);
+        var read = metrics.stages().get(0);
+        var parse = metrics.stages().get(1);
+        var sink = metrics.stages().get(2);
+        assertThat(read.items()).isEqualTo(Files.size(logFile) - lines.get(0).length() - 1);
+        assertThat(parse.items()).isLessThan(lines.size() - 1).isGreaterThan((lines.size() - 1) * 95L / 100);
+        assertThat(sink.items()).isEqualTo(parse.items());
+    }
+
+    @Test
+    void givenFailingSource_whenRunInPipeline_thenTheFailureShouldBePropagated() {
+        var source = new CookieSource() {
+            private int lines;
+
+            @Override
+            public String nextLine() {
+                if (++lines > 10_000) {
+                    throw new SourceException("Disk on fire", null);
+                }
+                return "c1,2018-12-09T14:19:00+00:00";
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        assertThatThrownBy(() -> new PipelinedRunner(2, 2, 64, 2).run(source, new CookieDataStore(), LocalDate.of(2018, 12, 9)))
+                .isInstanceOf(SourceException.class)
+                .hasMessage("Disk on fire");
+    }
+
+    @Test
+    void givenTinyLog_whenRunInPipeline_thenResultShouldBeCorrect() throws Exception {
+        var file = Files.writeString(tempDir.resolve("tiny.txt"),
+                "cookie,timestamp\nc1,2018-12-09T14:19:00+00:00\nc1,2018-12-09T10:13:00+00:00\nc2,2018-12-09T07:25:00+00:00");
+        try (var source = new CookieSource(Files.newBufferedReader(file))) {
+            CookieParser.createFromAndValidate(source, DEFAULT_HEADERS, LocalDate.of(2018, 12, 9));
+            var cookies = new PipelinedRunner(4, 8).run(source, new CookieDataStore(), LocalDate.of(2018, 12, 9));
+            assertThat(cookies).isEqualTo(Set.of("c1"));
+        }
+    }
+
+    private static Set<String> sequentialRun(LocalDate targetDate) throws Exception {
+        try (var source = new CookieSource(Files.newBufferedReader(logFile))) {
+            var parser = CookieParser.createFromAndValidate(source, DEFAULT_HEADERS, targetDate);
+            return new Runner().run(parser, new CookieDataStore(), targetDate);
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class QuarantineTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void givenRejectedLines_whenQuarantineIsClosed_thenTheyShouldAllBeWrittenInOrderWithTheirReason() throws Exception {
+        var file = tempDir.resolve("rejects.txt");
+        try (var quarantine = new Quarantine(file, 16)) {
+            assertThat(quarantine.isEnabled()).isTrue();
+            quarantine.reject(MalformedReason.BAD_TIMESTAMP, "c1,yesterday");
+            quarantine.reject(MalformedReason.MISSING_TIMESTAMP, new StringBuilder("c2"));
+            quarantine.reject(MalformedReason.BLANK_COOKIE, " ,2018-12-09T14:19:00+00:00");
+        }
+        assertThat(Files.readAllLines(file))
+                .containsExactly("bad_timestamp\tc1,yesterday", "missing_timestamp\tc2", "blank_cookie\t ,2018-12-09T14:19:00+00:00");
+    }
+
+    @Test
+    void givenMoreRejectsThanQueued_whenWriterFallsBehind_thenTheRestShouldBeDroppedInsteadOfWaitedFor() throws Exception {
+        var file = tempDir.resolve("rejects.txt");
+        var quarantine = new Quarantine(file, 1);
+        for (int i = 0; i < 100_000; ++i) {
+            quarantine.reject(MalformedReason.EXTRA_FIELDS, "c,2018-12-09T14:19:00+00:00,x");
+        }
+        quarantine.close();
+        // Closing twice, or rejecting after closing, changes nothing
+        quarantine.close();
+        quarantine.reject(MalformedReason.EXTRA_FIELDS, "late");
+
+        assertThat(quarantine.written() + quarantine.dropped()).isEqualTo(100_001);
+        assertThat(Files.readAllLines(file)).hasSize((int) quarantine.written());
+    }
+
+    @Test
+    void givenGlobalQuarantine_whenOpenedAndClosed_thenParsersShouldOnlyUseItInBetween() throws Exception {
+        assertThat(Quarantine.global().isEnabled()).isFalse();
+        var file = tempDir.resolve("rejects.txt");
+        try (var quarantine = Quarantine.openGlobal(file)) {
+            assertThat(Quarantine.global()).isSameAs(quarantine);
+            var source = new CookieSource(Files.newBufferedReader(Files.writeString(tempDir.resolve("cookies.txt"),
+                    "cookie,timestamp\nc1,2018-12-09T14:19:00+00:00\nnonsense\n")));
+            var parser = CookieParser.createFromAndValidate(source, List.of("cookie", "timestamp"),
+                    LocalDate.of(2018, 12, 9));
+            assertThat(parser.cookieInfoStream().count()).isEqualTo(1);
+        }
+        assertThat(Quarantine.global()).isSameAs(Quarantine.DISCARD);
+        assertThat(Files.readAllLines(file)).containsExactly("missing_timestamp\tnonsense");
+    }
+
+    @Test
+    void givenUnwritableFile_whenOpened_thenItShouldFailRightAway() {
+        assertThatThrownBy(() -> new Quarantine(tempDir.resolve("missing").resolve("rejects.txt"), 16))
+                .isInstanceOf(UncheckedIOException.class)
+                .hasMessageContaining("rejects.txt");
+        assertThatThrownBy(() -> new Quarantine(tempDir.resolve("rejects.txt"), 0))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+}
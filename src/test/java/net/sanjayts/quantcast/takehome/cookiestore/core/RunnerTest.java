@@ -7,10 +7,13 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 
@@ -29,6 +32,27 @@ class RunnerTest {
         assertThat(frequentCookies).isEqualTo(Set.of("asdf1adsf"));
     }
 
+    @Test
+    void givenNewRunner_whenRunInvokedForMultipleDates_thenCookiesShouldBeReturnedForEachDate() {
+        var parser = mock(CookieParser.class);
+        var cookies = Stream.of(
+                new CookieInfo("zxzf1adsf", zDtTimeOf(2020, 1, 3, 3)),
+                new CookieInfo("asdf1adsf", zDtTimeOf(2020, 1, 1, 1)),
+                new CookieInfo("asdf1adsf", zDtTimeOf(2020, 1, 1, 2)),
+                new CookieInfo("zxzf1adsf", zDtTimeOf(2020, 1, 1, 3)),
+                new CookieInfo("qwer1adsf", zDtTimeOf(2020, 1, 1, 3)),
+                new CookieInfo("qwer1adsf", zDtTimeOf(2020, 1, 1, 4))
+        );
+        doReturn(cookies).when(parser).cookieInfoStream();
+        var dates = List.of(LocalDate.of(2020, 1, 3), LocalDate.of(2020, 1, 1), LocalDate.of(2020, 1, 2));
+        var frequentCookies = new Runner().run(parser, new CookieDataStore(), dates);
+        assertThat(frequentCookies).containsExactly(
+                entry(LocalDate.of(2020, 1, 1), new TreeSet<>(Set.of("asdf1adsf", "qwer1adsf"))),
+                entry(LocalDate.of(2020, 1, 2), new TreeSet<>()),
+                entry(LocalDate.of(2020, 1, 3), new TreeSet<>(Set.of("zxzf1adsf"))));
+        assertThat(frequentCookies.get(LocalDate.of(2020, 1, 1))).containsExactly("asdf1adsf", "qwer1adsf");
+    }
+
     private static ZonedDateTime zDtTimeOf(int year, int month, int day, int min) {
         return ZonedDateTime.of(LocalDateTime.of(year, month, day, 0, min), ZoneOffset.UTC);
     }
@@ -0,0 +1,92 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+
+import static net.sanjayts.quantcast.takehome.cookiestore.core.TestFixtures.fileOf;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SortedLogSeekerTest {
+
+    private static final List<String> DEFAULT_HEADERS = List.of("cookie", "timestamp");
+
+    private static final String HEADER = "cookie,timestamp\n";
+
+    private static final String SAMPLE_DATA = HEADER +
+            "c1,2018-12-10T02:00:00+00:00\n" +
+            "c2,2018-12-10T01:00:00+00:00\n" +
+            "c3,2018-12-09T02:00:00+00:00\n" +
+            "this is not a cookie\n" +
+            "c4,2018-12-09T01:00:00+00:00\n" +
+            "c5,2018-12-08T02:00:00+00:00\n" +
+            "c6,2018-12-07T01:00:00+00:00\n";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void givenSortedLog_whenDateExists_thenOffsetsOfItsFirstAndLastLinesShouldBeFound() throws Exception {
+        try (var seeker = new SortedLogSeeker(fileOf(tempDir, SAMPLE_DATA))) {
+            var start = seeker.firstLineOnOrBefore(HEADER.length(), epochDay(2018, 12, 9));
+            var end = seeker.firstLineBefore(start, epochDay(2018, 12, 9));
+            assertThat(SAMPLE_DATA.substring((int) start, (int) end))
+                    .isEqualTo("c3,2018-12-09T02:00:00+00:00\nthis is not a cookie\nc4,2018-12-09T01:00:00+00:00\n");
+        }
+    }
+
+    @Test
+    void givenSortedLog_whenDateIsMissing_thenAnEmptyRegionShouldBeFound() throws Exception {
+        try (var seeker = new SortedLogSeeker(fileOf(tempDir, SAMPLE_DATA))) {
+            var start = seeker.firstLineOnOrBefore(HEADER.length(), epochDay(2018, 11, 1));
+            var end = seeker.firstLineBefore(start, epochDay(2018, 11, 1));
+            assertThat(start).isEqualTo(SAMPLE_DATA.length()).isEqualTo(end);
+        }
+    }
+
+    @Test
+    void givenSortedLog_whenDateIsNewerThanAllLines_thenTheFirstDataLineShouldBeFound() throws Exception {
+        try (var seeker = new SortedLogSeeker(fileOf(tempDir, SAMPLE_DATA))) {
+            assertThat(seeker.firstLineOnOrBefore(HEADER.length(), epochDay(2019, 1, 1))).isEqualTo(HEADER.length());
+            assertThat(seeker.firstLineBefore(HEADER.length(), epochDay(2018, 12, 11))).isEqualTo(HEADER.length());
+        }
+    }
+
+    @Test
+    void givenLogWithoutTrailingNewline_whenOldestDateRequested_thenItsLastLineShouldBeIncluded() throws Exception {
+        var data = SAMPLE_DATA.strip();
+        try (var seeker = new SortedLogSeeker(fileOf(tempDir, data))) {
+            var start = seeker.firstLineOnOrBefore(HEADER.length(), epochDay(2018, 12, 7));
+            var end = seeker.firstLineBefore(start, epochDay(2018, 12, 7));
+            assertThat(data.substring((int) start, (int) end)).isEqualTo("c6,2018-12-07T01:00:00+00:00");
+        }
+    }
+
+    @Test
+    void givenMappedSource_whenParserSeeksToDate_thenOnlyCookiesForThatDateShouldBeStreamed() throws Exception {
+        try (var source = new MappedCookieSource(fileOf(tempDir, SAMPLE_DATA))) {
+            var parser = CookieParser.createFromAndValidate(source, DEFAULT_HEADERS, LocalDate.of(2018, 12, 9));
+            assertThat(parser.seekTo(LocalDate.of(2018, 12, 9))).isTrue();
+            var names = parser.cookieInfoStream().map(ci -> ci.getName()).toList();
+            assertThat(names).isEqualTo(List.of("c3", "c4"));
+        }
+    }
+
+    @Test
+    void givenMappedSource_whenParserSeeksToDateRange_thenOnlyCookiesForThoseDatesShouldBeStreamed() throws Exception {
+        try (var source = new MappedCookieSource(fileOf(tempDir, SAMPLE_DATA))) {
+            var parser = CookieParser.createFromAndValidate(source, DEFAULT_HEADERS, LocalDate.of(2018, 12, 8));
+            assertThat(parser.seekTo(LocalDate.of(2018, 12, 8), LocalDate.of(2018, 12, 9))).isTrue();
+            var names = parser.cookieInfoStream().map(ci -> ci.getName()).toList();
+            assertThat(names).isEqualTo(List.of("c3", "c4", "c5"));
+        }
+    }
+
+    private static long epochDay(int year, int month, int day) {
+        return LocalDate.of(year, month, day).toEpochDay();
+    }
+
+}
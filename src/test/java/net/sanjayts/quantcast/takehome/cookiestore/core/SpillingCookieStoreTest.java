@@ -0,0 +1,124 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static net.sanjayts.quantcast.takehome.cookiestore.core.TestFixtures.add;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SpillingCookieStoreTest {
+
+    private static final LocalDate DAY = LocalDate.of(2018, 12, 9);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void givenCountsBelowThreshold_whenQueried_thenNothingShouldBeSpilled() {
+        try (var store = SpillingCookieStore.create(tempDir, 1 << 20)) {
+            add(store, DAY, "c1", 2);
+            add(store, DAY, "c2", 1);
+            assertThat(store.spillCount()).isZero();
+            assertThat(store.mostActiveFor(DAY)).isEqualTo(Set.of("c1"));
+            assertThat(store.countOf(DAY, "c2")).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void givenCountsAboveThreshold_whenSpilled_thenResultsShouldMatchTheInMemoryStore() {
+        var expected = new CookieDataStore();
+        try (var store = SpillingCookieStore.create(tempDir, 20_000, 4)) {
+            var rand = new Random(42);
+            for (int i = 0; i < 50_000; ++i) {
+                var date = DAY.minusDays(rand.nextInt(3));
+                var name = "cookie-" + Math.min(rand.nextInt(3_000), rand.nextInt(3_000));
+                add(store, date, name, 1);
+                add(expected, date, name, 1);
+            }
+
+            assertThat(store.spillCount()).isGreaterThan(1);
+            assertThat(store.dates()).isEqualTo(expected.dates());
+            for (var date : expected.dates()) {
+                assertThat(store.mostActiveFor(date)).isEqualTo(expected.mostActiveFor(date));
+                assertThat(store.topK(date, 20)).isEqualTo(expected.topK(date, 20));
+                assertThat(store.uniqueCookies(date)).isEqualTo(expected.uniqueCookies(date));
+            }
+            assertThat(store.countOf(DAY, "cookie-42")).isEqualTo(expected.countOf(DAY, "cookie-42"));
+            assertThat(store.countOf(DAY, "unknown")).isZero();
+        }
+    }
+
+    @Test
+    void givenStoresCreatedFromTheSameStore_whenMerged_thenRunsShouldBeShared() {
+        try (var store = SpillingCookieStore.create(tempDir, 1_000, 2)) {
+            var part1 = store.createEmpty();
+            var part2 = store.createEmpty();
+            for (int i = 0; i < 100; ++i) {
+                add(part1, DAY, "cookie-" + i, 1);
+                add(part2, DAY, "cookie-" + i, i == 7 ? 2 : 1);
+            }
+            add(store, DAY.plusDays(1), "c1", 1);
+            assertThat(part1.spillCount()).isPositive();
+
+            store.merge(part1);
+            store.merge(part2);
+
+            assertThat(store.mostActiveFor(DAY)).isEqualTo(Set.of("cookie-7"));
+            assertThat(store.countOf(DAY, "cookie-7")).isEqualTo(3);
+            assertThat(store.countOf(DAY, "cookie-8")).isEqualTo(2);
+            assertThat(store.dates()).containsExactly(DAY, DAY.plusDays(1));
+        }
+    }
+
+    @Test
+    void givenNamesLongerThanAShort_whenSpilled_thenTheyShouldBeReadBackIntact() {
+        var longName = "x".repeat(70_000);
+        try (var store = SpillingCookieStore.create(tempDir, 1, 2)) {
+            add(store, DAY, longName, 2);
+            add(store, DAY, "short", 1);
+
+            assertThat(store.spillCount()).isPositive();
+            assertThat(store.mostActiveFor(DAY)).containsExactly(longName);
+            assertThat(store.countOf(DAY, longName)).isEqualTo(2);
+            assertThat(store.countOf(DAY, "short")).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void givenStore_whenMergedIntoItself_thenItShouldFail() {
+        try (var store = SpillingCookieStore.create(tempDir, 1 << 20)) {
+            assertThatThrownBy(() -> store.merge(store)).isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Test
+    void givenIncompatibleStores_whenMerged_thenItShouldFail() {
+        try (var store = SpillingCookieStore.create(tempDir, 1_000);
+             var other = SpillingCookieStore.create(tempDir, 1_000)) {
+            assertThatThrownBy(() -> store.merge(other)).isInstanceOf(IllegalArgumentException.class);
+            assertThatThrownBy(() -> store.merge(new CookieDataStore())).isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Test
+    void givenSpilledStore_whenClosed_thenRunFilesShouldBeRemoved() throws Exception {
+        var store = SpillingCookieStore.create(tempDir, 1_000);
+        for (int i = 0; i < 100; ++i) {
+            add(store, DAY, "cookie-" + i, 1);
+        }
+        assertThat(store.spillCount()).isPositive();
+        store.close();
+        try (var files = Files.list(tempDir)) {
+            assertThat(files.toList()).isEqualTo(List.of());
+        }
+    }
+
+}
@@ -0,0 +1,161 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import net.sanjayts.quantcast.takehome.cookiestore.exceptions.SourceException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+import static net.sanjayts.quantcast.takehome.cookiestore.core.TestFixtures.fifo;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+class StreamCookieSourceTest {
+
+    private static final List<String> HEADERS = List.of("cookie", "timestamp");
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void givenWindowsLineEndingsAndEmptyLines_whenReadLineByLine_thenAllLinesShouldBeReturnedWithoutCarriageReturns() {
+        try (var source = sourceOf("a,b\r\n\nc,d\r\ne,f")) {
+            var lines = new ArrayList<String>();
+            for (var line = source.nextLine(); line != null; line = source.nextLine()) {
+                lines.add(line);
+            }
+            assertThat(lines).isEqualTo(List.of("a,b", "", "c,d", "e,f"));
+            assertThat(source.read(new byte[8], 0, 8)).isEqualTo(-1);
+        }
+    }
+
+    @Test
+    void givenLinesLongerThanTheBuffer_whenReadLineByLine_thenTheyShouldBeReturnedIntact() {
+        var longLine = "x".repeat(200_000) + ",2018-12-09T14:19:00+00:00";
+        try (var source = sourceOf("cookie,timestamp\n" + longLine + "\nshort\n")) {
+            assertThat(source.nextLine()).isEqualTo("cookie,timestamp");
+            assertThat(source.nextLine()).isEqualTo(longLine);
+            assertThat(source.nextLine()).isEqualTo("short");
+            assertThat(source.nextLine()).isNull();
+        }
+    }
+
+    @Test
+    void givenHeaderReadAsLine_whenTheRestIsReadAsBytes_thenTheBytesShouldPickUpRightAfterTheHeader() {
+        try (var source = sourceOf("cookie,timestamp\nc1,2018-12-09T14:19:00+00:00\n")) {
+            assertThat(source.isByteSource()).isTrue();
+            assertThat(source.nextLine()).isEqualTo("cookie,timestamp");
+            var bytes = new byte[64];
+            var length = 0;
+            for (int n = source.read(bytes, 0, 5); n >= 0; n = source.read(bytes, length, 5)) {
+                length += n;
+            }
+            assertThat(new String(bytes, 0, length, StandardCharsets.UTF_8)).isEqualTo("c1,2018-12-09T14:19:00+00:00\n");
+        }
+    }
+
+    @Test
+    void givenNonAsciiCookies_whenParsedInBatches_thenTheyShouldBeCountedLikeTheMappedSourceDoes() throws Exception {
+        var data = String.join("\n", "cookie,timestamp", "café,2018-12-09T14:19:00+00:00",
+                "\u2003 ,2018-12-09T13:00:00+00:00", "🍪,2018-12-09T12:00:00+00:00",
+                "café,2018-12-09T11:00:00+00:00", "ascii,2018-12-09T10:00:00+00:00",
+                "été,2018-12-09T09:00é", "old,2018-12-08T10:00:00+00:00", "");
+        var file = Files.writeString(tempDir.resolve("cookies.txt"), data);
+        var date = LocalDate.of(2018, 12, 9);
+
+        var streamed = new CookieDataStore();
+        var streamMetrics = new IngestMetrics();
+        try (var source = new StreamCookieSource(Files.newInputStream(file))) {
+            var parser = CookieParser.createFromAndValidate(source, HEADERS, date);
+            parser.recordTo(streamMetrics);
+            assertThat(parser.isBatchCapable()).isTrue();
+            Runner.ingest(parser, streamed);
+            assertThat(parser.isCutoffReached()).isTrue();
+        }
+        var mapped = new CookieDataStore();
+        try (var source = new MappedCookieSource(file)) {
+            var parser = CookieParser.createFromAndValidate(source, HEADERS, date);
+            parser.recordTo(new IngestMetrics());
+            Runner.ingest(parser, mapped);
+        }
+
+        assertThat(streamed.mostActiveFor(date)).containsExactly("café");
+        assertThat(streamed.countOf(date, "🍪")).isEqualTo(1);
+        assertThat(streamed.topK(date, 10)).isEqualTo(mapped.topK(date, 10));
+        assertThat(streamMetrics.snapshot().malformed(MalformedReason.BLANK_COOKIE)).isEqualTo(1);
+        assertThat(streamMetrics.snapshot().malformed(MalformedReason.BAD_TIMESTAMP)).isEqualTo(1);
+    }
+
+    @Test
+    @EnabledOnOs({OS.LINUX, OS.MAC})
+    void givenLogPipedInPlainAndGzipped_whenIngested_thenTheResultShouldMatchTheMappedFile() throws Exception {
+        var logFile = tempDir.resolve("cookies.txt");
+        DataGen.builder().seed(3).cardinality(50).zipfSkew(1.1).newestDay(LocalDate.of(2018, 12, 12)).days(3)
+                .linesPerDay(2_000).build().generate(logFile);
+        var gzipped = tempDir.resolve("cookies.txt.gz");
+        try (var out = new GZIPOutputStream(Files.newOutputStream(gzipped))) {
+            Files.copy(logFile, out);
+        }
+        // All the days of the log, so that the pipes are read up to the end rather than closed on their writers
+        var dates = new TreeSet<>(List.of(LocalDate.of(2018, 12, 10), LocalDate.of(2018, 12, 11),
+                LocalDate.of(2018, 12, 12)));
+        var executor = Executors.newSingleThreadExecutor();
+        try {
+            var runner = new MultiFileRunner(executor, HEADERS);
+            var expected = new CookieDataStore();
+            runner.run(List.of(logFile), expected, dates);
+            for (var file : List.of(logFile, gzipped)) {
+                var pipe = fifo(tempDir.resolve("pipe-" + file.getFileName()));
+                var writer = CompletableFuture.runAsync(() -> {
+                    try (var out = Files.newOutputStream(pipe)) {
+                        Files.copy(file, out);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                var piped = new CookieDataStore();
+                assertThat(runner.run(List.of(pipe), piped, dates)).isEqualTo(expected.mostActiveFor(dates));
+                writer.join();
+                for (var date : dates) {
+                    assertThat(piped.topK(date, 10)).isEqualTo(expected.topK(date, 10));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void givenFailingStream_whenRead_thenSourceExceptionShouldBeThrown() {
+        var failing = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("disk on fire");
+            }
+        };
+        try (var source = new StreamCookieSource(failing)) {
+            var t = catchThrowable(source::nextLine);
+            assertThat(t).isInstanceOf(SourceException.class).hasMessageContaining("disk on fire");
+        }
+    }
+
+    private static StreamCookieSource sourceOf(String data) {
+        return new StreamCookieSource(new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8)));
+    }
+
+}
@@ -0,0 +1,40 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import net.sanjayts.quantcast.takehome.cookiestore.model.CookieInfo;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** Helpers shared by the tests of the stores and sources */
+final class TestFixtures {
+
+    private TestFixtures() {
+    }
+
+    /** Add the given cookie to the store the given number of times, all at 10:00 UTC of the given day */
+    static void add(CookieStore store, LocalDate date, String name, int times) {
+        var timestamp = ZonedDateTime.of(date.atTime(10, 0), ZoneOffset.UTC);
+        for (int i = 0; i < times; ++i) {
+            store.addCookie(new CookieInfo(name, timestamp));
+        }
+    }
+
+    /** A new file in the given directory holding the given data */
+    static Path fileOf(Path dir, String data) throws IOException {
+        return Files.writeString(Files.createTempFile(dir, "cookies", ".txt"), data);
+    }
+
+    /** Create a named pipe at the given path */
+    static Path fifo(Path path) throws IOException, InterruptedException {
+        var mkfifo = new ProcessBuilder("mkfifo", path.toString()).inheritIO().start();
+        assertThat(mkfifo.waitFor()).isZero();
+        return path;
+    }
+
+}
@@ -0,0 +1,59 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+class TimestampParserTest {
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "2018-12-09T14:19:00+00:00", "2018-12-09T14:19:00+01:00", "2018-12-09T00:19:00+01:00",
+            "2018-12-09T23:59:59-05:30", "2018-12-09T14:19Z", "2018-12-09t14:19:00z", "2018-12-09T14:19:00.123456789Z", "2018-12-09T14:19:00.Z",
+            "2020-02-29T12:00:00+00:00", "2000-02-29T12:00:00+00:00", "1969-12-31T23:59:59+00:00",
+            "1600-03-01T00:00:00+18:00", "2018-01-01T00:00:00-18:00", "2018-01-01T00:00:00+01:30:15",
+            "2018-12-09T14:19:00+05", "2018-12-09T14:19:00-05", "2018-12-09T14:19+05", "2018-01-01T00:00:00+18"
+    })
+    void givenValidTimestamp_whenParsed_thenEpochSecondShouldMatchJavaTime(String timestamp) {
+        var expected = ZonedDateTime.parse(timestamp, DateTimeFormatter.ISO_OFFSET_DATE_TIME).toEpochSecond();
+        var epochSecond = TimestampParser.parseEpochSecond(timestamp, 0, timestamp.length());
+        assertThat(epochSecond).isEqualTo(expected);
+        assertThat(parseBytes(timestamp)).isEqualTo(expected);
+        assertThat(TimestampParser.epochDayOf(epochSecond))
+                .isEqualTo(ZonedDateTime.parse(timestamp).toInstant().atOffset(ZoneOffset.UTC).toLocalDate().toEpochDay());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "", " x", "aasdf", "2018-12-09", "2018-12-09T14:19:00", "2018-12-09T14:19:00+0100", "2018-12-09 14:19:00+00:00",
+            "2018-13-09T14:19:00+00:00", "2018-02-29T14:19:00+00:00", "2018-04-31T14:19:00+00:00", "2018-12-09T24:00:00Z",
+            "2018-12-09T14:60:00Z", "2018-12-09T14:19:60Z", "2018-12-09T14:19:00+19:00", "2018-12-09T14:19:00Z ",
+            "2018-12-09T14:19:00+01:00x", "2018-1a-09T14:19:00Z", "2018-12-09T14:19:00.1234567890Z", "1900-02-29T00:00:00Z",
+            "2018-12-09T14:19:00+5", "2018-12-09T14:19:00+05:3", "2018-12-09T14:19:00+19", "2018-12-09T14:19:00+0a"
+    })
+    void givenMalformedTimestamp_whenParsed_thenSentinelShouldBeReturnedJustLikeJavaTimeFails(String timestamp) {
+        assertThat(catchThrowable(() -> ZonedDateTime.parse(timestamp, DateTimeFormatter.ISO_OFFSET_DATE_TIME))).isNotNull();
+        assertThat(TimestampParser.parseEpochSecond(timestamp, 0, timestamp.length())).isEqualTo(TimestampParser.INVALID);
+        assertThat(parseBytes(timestamp)).isEqualTo(TimestampParser.INVALID);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"c1,2018-12-09T14:19:00+01:00", "xxx2018-12-09T14:19:00+01:00"})
+    void givenTimestampInsideALine_whenParsedUsingOffsets_thenOnlyTheRegionShouldBeConsidered(String line) {
+        var epochSecond = TimestampParser.parseEpochSecond(line, 3, line.length());
+        assertThat(epochSecond).isEqualTo(ZonedDateTime.parse("2018-12-09T14:19:00+01:00").toEpochSecond());
+    }
+
+    private static long parseBytes(String timestamp) {
+        var bytes = timestamp.getBytes(StandardCharsets.US_ASCII);
+        return TimestampParser.parseEpochSecond(bytes, 0, bytes.length);
+    }
+
+}
@@ -0,0 +1,49 @@
+package net.sanjayts.quantcast.takehome.cookiestore.core;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The {@link DelimiterScanner} which compares as many bytes at once as the widest SIMD registers of the CPU hold (16
+ * with SSE/NEON, 32 with AVX2 and 64 with AVX-512), using the incubating Vector API.
+ *
+ * This class is only compiled with the `vector` build profile, and {@link DelimiterScanner} only loads it once it has
+ * made sure the `jdk.incubator.vector` module is there, otherwise it fails to link.
+ */
+final class VectorDelimiterScanner extends DelimiterScanner {
+
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+    /**
+     * @return Whether the CPU has SIMD registers at all; without them the Vector API falls back to plain (and much
+     * slower) Java code
+     */
+    static boolean isSupported() {
+        return SPECIES.vectorBitSize() >= 128;
+    }
+
+    @Override
+    int scan(byte[] data, int from, int to, int[] positions) {
+        var n = 0;
+        var i = from;
+        for (; i + SPECIES.length() <= to; i += SPECIES.length()) {
+            var bytes = ByteVector.fromArray(SPECIES, data, i);
+            // At most 64 lanes, so every lane gets a bit of the long
+            var matches = bytes.eq((byte) '\n').or(bytes.eq((byte) ',')).toLong();
+            while (matches != 0) {
+                if (n == positions.length) {
+                    return n;
+                }
+                positions[n++] = i + Long.numberOfTrailingZeros(matches);
+                matches &= matches - 1;
+            }
+        }
+        return scanBytes(data, i, to, positions, n);
+    }
+
+    @Override
+    String name() {
+        return "Vector API (%d bytes)".formatted(SPECIES.length());
+    }
+
+}